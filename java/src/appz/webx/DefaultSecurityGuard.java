@@ -44,10 +44,10 @@ public class DefaultSecurityGuard extends SecurityGuard {
         rules.add( req -> {
             String path = req.headerBlock.getRequestPath();
             if ( !path.equals("/oscmd") ) return true;
-            if ( req.parsedBody==null || !(req.parsedBody instanceof Map) ) return false;
+            if ( req.parsedBody()==null || !(req.parsedBody() instanceof Map) ) return false;
             
             @SuppressWarnings("unchecked")
-            Map<Object,Object> body=(Map<Object,Object>)req.parsedBody;
+            Map<Object,Object> body=(Map<Object,Object>)req.parsedBody();
             String command=(String)body.get( "command" );
             @SuppressWarnings("unchecked")
             List<String> args=body.containsKey( "args" ) ? (List<String>)body.get( "args" ) : Collections.emptyList();
@@ -31,13 +31,18 @@ public class Main {
 
         int port = p.getInteger( "port", 13102, "listen to which port" );
         boolean https = p.getBoolean( "https", false, "use HTTPS (true) or HTTP (false)" );
+        boolean nio = p.getBoolean( "nio", false, "use the non-blocking selector engine (HTTP only)" );
+        boolean compress = p.getBoolean( "compress", true, "gzip/deflate compressible responses for clients that accept it" );
+        int fileCacheMb = p.getInteger( "filecache", 0, "megabytes of hot static files to keep in memory (0 disables)" );
         String basePath = p.getString( "base", "webx", "base path for all endpoints (e.g., '/app001')" );
         String staticConfig = p.getString( "static", "www@./datafiles/www", "static files endpoint as path@directory (use 'NONE' to disable)" );
         String proxyConfig = p.getString( "proxy", "proxy@../api-keys.json", "proxy endpoint as path@config-file (use 'NONE' to disable)" );
-        String dbConfig = p.getString( "db", "db@jdbc:hsqldb:file:./datafiles/dbf/webx-db", "database endpoint as path@jdbc-url (use 'NONE' to disable)" );
+        String dbConfig = p.getString( "db", "db@jdbc:hsqldb:file:./datafiles/dbf/webx-db", "database endpoint as path@jdbc-url or path@log:directory (use 'NONE' to disable)" );
+        String durability = p.getString( "durability", "sync", "when database writes reach the disk: sync, group:millis[:writes] (log: databases only) or async:millis" );
         String loginConfig = p.getString( "login", "login@WebX", "login endpoint as path@app-name (use 'NONE' to disable)" );
         String shutdownCode = p.getString( "shutdown", null, "shutdown code - if provided, server will exit when this code appears in the first line of any request" );
         boolean run = p.getBoolean( "run", false, "start the server" );
+        PersistentData.defaultDurability = Durability.parse(durability); // NOTE: before any PersistentData opens
 
         // Normalize base path
         if ( basePath!=null && !basePath.isEmpty() ) {
@@ -49,6 +54,7 @@ public class Main {
         System.out.println( "\nCONFIGURATION SUMMARY:" );
         System.out.println( "  Server will run on port: " + port + " (" + (https ? "HTTPS" : "HTTP") + ")" );
         if ( basePath!=null && !basePath.isEmpty() ) System.out.println( "  Base path: " + basePath );
+        System.out.println( "  Durability: " + durability );
 
         if ( staticConfig.equalsIgnoreCase("NONE") ) {
             System.out.println( "  Static files: DISABLED" );
@@ -107,8 +113,9 @@ public class Main {
             return;
         }
 
-        HttpServer server = new HttpServer( port, https );
+        HttpServer server = nio && !https ? new NioHttpServer(port) : new HttpServer( port, https );
         if ( shutdownCode!=null ) server.setShutdownCode( shutdownCode );
+        if (! compress ) server.compression = null;
 
         // Create security guard
         DefaultSecurityGuard securityGuard = new DefaultSecurityGuard();
@@ -134,9 +141,14 @@ public class Main {
             if ( !wwwDir.exists() ) {
                 Log.log( "ERROR: " + staticDir + " does not exist" );
             } else {
+                HttpFileHandler fileHandler = new HttpFileHandler( fullStaticPath, wwwDir );
+                if ( fileCacheMb>0 ) {
+                    try { fileHandler.cache = new HttpFileCache( wwwDir, fileCacheMb*1024L*1024L ); }
+                    catch ( IOException e ) { Log.log( "File cache disabled: " + e ); }
+                }
                 server.handlers.put( fullStaticPath, new FileExtensionHandler()
                     .addExtensionHandler( ".jss", new HttpJssHandler( fullStaticPath, wwwDir, dbStorage ) )
-                    .setDefaultHandler( new HttpFileHandler( fullStaticPath, wwwDir ) ) );
+                    .setDefaultHandler( fileHandler ) );
                 Log.log( "Static files configured at " + fullStaticPath + " from " + wwwDir.getAbsolutePath() );
             }
         }
@@ -166,7 +178,7 @@ public class Main {
             String dbPath = dbParts.length>0 ? dbParts[0] : "db";
             if ( !dbPath.startsWith("/") ) dbPath = "/" + dbPath;
             String fullDbPath = basePath + dbPath;
-            server.handlers.put( fullDbPath, new HttpJsonHandler(dbStorage) );
+            server.handlers.put( fullDbPath, new HttpJsonHandler( fullDbPath, dbStorage ) );
         }
 
         if ( pd != null ) {
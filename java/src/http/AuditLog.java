@@ -0,0 +1,302 @@
+package http;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import jLib.*;
+
+
+
+/**
+ * The request/response audit trail, written off the request thread. Records go into a bounded queue (a ring
+ * buffer of capacity slots) that one background thread drains in batches into rolling segment files
+ * "audit-<timestamp>-<n>.log" under dir (n counts this log's segments), forcing them to disk at most every
+ * fsyncMillis rather than per record.
+ * When the queue is full a record is dropped (and counted), or with blockWhenFull the request thread waits.
+ * Bodies are cut to maxBodyBytes, and only a bodySampleRate fraction of requests have their bodies recorded.
+ */
+public class AuditLog implements Closeable {
+
+
+
+    public final File dir;
+    public final int capacity;
+    public long maxSegmentBytes = 16L*1024*1024;
+    public long fsyncMillis = 1000;
+    public int maxBodyBytes = 4096; // negative means no limit
+    public double bodySampleRate = 1.0;
+    public boolean blockWhenFull = false;
+    private final ArrayBlockingQueue<String> queue;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long completed = 0;
+    private Thread writer;
+    private FileChannel segment;
+    private File segmentFile;
+    private long segmentBytes = 0;
+    private int segmentCount = 0;
+    private volatile boolean closed = false;
+
+
+
+    public AuditLog( File dir, int capacity ) {
+        this.dir = dir;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+
+
+    public void logRequest( String requestId, HttpRequest request ) {
+        StringBuilder content = new StringBuilder();
+        content.append( "=== REQUEST " ).append( requestId ).append( " ===\n" );
+        appendMessage( content, requestId, request );
+        log( content.toString() );
+    }
+
+
+
+    public void logResponse( String requestId, HttpResponse response ) {
+        StringBuilder content = new StringBuilder();
+        content.append( "=== RESPONSE " ).append( requestId ).append( " ===\n" );
+        appendMessage( content, requestId, response );
+        log( content.toString() );
+    }
+
+
+
+    private void appendMessage( StringBuilder content, String requestId, HttpMessage msg ) {
+        content.append( "Time: " ).append( Lib.timeStamp() ).append( "\n" );
+        content.append( msg.headerBlock.firstLine ).append( "\n" );
+        for ( Map.Entry<String,String> header : msg.headerBlock.headers.entrySet() ) {
+            content.append( header.getKey() ).append( ": " ).append( header.getValue() ).append( "\n" );
+        }
+        content.append( "\n" );
+        if ( msg.bodyLength>0 && sampled(requestId) ) {
+            if ( msg.bodyFile!=null ) {
+                content.append( "(" ).append( msg.bodyLength ).append( " bytes spooled to " ).append( msg.bodyFile ).append( ")" );
+            } else {
+                int n = maxBodyBytes<0 ? msg.body.length : Math.min( maxBodyBytes, msg.body.length );
+                content.append( new String( msg.body, 0, n, StandardCharsets.UTF_8 ) );
+                if ( n<msg.body.length ) content.append( "... (" ).append( msg.body.length ).append( " bytes)" );
+            }
+        }
+        content.append( "\n\n" );
+    }
+
+
+
+    /**
+     * Decided by requestId, so a request and its response are sampled together.
+     */
+    private boolean sampled( String requestId ) {
+        if ( bodySampleRate>=1 ) return true;
+        return Math.floorMod( requestId.hashCode(), 10_000 ) < bodySampleRate*10_000;
+    }
+
+
+
+    /**
+     * Queues one record. Returns false if it was dropped because the queue was full or the log is closed.
+     */
+    public boolean log( String record ) {
+        if ( closed ) return false;
+        ensureWriter();
+        boolean queued;
+        if ( blockWhenFull ) {
+            try {
+                queue.put(record);
+                queued = true;
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else {
+            queued = queue.offer(record);
+        }
+        if (! queued ) {
+            dropped.incrementAndGet();
+            Log.logOnce( "AuditLog.dropped", "audit log queue full; dropping records", 5000 );
+            return false;
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+
+
+    public long dropped() { return dropped.get(); }
+    public synchronized File currentSegment() { return segmentFile; }
+
+
+
+    /**
+     * Waits until everything queued so far is written and forced to disk.
+     */
+    public void flush() throws IOException {
+        long target = enqueued.get();
+        synchronized (this) {
+            while ( completed<target && writer!=null && writer.isAlive() ) {
+                try { wait(100); }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if ( segment!=null ) segment.force(false);
+        }
+    }
+
+
+
+    private synchronized void ensureWriter() {
+        if ( writer!=null ) return;
+        writer = new Thread( this::writeLoop, "AuditLog-writer" );
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        long lastSync = System.currentTimeMillis();
+        boolean unsynced = false;
+        while (true) {
+            try {
+                String first = queue.poll( Math.max( 1, Math.min( fsyncMillis, 100 ) ), TimeUnit.MILLISECONDS );
+                if ( first!=null ) {
+                    batch.add(first);
+                    queue.drainTo( batch, 1023 );
+                }
+            } catch ( InterruptedException e ) {
+                return;
+            }
+            synchronized (this) {
+                try {
+                    if (! batch.isEmpty() ) {
+                        write(batch);
+                        unsynced = true;
+                    }
+                    long now = System.currentTimeMillis();
+                    if ( unsynced && now-lastSync>=fsyncMillis ) {
+                        segment.force(false);
+                        lastSync = now;
+                        unsynced = false;
+                    }
+                } catch ( IOException e ) {
+                    Log.logOnce( "AuditLog.write", e, 5000 );
+                }
+                completed += batch.size();
+                batch.clear();
+                notifyAll();
+                if ( closed && queue.isEmpty() ) return;
+            }
+        }
+    }
+
+
+
+    private void write( List<String> batch ) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[ batch.size() ];
+        for ( int i=0; i<bufs.length; i++ ) bufs[i] = ByteBuffer.wrap( batch.get(i).getBytes(StandardCharsets.UTF_8) );
+        int from = 0;
+        while ( from<bufs.length ) {
+            if ( segment==null || ( segmentBytes>0 && segmentBytes+bufs[from].remaining()>maxSegmentBytes ) ) roll();
+            int to = from;
+            long batchBytes = 0;
+            while ( to<bufs.length && ( to==from || segmentBytes+batchBytes+bufs[to].remaining()<=maxSegmentBytes ) ) {
+                batchBytes += bufs[to].remaining();
+                to++;
+            }
+            while ( bufs[to-1].hasRemaining() ) segment.write( bufs, from, to-from );
+            segmentBytes += batchBytes;
+            from = to;
+        }
+    }
+
+
+
+    private void roll() throws IOException {
+        if ( segment!=null ) {
+            segment.force(false);
+            segment.close();
+        }
+        dir.mkdirs();
+        segmentCount++;
+        segmentFile = new File( dir, "audit-" + Lib.timeStamp().replaceAll( "[^0-9]", "" ) + "-" + segmentCount + ".log" );
+        segment = FileChannel.open( segmentFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+        );
+        segmentBytes = segment.size();
+    }
+
+
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Thread w;
+        synchronized (this) { w = writer; }
+        if ( w!=null ) { // NOTE: not interrupted, since an interrupt would close the FileChannel mid-write
+            try { w.join(10_000); }
+            catch ( InterruptedException e ) { Thread.currentThread().interrupt(); }
+        }
+        synchronized (this) {
+            if ( segment!=null ) {
+                segment.force(false);
+                segment.close();
+                segment = null;
+            }
+        }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        File dir = java.nio.file.Files.createTempDirectory("audit_test").toFile();
+        try {
+            AuditLog audit = new AuditLog( dir, 4 );
+            audit.maxSegmentBytes = 200;
+            audit.maxBodyBytes = 5;
+            HttpRequest req = HttpRequest.newHttpRequest( new HttpMessage(
+                new HttpHeaderBlock( "POST /x HTTP/1.1", Lib.mapOf( "Host", "example.com" ) ), "0123456789".getBytes()
+            ) );
+            audit.logRequest( "r1", req );
+            audit.flush();
+            String logged = LibFile.file2string( audit.currentSegment() );
+            LibTest.asrt( logged.contains("=== REQUEST r1 ===") && logged.contains("Host: example.com") );
+            LibTest.asrt( logged.contains("01234... (10 bytes)"), "truncated body" );
+
+            for ( int i=0; i<20; i++ ) audit.log( "record "+i+" "+"x".repeat(50)+"\n" );
+            audit.flush();
+            LibTest.asrt( dir.listFiles().length>1, "rolled to new segments" );
+            int records = 0;
+            for ( File f : dir.listFiles() ) {
+                LibTest.asrt( f.length()<=200, "segment size bound" );
+                records += LibFile.file2string(f).split( "record ", -1 ).length - 1;
+            }
+            LibTest.asrtEQ( 20L, records+audit.dropped(), "every record written or counted as dropped" );
+
+            audit.bodySampleRate = 0;
+            audit.logRequest( "r2", req );
+            audit.close();
+            String last = LibFile.file2string( audit.currentSegment() );
+            LibTest.asrt( last.contains("=== REQUEST r2 ===") && !last.contains("01234"), "body not sampled" );
+            LibTest.asrt(! audit.log("late"), "closed" );
+        } finally {
+            LibFile.rm(dir);
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -18,8 +18,10 @@ public class AuthToken implements JsonSerializable {
 
 
 
-    @SuppressWarnings({"rawtypes","resource"})
-    private static Map persistentMap = new PersistentData().getRootMap();
+    @SuppressWarnings("resource")
+    private static final PersistentData persistentData = new PersistentData();
+    @SuppressWarnings("rawtypes")
+    private static Map persistentMap = persistentData.getRootMap();
     public final long createTimeMicros;
     public final String email;
     public final String signature;
@@ -70,9 +72,18 @@ public class AuthToken implements JsonSerializable {
 
     public static AuthToken newAuthToken( String email ) {
         long createTimeMicros = Lib.currentTimeMicros();
-        email = email.toLowerCase();
-        String signature = Lib.hashPassword(email+":"+createTimeMicros);
-        Lib.put( persistentMap, List.of("usr",email,"tokenz",createTimeMicros), signature );
+        String lcEmail = email.toLowerCase();
+        String signature = Lib.hashPassword(lcEmail+":"+createTimeMicros);
+        persistentData.transaction( () -> { // NOTE: the new token and the cleanup commit together
+            Lib.put( persistentMap, List.of("usr",lcEmail,"tokenz",createTimeMicros), signature );
+            removeExpiredTokens(lcEmail);
+        } );
+        return new AuthToken(lcEmail,createTimeMicros,signature);
+    }
+
+
+
+    private static void removeExpiredTokens( String email ) {
         try { // garbage-collect any over-old tokens
             @SuppressWarnings("unchecked")
             Object tokenzObj = Jsonable.get( persistentMap, List.of("usr", email, "tokenz") );
@@ -87,7 +98,6 @@ public class AuthToken implements JsonSerializable {
                 tokenzMap.remove( tokenTimeMicros );
             }
         } catch ( Exception e ) { Log.logException(e); }
-        return new AuthToken(email,createTimeMicros,signature);
     }
 
 
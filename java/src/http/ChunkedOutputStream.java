@@ -0,0 +1,131 @@
+package http;
+import java.io.*;
+import jLib.LibTest;
+
+
+
+/**
+ * Writes HTTP/1.1 "Transfer-Encoding: chunked" framing. Bytes are gathered into one chunk until the buffer fills or
+ * flush() is called, and every chunk is flushed to the underlying stream, so a slow client slows the writer down
+ * instead of letting output pile up in memory. close() writes the terminating zero-length chunk but leaves the
+ * underlying stream open for the next response on the connection.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+
+
+    private static final int HEAD = 10; // NOTE: room for the size line: up to 8 hex digits plus CRLF
+    private final OutputStream out;
+    private final byte[] buf; // one whole chunk frame: the size line is filled in right before the data
+    private final int chunkSize;
+    private int count = 0;
+    private long bytesWritten = 0;
+    private boolean closed = false;
+
+
+
+    public ChunkedOutputStream( OutputStream out ) { this( out, 8*1024 ); }
+    public ChunkedOutputStream( OutputStream out, int chunkSize ) {
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.buf = new byte[ HEAD+chunkSize+2 ];
+    }
+
+
+
+    @Override
+    public void write( int b ) throws IOException {
+        if ( closed ) throw new IOException("stream closed");
+        if ( count==chunkSize ) writeChunk();
+        buf[ HEAD+count++ ] = (byte)b;
+    }
+
+
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+        if ( closed ) throw new IOException("stream closed");
+        while ( len>0 ) {
+            if ( count==chunkSize ) writeChunk();
+            int n = Math.min( len, chunkSize-count );
+            System.arraycopy( b, off, buf, HEAD+count, n );
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+
+
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+    }
+
+
+
+    @Override
+    public void close() throws IOException {
+        if ( closed ) return;
+        writeChunk();
+        closed = true;
+        byte[] last = "0\r\n\r\n".getBytes();
+        out.write(last);
+        out.flush();
+        bytesWritten += last.length;
+    }
+
+
+
+    /**
+     * Total bytes sent to the underlying stream, framing included.
+     */
+    public long bytesWritten() { return bytesWritten; }
+
+
+
+    /**
+     * Sends the gathered bytes as one frame, size line and trailing CRLF included, in a single write.
+     */
+    private void writeChunk() throws IOException {
+        if ( count==0 ) return;
+        int start = HEAD-2;
+        buf[start] = '\r';
+        buf[start+1] = '\n';
+        for ( int n=count; n!=0; n>>>=4 ) buf[--start] = (byte)Character.forDigit( n&15, 16 );
+        buf[HEAD+count] = '\r';
+        buf[HEAD+count+1] = '\n';
+        int frameLength = HEAD+count+2 - start;
+        out.write( buf, start, frameLength );
+        out.flush();
+        bytesWritten += frameLength;
+        count = 0;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ChunkedOutputStream chunked = new ChunkedOutputStream( bout, 4 );
+        chunked.write( "hello".getBytes() );
+        chunked.flush();
+        chunked.write( "!".getBytes() );
+        chunked.close();
+        String expected = "4\r\nhell\r\n1\r\no\r\n1\r\n!\r\n0\r\n\r\n";
+        LibTest.asrtEQ( expected, bout.toString() );
+        LibTest.asrtEQ( (long)expected.length(), chunked.bytesWritten() );
+        bout.reset();
+        chunked = new ChunkedOutputStream( bout, 300 );
+        chunked.write( new byte[300] );
+        chunked.close();
+        LibTest.asrt( bout.toString().startsWith("12c\r\n") && bout.toString().endsWith("\r\n0\r\n\r\n") );
+        LibTest.asrtEQ( 5L+300+2+5, chunked.bytesWritten() );
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
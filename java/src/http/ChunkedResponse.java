@@ -0,0 +1,106 @@
+package http;
+import java.io.*;
+import java.util.*;
+import jLib.*;
+
+
+
+/**
+ * A response whose body is produced while it is being sent, framed as "Transfer-Encoding: chunked".
+ * Nothing is materialized: the BodyWriter writes straight to the connection, and ChunkedOutputStream flushes
+ * each chunk, so the writer runs at the speed of the client. Once the first chunk is out the status can no longer
+ * change, so a writer that fails midway just ends the connection.
+ */
+public class ChunkedResponse extends HttpResponse {
+
+
+
+    public interface BodyWriter {
+        void writeTo( OutputStream out ) throws IOException;
+    }
+
+
+
+    private final BodyWriter bodyWriter;
+
+
+
+    public ChunkedResponse( HttpHeaderBlock headerBlock, BodyWriter bodyWriter ) {
+        super( chunkedHeaders(headerBlock), (byte[])null );
+        this.bodyWriter = bodyWriter;
+    }
+
+
+
+    private static HttpHeaderBlock chunkedHeaders( HttpHeaderBlock headerBlock ) {
+        HttpHeaders headers = headerBlock.headers.toBuilder()
+            .remove( "Content-Length" )
+            .set( "Transfer-Encoding", "chunked" )
+            .build();
+        return new HttpHeaderBlock( headerBlock.firstLine, headers );
+    }
+
+
+
+    @Override
+    public Result<Long,Exception> write( OutputStream out ) {
+        Result<Long,Exception> headerResult = headerBlock.write(out);
+        if (! headerResult.isOk() ) return headerResult;
+        ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+        Result<Long,Exception> bodyResult = writeBody(chunked);
+        if (! bodyResult.isOk() ) return bodyResult;
+        try { chunked.close(); }
+        catch ( IOException e ) { return Result.err(e); }
+        return Result.ok( headerResult.ok() + chunked.bytesWritten() );
+    }
+
+
+
+    /**
+     * Writes the unframed body, which is also how a stage such as compression can wrap this response.
+     */
+    @Override
+    public Result<Long,Exception> writeBody( OutputStream out ) {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        try {
+            bodyWriter.writeTo(counted);
+        } catch ( Exception e ) {
+            return Result.err(e);
+        }
+        return Result.ok( counted.count );
+    }
+
+
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+        CountingOutputStream( OutputStream out ) { super(out); }
+        @Override public void write( int b ) throws IOException { out.write(b); count++; }
+        @Override public void write( byte[] b, int off, int len ) throws IOException { out.write(b,off,len); count += len; }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        HttpHeaderBlock headerBlock = new HttpHeaderBlock( 200, "OK", Lib.mapOf( "Content-Length", "99" ) );
+        ChunkedResponse response = new ChunkedResponse( headerBlock, out -> {
+            for ( int i=0; i<3; i++ ) out.write( ("line"+i+"\n").getBytes() );
+        } );
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Result<Long,Exception> res = response.write(bout);
+        if (! res.isOk() ) throw res.err();
+        LibTest.asrtEQ( (long)bout.size(), res.ok() );
+        Result<HttpMessage,Exception> readBack = HttpMessage.readHttpMessage( new ByteArrayInputStream( bout.toByteArray() ) );
+        if (! readBack.isOk() ) throw readBack.err();
+        LibTest.asrtEQ( "line0\nline1\nline2\n", new String( readBack.ok().body ) );
+        LibTest.asrtEQ( null, readBack.ok().headerBlock.getHeaderValue("Transfer-Encoding") );
+        LibTest.asrtEQ( 18L, readBack.ok().headerBlock.getContentLength() );
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -82,6 +82,7 @@ public class FileExtensionHandler implements HttpHandler {
             originalReq.headerBlock.getMethod() + " " + newUri + " HTTP/1.1",
             originalReq.headerBlock.headers
         );
+        if ( originalReq.bodyFile!=null ) return new HttpRequest( newHeaderBlock, originalReq.bodyFile );
         return new HttpRequest( newHeaderBlock, originalReq.body );
     }
 
@@ -0,0 +1,17 @@
+package http;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+
+/**
+ * Implemented by the connection output streams of both engines when the connection is a plain socket channel,
+ * so file bytes can go to the socket by FileChannel.transferTo (sendfile) or from a mapped buffer instead of
+ * being copied through a heap array. TLS connections don't offer this; callers fall back to plain writes.
+ * Bytes written to the stream earlier are always sent first.
+ */
+interface FileTransferTarget {
+    void transferFrom( FileChannel file, long position, long count ) throws IOException;
+    void write( ByteBuffer buf ) throws IOException;
+}
@@ -0,0 +1,203 @@
+package http;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import jLib.*;
+
+
+
+/**
+ * The server's response compression stage. A response is gzip- or deflate-encoded when the request's
+ * Accept-Encoding allows it, its Content-Type is compressible (text, JSON, JavaScript, XML, SVG; images and archives
+ * are left alone) and it is at least minBytes long. Byte-array bodies are compressed up front and keep a
+ * Content-Length; streamed bodies are compressed on the fly and sent chunked.
+ * Deflaters are pooled, because each one holds native zlib state that is costly to create and only freed by end().
+ */
+public class HttpCompression {
+
+
+
+    public int minBytes = 1024;
+    public int level = Deflater.DEFAULT_COMPRESSION;
+    public int maxPooled = 64;
+    private final ConcurrentLinkedQueue<Deflater> gzipPool = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Deflater> deflatePool = new ConcurrentLinkedQueue<>();
+
+
+
+    /**
+     * Returns response compressed for this request, or response itself when it should go out as is.
+     */
+    public HttpResponse apply( HttpHeaderBlock reqHead, HttpResponse response ) {
+        String encoding = chooseEncoding( reqHead, response );
+        if ( encoding==null ) return response;
+        HttpHeaders.Builder headers = response.headerBlock.headers.toBuilder()
+            .remove( "Content-Length" )
+            .set( "Content-Encoding", encoding );
+        String vary = response.headerBlock.getHeaderValue("Vary");
+        if ( vary==null ) headers.set( "Vary", "Accept-Encoding" );
+        else if (! vary.toLowerCase().contains("accept-encoding") ) headers.set( "Vary", vary+", Accept-Encoding" );
+        String etag = response.headerBlock.getHeaderValue("ETag");
+        if ( etag!=null && !etag.startsWith("W/") ) headers.set( "ETag", "W/"+etag ); // NOTE: no longer byte-identical
+        if ( response.getClass()==HttpResponse.class || response instanceof HttpErrorResponse ) {
+            if ( response.bodyFile==null ) {
+                byte[] compressed = compress( response.body, encoding );
+                if ( compressed.length>=response.body.length ) return response;
+                headers.set( "Content-Length", ""+compressed.length );
+                return new HttpResponse( new HttpHeaderBlock( response.headerBlock.firstLine, headers.build() ), compressed );
+            }
+        }
+        HttpHeaderBlock headerBlock = new HttpHeaderBlock( response.headerBlock.firstLine, headers.build() );
+        return new ChunkedResponse( headerBlock, out -> {
+            Deflater deflater = borrow(encoding);
+            try {
+                DeflaterOutputStream z = compressingStream( out, encoding, deflater );
+                Result<Long,Exception> res = response.writeBody(z);
+                if (! res.isOk() ) throw new IOException( res.err() );
+                z.finish();
+            } finally {
+                release( encoding, deflater );
+            }
+        } );
+    }
+
+
+
+    private String chooseEncoding( HttpHeaderBlock reqHead, HttpResponse response ) {
+        if ( reqHead==null || "HEAD".equals( reqHead.getMethod() ) ) return null;
+        HttpHeaderBlock resHead = response.headerBlock;
+        if ( resHead.getHeaderValue("Content-Encoding")!=null || resHead.getHeaderValue("Content-Range")!=null ) return null;
+        String[] firstLineParts = resHead.firstLine==null ? new String[0] : resHead.firstLine.split(" ");
+        if ( firstLineParts.length<2 || !firstLineParts[1].startsWith("2") || firstLineParts[1].equals("204")
+            || firstLineParts[1].equals("206") ) return null;
+        if (! HttpFileCache.isCompressible( resHead.getContentType() ) ) return null;
+        String contentLength = resHead.getHeaderValue("Content-Length");
+        long length;
+        if ( contentLength!=null ) {
+            try { length = Long.parseLong( contentLength.trim() ); }
+            catch ( NumberFormatException e ) { return null; } // NOTE: a malformed length; leave the body alone
+        } else {
+            length = response instanceof ChunkedResponse ? Long.MAX_VALUE : response.bodyLength;
+        }
+        if ( length<minBytes ) return null;
+        if ( reqHead.acceptsEncoding("gzip") ) return "gzip";
+        if ( reqHead.acceptsEncoding("deflate") ) return "deflate";
+        return null;
+    }
+
+
+
+    public byte[] compress( byte[] bytes, String encoding ) {
+        Deflater deflater = borrow(encoding);
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream( bytes.length/3+64 );
+            DeflaterOutputStream z = compressingStream( bout, encoding, deflater );
+            z.write(bytes);
+            z.finish();
+            return bout.toByteArray();
+        } catch ( IOException e ) {
+            throw new UncheckedIOException(e); // NOTE: cannot happen with a ByteArrayOutputStream
+        } finally {
+            release( encoding, deflater );
+        }
+    }
+
+
+
+    /**
+     * gzip is raw deflate inside a small header and a CRC32/length trailer; "deflate" is the zlib format.
+     * The stream never closes out, and flush() emits everything written so far.
+     */
+    static DeflaterOutputStream compressingStream( OutputStream out, String encoding, Deflater deflater ) throws IOException {
+        if (! "gzip".equals(encoding) ) return new DeflaterOutputStream( out, deflater, 8*1024, true );
+        out.write( new byte[]{ 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff } );
+        CRC32 crc = new CRC32();
+        return new DeflaterOutputStream( out, deflater, 8*1024, true ) {
+            @Override
+            public void write( byte[] b, int off, int len ) throws IOException {
+                super.write( b, off, len );
+                crc.update( b, off, len );
+            }
+            @Override
+            public void finish() throws IOException {
+                if ( def.finished() ) return;
+                super.finish();
+                long crcValue = crc.getValue();
+                long size = def.getBytesRead();
+                byte[] trailer = new byte[8];
+                for ( int i=0; i<4; i++ ) trailer[i] = (byte)( crcValue >>> (8*i) );
+                for ( int i=0; i<4; i++ ) trailer[4+i] = (byte)( size >>> (8*i) );
+                out.write(trailer);
+            }
+        };
+    }
+
+
+
+    private Deflater borrow( String encoding ) {
+        boolean gzip = "gzip".equals(encoding);
+        Deflater d = ( gzip ? gzipPool : deflatePool ).poll();
+        return d!=null ? d : new Deflater( level, gzip );
+    }
+
+
+
+    private void release( String encoding, Deflater deflater ) {
+        ConcurrentLinkedQueue<Deflater> pool = "gzip".equals(encoding) ? gzipPool : deflatePool;
+        if ( pool.size()>=maxPooled ) {
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        pool.add(deflater);
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        HttpCompression compression = new HttpCompression();
+        String text = "{\"k\":\"" + "abc".repeat(1000) + "\"}";
+        HttpHeaderBlock gzipReq = new HttpHeaderBlock( "GET / HTTP/1.1", Lib.mapOf( "Accept-Encoding", "gzip" ) );
+        HttpResponse json = new HttpResponse(
+            new HttpHeaderBlock( 200, "OK", Lib.mapOf( "Content-Type", "application/json", "ETag", "\"1\"" ) ), text.getBytes()
+        );
+        for ( int round=0; round<2; round++ ) { // NOTE: the second round runs on a pooled deflater
+            HttpResponse gz = compression.apply( gzipReq, json );
+            LibTest.asrtEQ( "gzip", gz.headerBlock.getHeaderValue("Content-Encoding") );
+            LibTest.asrtEQ( "Accept-Encoding", gz.headerBlock.getHeaderValue("Vary") );
+            LibTest.asrtEQ( "W/\"1\"", gz.headerBlock.getHeaderValue("ETag") );
+            LibTest.asrtEQ( text, new String( new GZIPInputStream( new ByteArrayInputStream(gz.body) ).readAllBytes() ) );
+        }
+        LibTest.asrtEQ( 1, compression.gzipPool.size() );
+
+        HttpHeaderBlock deflateReq = new HttpHeaderBlock( "GET / HTTP/1.1", Lib.mapOf( "Accept-Encoding", "deflate" ) );
+        HttpResponse streamed = compression.apply( deflateReq, new ChunkedResponse(
+            new HttpHeaderBlock( 200, "OK", Lib.mapOf( "Content-Type", "text/plain" ) ), out -> out.write( text.getBytes() )
+        ) );
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Result<Long,Exception> written = streamed.write(bout);
+        if (! written.isOk() ) throw written.err();
+        Result<HttpMessage,Exception> readBack = HttpMessage.readHttpMessage( new ByteArrayInputStream( bout.toByteArray() ) );
+        LibTest.asrt( readBack.isOk() );
+        LibTest.asrtEQ( "deflate", readBack.ok().headerBlock.getHeaderValue("Content-Encoding") );
+        byte[] inflated = new InflaterInputStream( new ByteArrayInputStream( readBack.ok().body ) ).readAllBytes();
+        LibTest.asrtEQ( text, new String(inflated) );
+
+        HttpResponse png = new HttpResponse(
+            new HttpHeaderBlock( 200, "OK", Lib.mapOf( "Content-Type", LibFile.getMimeType("a.png") ) ), text.getBytes()
+        );
+        LibTest.asrt( compression.apply( gzipReq, png )==png, "already-compressed type" );
+        HttpResponse small = new HttpResponse(
+            new HttpHeaderBlock( 200, "OK", Lib.mapOf( "Content-Type", "text/plain" ) ), "tiny".getBytes()
+        );
+        LibTest.asrt( compression.apply( gzipReq, small )==small, "below minBytes" );
+        LibTest.asrt( compression.apply( new HttpHeaderBlock( "GET / HTTP/1.1", null ), json )==json, "not accepted" );
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
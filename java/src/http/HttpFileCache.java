@@ -0,0 +1,284 @@
+package http;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+import jLib.*;
+
+
+
+/**
+ * Keeps hot static files in memory for HttpFileHandler: the bytes (off-heap), a gzip variant and any brotli
+ * variant, the MIME type and the validators. A cached request costs no stat or open at all; instead a WatchService
+ * on rootDir drops entries whose files change. Total size is bounded by maxBytes with least-recently-used
+ * eviction, and files over maxEntryBytes are never cached.
+ * A gzip variant is computed on load for compressible types; the JDK has no brotli encoder, so a brotli variant
+ * is only used when a precompressed "name.br" sits next to the file (likewise "name.gz" is preferred over
+ * compressing on load).
+ */
+public final class HttpFileCache implements Closeable {
+
+
+
+    public final File rootDir;
+    public final long maxBytes;
+    public long maxEntryBytes = 1024*1024;
+    public int minCompressBytes = 256;
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>( 64, 0.75f, true );
+    private long totalBytes = 0;
+    private long generation = 0; // bumped by every invalidation, so a load that raced one is not cached
+    private long hits = 0;
+    private long misses = 0;
+    private final WatchService watcher;
+    private final Map<WatchKey,Path> watchedDirs = new HashMap<>();
+
+
+
+    public static final class Entry {
+        public final String relPath; // of the file actually served, e.g. "docs/index.html"
+        public final ByteBuffer content;
+        public final ByteBuffer gzip;
+        public final ByteBuffer brotli;
+        public final String mimeType;
+        public final long lastModified;
+
+        Entry( String relPath, ByteBuffer content, ByteBuffer gzip, ByteBuffer brotli, String mimeType, long lastModified ) {
+            this.relPath = relPath;
+            this.content = content;
+            this.gzip = gzip;
+            this.brotli = brotli;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+        }
+
+        long size() {
+            return content.capacity() + ( gzip==null ? 0 : gzip.capacity() ) + ( brotli==null ? 0 : brotli.capacity() );
+        }
+    }
+
+
+
+    public HttpFileCache( File rootDir, long maxBytes ) throws IOException {
+        this.rootDir = rootDir.getAbsoluteFile();
+        this.maxBytes = maxBytes;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        registerTree( this.rootDir.toPath() );
+        Thread t = new Thread( this::watchLoop, "HttpFileCache-watch" );
+        t.setDaemon(true);
+        t.start();
+    }
+
+
+
+    /**
+     * Returns the entry for a request path relative to rootDir ("" and directories mean their index.html),
+     * loading it on a miss. Returns null for anything that is not a cacheable regular file.
+     */
+    public Entry get( String reqPath ) {
+        synchronized (this) {
+            Entry e = entries.get(reqPath);
+            if ( e!=null ) {
+                hits++;
+                return e;
+            }
+            misses++;
+        }
+        long gen;
+        synchronized (this) { gen = generation; }
+        Entry e = load(reqPath);
+        if ( e==null ) return null;
+        synchronized (this) {
+            if ( gen!=generation ) return e;
+            Entry old = entries.put( reqPath, e );
+            if ( old!=null ) totalBytes -= old.size();
+            totalBytes += e.size();
+            Iterator<Entry> it = entries.values().iterator();
+            while ( totalBytes>maxBytes && it.hasNext() ) {
+                Entry eldest = it.next();
+                it.remove();
+                totalBytes -= eldest.size();
+            }
+        }
+        return e;
+    }
+
+
+
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+    public synchronized long totalBytes() { return totalBytes; }
+
+
+
+    private Entry load( String reqPath ) {
+        File f = new File( rootDir, reqPath );
+        if ( f.isDirectory() ) f = new File( f, "index.html" );
+        if (! f.isFile() ) return null;
+        long length = f.length();
+        if ( length>maxEntryBytes ) return null;
+        try {
+            long lastModified = f.lastModified();
+            byte[] bytes = Files.readAllBytes( f.toPath() );
+            String mimeType = LibFile.getMimeType( f.getName() );
+            ByteBuffer gzip = precompressed( new File( f.getPath()+".gz" ), lastModified );
+            if ( gzip==null && bytes.length>=minCompressBytes && isCompressible(mimeType) ) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream( bytes.length/2 );
+                try ( GZIPOutputStream gz = new GZIPOutputStream(bout) ) { gz.write(bytes); }
+                if ( bout.size()<bytes.length ) gzip = direct( bout.toByteArray() );
+            }
+            ByteBuffer brotli = precompressed( new File( f.getPath()+".br" ), lastModified );
+            String relPath = rootDir.toPath().relativize( f.getAbsoluteFile().toPath() ).toString().replace( '\\', '/' );
+            return new Entry( relPath, direct(bytes), gzip, brotli, mimeType, lastModified );
+        } catch ( IOException e ) {
+            Log.log(e);
+            return null;
+        }
+    }
+
+
+
+    private static ByteBuffer precompressed( File f, long sourceLastModified ) throws IOException {
+        if ( !f.isFile() || f.lastModified()<sourceLastModified ) return null; // NOTE: ignore stale variants
+        return direct( Files.readAllBytes( f.toPath() ) );
+    }
+
+
+
+    private static ByteBuffer direct( byte[] bytes ) {
+        return ByteBuffer.allocateDirect( bytes.length ).put(bytes).flip();
+    }
+
+
+
+    /**
+     * Text-like types compress well; images, archives, audio and video are compressed already.
+     */
+    public static boolean isCompressible( String mimeType ) {
+        if ( mimeType==null ) return false;
+        mimeType = mimeType.toLowerCase();
+        return mimeType.startsWith("text/") || mimeType.contains("json") || mimeType.contains("javascript")
+            || mimeType.contains("xml") || mimeType.contains("svg");
+    }
+
+
+
+    /**
+     * Drops every entry served from relPath or from a file below it.
+     */
+    public synchronized void invalidate( String relPath ) {
+        generation++;
+        String dirPrefix = relPath + "/";
+        Iterator<Entry> it = entries.values().iterator();
+        while ( it.hasNext() ) {
+            Entry e = it.next();
+            if ( e.relPath.equals(relPath) || e.relPath.startsWith(dirPrefix) || ( e.relPath+".gz" ).equals(relPath)
+                || ( e.relPath+".br" ).equals(relPath) ) {
+                it.remove();
+                totalBytes -= e.size();
+            }
+        }
+    }
+
+
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        totalBytes = 0;
+    }
+
+
+
+    private void registerTree( Path dir ) throws IOException {
+        Files.walkFileTree( dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory( Path d, BasicFileAttributes attrs ) throws IOException {
+                WatchKey key = d.register( watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY
+                );
+                synchronized (watchedDirs) { watchedDirs.put( key, d ); }
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir;
+                synchronized (watchedDirs) { dir = watchedDirs.get(key); }
+                for ( WatchEvent<?> event : key.pollEvents() ) {
+                    if ( dir==null || event.kind()==StandardWatchEventKinds.OVERFLOW ) {
+                        clear();
+                        continue;
+                    }
+                    Path changed = dir.resolve( (Path)event.context() );
+                    if ( event.kind()==StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed) ) {
+                        try { registerTree(changed); }
+                        catch ( IOException e ) { Log.log(e); }
+                    }
+                    invalidate( rootDir.toPath().relativize(changed).toString().replace( '\\', '/' ) );
+                }
+                if (! key.reset() ) {
+                    synchronized (watchedDirs) { watchedDirs.remove(key); }
+                }
+            }
+        } catch ( InterruptedException | ClosedWatchServiceException e ) {
+            // NOTE: close() ends the loop
+        }
+    }
+
+
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        clear();
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        File dir = Files.createTempDirectory("filecache_test").toFile();
+        try ( HttpFileCache cache = new HttpFileCache( dir, 10_000 ) ) {
+            File f = new File( dir, "a.txt" );
+            Files.writeString( f.toPath(), "x".repeat(1000) );
+            Thread.sleep(500); // NOTE: let the watcher see the create before anything is cached
+            Entry e = cache.get("a.txt");
+            LibTest.asrt( e!=null && e.content.capacity()==1000 );
+            LibTest.asrt( e.gzip!=null && e.gzip.capacity()<1000, "gzip variant" );
+            LibTest.asrtEQ( "text/plain", e.mimeType );
+            LibTest.asrt( cache.get("a.txt")==e, "cached" );
+            LibTest.asrtEQ( 1L, cache.hits() );
+            LibTest.asrtEQ( null, cache.get("missing.txt") );
+
+            Files.writeString( f.toPath(), "changed" );
+            long deadline = System.currentTimeMillis() + 15_000;
+            while ( cache.get("a.txt").content.capacity()!=7 ) {
+                LibTest.asrt( System.currentTimeMillis()<deadline, "watch invalidation" );
+                Thread.sleep(50);
+            }
+
+            for ( int i=0; i<5; i++ ) { // 5 x 3000 bytes must not fit in 10000
+                Files.write( new File( dir, "b"+i+".bin" ).toPath(), new byte[3000] );
+                cache.get( "b"+i+".bin" );
+            }
+            LibTest.asrt( cache.totalBytes()<=10_000, "bounded by bytes" );
+            LibTest.asrt( cache.entries.containsKey("b4.bin") && !cache.entries.containsKey("b0.bin"), "LRU eviction" );
+        } finally {
+            LibFile.rm(dir);
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -1,8 +1,18 @@
 package http;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.net.*;
+import java.util.*;
 
 import jLib.Lib;
 import jLib.LibFile;
+import jLib.Log;
+import jLib.LibTest;
+import jLib.LruCache;
 import jLib.Result;
 
 
@@ -13,6 +23,9 @@ public class HttpFileHandler implements HttpHandler {
 
     public final File rootDir;
     public final String prefix;
+    public long mmapMaxBytes = 0; // files up to this size are served from a cached memory mapping; 0 disables
+    public HttpFileCache cache = null; // when set, hot files are served from memory without touching the disk
+    private final LruCache<String,MappedFile> mapped = new LruCache<>( 1000, 0, true );
 
 
 
@@ -28,6 +41,10 @@ public class HttpFileHandler implements HttpHandler {
         String reqPath = req.headerBlock.getRequestPath();
         reqPath = reqPath.substring( prefix.length() );
         if ( reqPath.startsWith("/") ) reqPath = reqPath.substring(1);
+        if ( cache!=null ) {
+            HttpFileCache.Entry e = cache.get(reqPath);
+            if ( e!=null ) return serveCached( req.headerBlock, e );
+        }
         File f = new File( rootDir, reqPath );
         if ( f.isDirectory() ) {
             File tryFile = new File( f, "index.html" );
@@ -40,7 +57,217 @@ public class HttpFileHandler implements HttpHandler {
         if ( !f.exists() ) {
             return new HttpErrorResponse( 404, "Not Found" );
         }
-        return new FileResponse(f);
+        return serveFile( req.headerBlock, f );
+    }
+
+
+
+    /**
+     * Answers a request for an existing file: 304 when the client's validators still match, 206 for satisfiable
+     * Range requests (multipart/byteranges for several ranges), 416 for unsatisfiable ones, otherwise 200.
+     * The ETag is strong and derived from size and modification time.
+     */
+    public HttpResponse serveFile( HttpHeaderBlock reqHead, File f ) {
+        MappedByteBuffer buf = mmapMaxBytes>0 && f.length()<=mmapMaxBytes ? mappedBuffer(f) : null;
+        long length = buf!=null ? buf.capacity() : f.length();
+        long lastModified = f.lastModified();
+        return serveContent(
+            reqHead, f, buf, length, lastModified, LibFile.getMimeType( f.getName() ), null, etag( length, lastModified ), false
+        );
+    }
+
+
+
+    /**
+     * Serves a cached entry, choosing its brotli or gzip variant when the client accepts one.
+     * Range requests always get the identity bytes.
+     */
+    public HttpResponse serveCached( HttpHeaderBlock reqHead, HttpFileCache.Entry e ) {
+        boolean hasVariants = e.gzip!=null || e.brotli!=null;
+        ByteBuffer content = e.content;
+        String encoding = null;
+        if ( hasVariants && reqHead.getHeaderValue("Range")==null ) {
+            if ( e.brotli!=null && reqHead.acceptsEncoding("br") ) {
+                content = e.brotli;
+                encoding = "br";
+            } else if ( e.gzip!=null && reqHead.acceptsEncoding("gzip") ) {
+                content = e.gzip;
+                encoding = "gzip";
+            }
+        }
+        String etag = etag( e.content.capacity(), e.lastModified );
+        if ( encoding!=null ) etag = etag.substring( 0, etag.length()-1 ) + "-" + encoding + "\"";
+        return serveContent( reqHead, null, content, content.capacity(), e.lastModified, e.mimeType, encoding, etag, hasVariants );
+    }
+
+
+
+    private HttpResponse serveContent(
+        HttpHeaderBlock reqHead, File f, ByteBuffer buf, long length, long lastModified,
+        String contentType, String contentEncoding, String etag, boolean varyEncoding
+    ) {
+        String lastModifiedStr = httpDate(lastModified);
+        HttpHeaders.Builder headers = new HttpHeaders.Builder()
+            .add( "ETag", etag )
+            .add( "Last-Modified", lastModifiedStr )
+            .add( "Accept-Ranges", "bytes" );
+        if ( varyEncoding ) headers.add( "Vary", "Accept-Encoding" );
+        if ( notModified( reqHead, etag, lastModified ) ) {
+            return new HttpResponse( new HttpHeaderBlock( 304, "Not Modified", headers.build() ), (byte[])null );
+        }
+        if ( contentEncoding!=null ) headers.add( "Content-Encoding", contentEncoding );
+        String range = reqHead.getHeaderValue("Range");
+        String ifRange = reqHead.getHeaderValue("If-Range");
+        if ( range!=null && ifRange!=null && !ifRange.equals(etag) && !ifRange.equals(lastModifiedStr) ) range = null;
+        long[] ranges = range==null ? null : parseRanges( range, length );
+        if ( ranges!=null && ranges.length==0 ) {
+            headers.add( "Content-Range", "bytes */"+length );
+            return new HttpResponse( new HttpHeaderBlock( 416, "Range Not Satisfiable", headers.build() ), new byte[0] );
+        }
+        if ( ranges==null ) {
+            headers.add( "Content-Type", contentType ).add( "Content-Length", ""+length );
+            return new FileResponse( new HttpHeaderBlock( 200, "OK", headers.build() ), f, buf, length, contentType, null, null );
+        }
+        if ( ranges.length==2 ) {
+            headers.add( "Content-Type", contentType )
+                .add( "Content-Range", "bytes "+ranges[0]+"-"+(ranges[1]-1)+"/"+length )
+                .add( "Content-Length", ""+(ranges[1]-ranges[0]) );
+            return new FileResponse( new HttpHeaderBlock( 206, "Partial Content", headers.build() ), f, buf, length, contentType, ranges, null );
+        }
+        String boundary = Long.toHexString( System.nanoTime() ) + Long.toHexString( length );
+        long contentLength = FileResponse.multipartEnd(boundary).length();
+        for ( int i=0; i<ranges.length; i+=2 ) {
+            contentLength += FileResponse.partHeader( boundary, contentType, ranges[i], ranges[i+1], length ).length();
+            contentLength += ranges[i+1]-ranges[i];
+        }
+        headers.add( "Content-Type", "multipart/byteranges; boundary="+boundary ).add( "Content-Length", ""+contentLength );
+        return new FileResponse( new HttpHeaderBlock( 206, "Partial Content", headers.build() ), f, buf, length, contentType, ranges, boundary );
+    }
+
+
+
+    public static String etag( long length, long lastModified ) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+
+
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern( "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US ).withZone( ZoneOffset.UTC );
+
+    public static String httpDate( long millis ) {
+        return HTTP_DATE.format( Instant.ofEpochMilli(millis) );
+    }
+
+
+
+    /**
+     * If-None-Match wins over If-Modified-Since, as RFC 9110 requires. HTTP dates have whole seconds.
+     */
+    private static boolean notModified( HttpHeaderBlock reqHead, String etag, long lastModified ) {
+        String ifNoneMatch = reqHead.getHeaderValue("If-None-Match");
+        if ( ifNoneMatch!=null ) {
+            for ( String tag : ifNoneMatch.split(",") ) {
+                tag = tag.trim();
+                if ( tag.startsWith("W/") ) tag = tag.substring(2);
+                if ( tag.equals("*") || tag.equals(etag) ) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = reqHead.getHeaderValue("If-Modified-Since");
+        if ( ifModifiedSince==null ) return false;
+        try {
+            long since = ZonedDateTime.parse( ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME ).toEpochSecond();
+            return lastModified/1000 <= since;
+        } catch ( DateTimeParseException e ) {
+            return false;
+        }
+    }
+
+
+
+    public static int maxRanges = 32;
+
+    /**
+     * Parses "bytes=a-b,c-,-n" into sorted start,endExclusive pairs with overlapping or adjacent ranges merged.
+     * Returns null when the header should be ignored (malformed, not bytes, too many ranges) and an empty array
+     * when no range is satisfiable.
+     */
+    static long[] parseRanges( String header, long length ) {
+        header = header.trim();
+        if (! header.startsWith("bytes=") ) return null;
+        String[] specs = header.substring(6).split(",");
+        if ( specs.length>maxRanges ) return null;
+        List<long[]> ranges = new ArrayList<>();
+        for ( String spec : specs ) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if ( dash<0 ) return null;
+            long start, end;
+            try {
+                if ( dash==0 ) {
+                    long suffix = Long.parseLong( spec.substring(1) );
+                    start = Math.max( 0, length-suffix );
+                    end = length;
+                } else {
+                    start = Long.parseLong( spec.substring(0,dash) );
+                    end = dash==spec.length()-1 ? length : Math.min( length, Long.parseLong( spec.substring(dash+1) )+1 );
+                    if ( end<=start && start<length ) return null;
+                }
+            } catch ( NumberFormatException e ) {
+                return null;
+            }
+            if ( start<0 ) return null;
+            if ( start<end ) ranges.add( new long[]{ start, end } );
+        }
+        ranges.sort( (a,b) -> Long.compare( a[0], b[0] ) );
+        List<long[]> merged = new ArrayList<>();
+        for ( long[] r : ranges ) {
+            long[] last = merged.isEmpty() ? null : merged.get( merged.size()-1 );
+            if ( last!=null && r[0]<=last[1] ) last[1] = Math.max( last[1], r[1] );
+            else merged.add(r);
+        }
+        long[] result = new long[ merged.size()*2 ];
+        for ( int i=0; i<merged.size(); i++ ) {
+            result[i*2] = merged.get(i)[0];
+            result[i*2+1] = merged.get(i)[1];
+        }
+        return result;
+    }
+    @SuppressWarnings("unused")
+    private static boolean parseRanges_TEST_( boolean findLineNumber ) {
+        if (findLineNumber) throw new RuntimeException();
+        LibTest.asrt( Arrays.equals( new long[]{0,10}, parseRanges( "bytes=0-9", 100 ) ) );
+        LibTest.asrt( Arrays.equals( new long[]{90,100}, parseRanges( "bytes=-10", 100 ) ) );
+        LibTest.asrt( Arrays.equals( new long[]{50,100}, parseRanges( "bytes=50-", 100 ) ) );
+        LibTest.asrt( Arrays.equals( new long[]{0,100}, parseRanges( "bytes=0-999", 100 ) ) );
+        LibTest.asrt( Arrays.equals( new long[]{0,20,30,40}, parseRanges( "bytes=30-39, 0-9, 5-19", 100 ) ) );
+        LibTest.asrtEQ( 0, parseRanges( "bytes=200-300", 100 ).length );
+        LibTest.asrtEQ( null, parseRanges( "bytes=9-2", 100 ) );
+        LibTest.asrtEQ( null, parseRanges( "items=0-1", 100 ) );
+        return true;
+    }
+
+
+
+    private record MappedFile( long length, long lastModified, MappedByteBuffer buf ) {}
+
+    /**
+     * A mapping stays cached until the file's size or modification time changes.
+     */
+    private MappedByteBuffer mappedBuffer( File f ) {
+        String key = f.getAbsolutePath();
+        MappedFile m = mapped.get(key);
+        if ( m!=null && m.length()==f.length() && m.lastModified()==f.lastModified() ) return m.buf();
+        try ( FileChannel fc = FileChannel.open( f.toPath(), StandardOpenOption.READ ) ) {
+            long lastModified = f.lastModified();
+            MappedByteBuffer buf = fc.map( FileChannel.MapMode.READ_ONLY, 0, fc.size() );
+            mapped.put( key, new MappedFile( fc.size(), lastModified, buf ) );
+            return buf;
+        } catch ( IOException e ) {
+            Log.log(e);
+            return null;
+        }
     }
 
 
@@ -60,32 +287,253 @@ public class HttpFileHandler implements HttpHandler {
 
 
 
+    @SuppressWarnings("unused")
+    private static boolean zeroCopy_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        File dir = Files.createTempDirectory("filehandler_test").toFile();
+        try {
+            byte[] content = new byte[300*1024];
+            for ( int i=0; i<content.length; i++ ) content[i] = (byte)( i*31 );
+            Files.write( new File(dir,"big.bin").toPath(), content );
+            int port = 19183;
+            for ( HttpServer server : new HttpServer[]{ new HttpServer(port,false), new NioHttpServer(port+1) } ) {
+                HttpFileHandler handler = new HttpFileHandler( "/files", dir );
+                server.handlers.put( "/files", handler );
+                server.setShutdownCode("STOP");
+                Thread serverThread = new Thread( server::start );
+                serverThread.start();
+                try {
+                    for ( long mmapMax : new long[]{ 0, 1024*1024 } ) {
+                        handler.mmapMaxBytes = mmapMax;
+                        Socket sock = null;
+                        while ( sock==null ) {
+                            try { sock = new Socket( "localhost", server.port ); }
+                            catch ( IOException e ) { Thread.sleep(10); }
+                        }
+                        try ( Socket s = sock ) {
+                            s.getOutputStream().write( "GET /files/big.bin HTTP/1.1\r\n\r\n".getBytes() );
+                            Result<HttpMessage,Exception> res = HttpMessage.readHttpMessage( s.getInputStream() );
+                            LibTest.asrt( res.isOk(), "file response" );
+                            LibTest.asrt( Arrays.equals( content, res.ok().bodyBytes() ), "file bytes, mmapMax="+mmapMax );
+                            s.getOutputStream().write( "GET /files/big.bin HTTP/1.1\r\nRange: bytes=1000-1999\r\n\r\n".getBytes() );
+                            res = HttpMessage.readHttpMessage( s.getInputStream() );
+                            LibTest.asrt( res.isOk(), "range response" );
+                            LibTest.asrt( Arrays.equals( Arrays.copyOfRange(content,1000,2000), res.ok().bodyBytes() ), "range bytes" );
+                        }
+                    }
+                } finally {
+                    try ( Socket s = new Socket( "localhost", server.port ) ) {
+                        s.getOutputStream().write( ( "GET /STOP"+HttpServer.shutdownTimestamp()+" HTTP/1.1\r\n\r\n" ).getBytes() );
+                        HttpMessage.readHttpMessage( s.getInputStream() );
+                    }
+                    serverThread.join();
+                }
+            }
+        } finally {
+            LibFile.rm(dir);
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean conditional_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        File dir = Files.createTempDirectory("filehandler_test").toFile();
+        try {
+            File f = new File( dir, "a.txt" );
+            Files.write( f.toPath(), "0123456789".getBytes() );
+            HttpFileHandler handler = new HttpFileHandler( "/", dir );
+            HttpResponse full = handler.handle( new HttpRequest( new HttpHeaderBlock( "GET /a.txt HTTP/1.1", null ), new byte[0] ) );
+            String etag = full.headerBlock.getHeaderValue("ETag");
+            String lastModified = full.headerBlock.getHeaderValue("Last-Modified");
+            LibTest.asrtEQ( etag( 10, f.lastModified() ), etag );
+            LibTest.asrtEQ( "0123456789", responseBody(full) );
+
+            HttpResponse notModified = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /a.txt HTTP/1.1", Lib.mapOf( "If-None-Match", "\"x\", "+etag ) ), new byte[0] ) );
+            LibTest.asrt( notModified.headerBlock.firstLine.contains("304") );
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            LibTest.asrt( notModified.write(written).isOk() );
+            LibTest.asrt(! written.toString().contains("Content-Length"), "a 304 has no body" );
+            notModified = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /a.txt HTTP/1.1", Lib.mapOf( "If-Modified-Since", lastModified ) ), new byte[0] ) );
+            LibTest.asrt( notModified.headerBlock.firstLine.contains("304") );
+
+            HttpResponse partial = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /a.txt HTTP/1.1", Lib.mapOf( "Range", "bytes=2-4" ) ), new byte[0] ) );
+            LibTest.asrt( partial.headerBlock.firstLine.contains("206") );
+            LibTest.asrtEQ( "bytes 2-4/10", partial.headerBlock.getHeaderValue("Content-Range") );
+            LibTest.asrtEQ( "234", responseBody(partial) );
+
+            HttpResponse multi = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /a.txt HTTP/1.1", Lib.mapOf( "Range", "bytes=0-1,-2" ) ), new byte[0] ) );
+            String multiBody = responseBody(multi);
+            LibTest.asrt( multi.headerBlock.getContentType().startsWith("multipart/byteranges") );
+            LibTest.asrt( multiBody.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n") );
+            LibTest.asrt( multiBody.contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n") );
+
+            HttpResponse staleIfRange = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /a.txt HTTP/1.1", Lib.mapOf( "Range", "bytes=2-4", "If-Range", "\"old\"" ) ), new byte[0] ) );
+            LibTest.asrt( staleIfRange.headerBlock.firstLine.contains("200") );
+            HttpResponse unsatisfiable = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /a.txt HTTP/1.1", Lib.mapOf( "Range", "bytes=20-" ) ), new byte[0] ) );
+            LibTest.asrt( unsatisfiable.headerBlock.firstLine.contains("416") );
+        } finally {
+            LibFile.rm(dir);
+        }
+        return true;
+    }
+    @SuppressWarnings("unused")
+    private static boolean cached_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        File dir = Files.createTempDirectory("filehandler_test").toFile();
+        HttpFileHandler handler = new HttpFileHandler( "/", dir );
+        try ( HttpFileCache cache = new HttpFileCache( dir, 1024*1024 ) ) {
+            handler.cache = cache;
+            String text = "hello cache ".repeat(100);
+            Files.writeString( new File( dir, "index.html" ).toPath(), text );
+            Thread.sleep(500); // NOTE: let the watcher see the create before anything is cached
+            HttpResponse plain = handler.handle( new HttpRequest( new HttpHeaderBlock( "GET / HTTP/1.1", null ), new byte[0] ) );
+            LibTest.asrtEQ( text, responseBody(plain) );
+            LibTest.asrtEQ( "Accept-Encoding", plain.headerBlock.getHeaderValue("Vary") );
+            HttpResponse gz = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /index.html HTTP/1.1", Lib.mapOf( "Accept-Encoding", "gzip, deflate" ) ), new byte[0] ) );
+            LibTest.asrtEQ( "gzip", gz.headerBlock.getHeaderValue("Content-Encoding") );
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            gz.write(bout);
+            Result<HttpMessage,Exception> msg = HttpMessage.readHttpMessage( new ByteArrayInputStream( bout.toByteArray() ) );
+            LibTest.asrt( msg.isOk() );
+            byte[] unzipped = new java.util.zip.GZIPInputStream( new ByteArrayInputStream( msg.ok().body ) ).readAllBytes();
+            LibTest.asrtEQ( text, new String(unzipped) );
+            String gzEtag = gz.headerBlock.getHeaderValue("ETag");
+            LibTest.asrt(! gzEtag.equals( plain.headerBlock.getHeaderValue("ETag") ) );
+            HttpResponse notModified = handler.handle( new HttpRequest( new HttpHeaderBlock(
+                "GET /index.html HTTP/1.1", Lib.mapOf( "Accept-Encoding", "gzip", "If-None-Match", gzEtag ) ), new byte[0] ) );
+            LibTest.asrt( notModified.headerBlock.firstLine.contains("304") );
+            LibTest.asrtEQ( 1L, cache.hits() ); // NOTE: "/" and "/index.html" are separate entries
+        } finally {
+            LibFile.rm(dir);
+        }
+        return true;
+    }
+    private static String responseBody( HttpResponse response ) throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Result<Long,Exception> res = response.write(bout);
+        if (! res.isOk() ) throw res.err();
+        LibTest.asrtEQ( (long)bout.size(), res.ok() );
+        Result<HttpMessage,Exception> msg = HttpMessage.readHttpMessage( new ByteArrayInputStream( bout.toByteArray() ) );
+        if (! msg.isOk() ) throw msg.err();
+        return new String( msg.ok().body );
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
 }
 
 
 
+/**
+ * Sends a file, or byte ranges of it, without pulling it through the heap when the connection allows it:
+ * transferTo on plain sockets, or a buffer that is already in memory (a cached mapping when
+ * HttpFileHandler.mmapMaxBytes covers the file, or an HttpFileCache entry).
+ * TLS connections get an ordinary copy. Several ranges are sent as multipart/byteranges parts.
+ */
 class FileResponse extends HttpResponse {
     private final File file;
+    private final ByteBuffer mapped; // a file mapping or cached content; when null the file is read
+    private final String contentType;
+    private final long[] ranges; // start,endExclusive pairs
+    private final long length; // of the whole file, as promised in the headers
+    private final String boundary; // null unless multipart
 
-    public FileResponse( File f ) {
-        super( new HttpHeaderBlock( "HTTP/1.1 200 OK", Lib.mapOf(
-            "Content-Length", ""+f.length(),
-            "Content-Type", LibFile.getMimeType( f.getName() )
-        ) ), null);
+    FileResponse(
+        HttpHeaderBlock headerBlock, File f, ByteBuffer mapped, long length, String contentType, long[] ranges, String boundary
+    ) {
+        super( headerBlock, (byte[])null );
         file = f;
+        this.mapped = mapped;
+        this.contentType = contentType;
+        this.length = length;
+        this.ranges = ranges!=null ? ranges : new long[]{ 0, length };
+        this.boundary = boundary;
+    }
+
+    static String partHeader( String boundary, String contentType, long start, long end, long length ) {
+        return "\r\n--"+boundary+"\r\nContent-Type: "+contentType
+            +"\r\nContent-Range: bytes "+start+"-"+(end-1)+"/"+length+"\r\n\r\n";
+    }
+    static String multipartEnd( String boundary ) {
+        return "\r\n--"+boundary+"--\r\n";
     }
 
     @Override
     public Result<Long,Exception> write( OutputStream out ) {
         Result<Long,Exception> result = headerBlock.write(out);
         if (! result.isOk() ) return result;
-        long bytesCopied = result.ok();
-        try ( FileInputStream fis = new FileInputStream(file); ) {
-            long moreBytesCopied = Lib.copy(fis,out);
-            if (moreBytesCopied<0) return Result.err( new IOException("can't read "+file.getName() ) );
-            return Result.ok(bytesCopied+moreBytesCopied);
+        Result<Long,Exception> bodyResult = writeBody(out);
+        if (! bodyResult.isOk() ) return bodyResult;
+        return Result.ok( result.ok() + bodyResult.ok() );
+    }
+
+    @Override
+    public Result<Long,Exception> writeBody( OutputStream out ) {
+        long bytesCopied = 0;
+        FileChannel fc = null;
+        try {
+            if ( mapped==null && out instanceof FileTransferTarget ) fc = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+            for ( int i=0; i<ranges.length; i+=2 ) {
+                if ( boundary!=null ) {
+                    byte[] head = partHeader( boundary, contentType, ranges[i], ranges[i+1], length ).getBytes();
+                    out.write(head);
+                    bytesCopied += head.length;
+                }
+                writeSlice( out, fc, ranges[i], ranges[i+1] );
+                bytesCopied += ranges[i+1]-ranges[i];
+            }
+            if ( boundary!=null ) {
+                byte[] end = multipartEnd(boundary).getBytes();
+                out.write(end);
+                bytesCopied += end.length;
+            }
+            return Result.ok(bytesCopied);
         } catch ( IOException e ) {
             return Result.err(e);
+        } finally {
+            if ( fc!=null ) try { fc.close(); } catch ( IOException ignore ) {}
+        }
+    }
+
+    private void writeSlice( OutputStream out, FileChannel fc, long start, long end ) throws IOException {
+        if ( mapped!=null ) {
+            ByteBuffer buf = mapped.duplicate().limit( (int)end ).position( (int)start ); // NOTE: a private position
+            if ( out instanceof FileTransferTarget target ) {
+                target.write(buf);
+                return;
+            }
+            byte[] chunk = new byte[ Math.min( 64*1024, buf.remaining() ) ];
+            while ( buf.hasRemaining() ) {
+                int n = Math.min( chunk.length, buf.remaining() );
+                buf.get( chunk, 0, n );
+                out.write( chunk, 0, n );
+            }
+            return;
+        }
+        if ( fc!=null && out instanceof FileTransferTarget target ) {
+            target.transferFrom( fc, start, end-start );
+            return;
+        }
+        try ( FileInputStream fis = new FileInputStream(file) ) {
+            fis.skipNBytes(start);
+            byte[] chunk = new byte[ (int)Math.min( 64*1024, Math.max( 1, end-start ) ) ];
+            for ( long remaining=end-start; remaining>0; ) {
+                int n = fis.read( chunk, 0, (int)Math.min( chunk.length, remaining ) );
+                if ( n<0 ) throw new EOFException( "can't read "+file.getName() );
+                out.write( chunk, 0, n );
+                remaining -= n;
+            }
         }
     }
 
@@ -1,5 +1,6 @@
 package http;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import jLib.Lib;
 import jLib.LibString;
@@ -13,13 +14,21 @@ public class HttpHeaderBlock {
 
 
     public final String firstLine;
-    public final Map<String,String> headers;
+    public final HttpHeaders headers;
+    public static int maxHeaderBytes = 64*1024;
+    public static int maxHeaderCount = 100;
+    private static final String[] COMMON_HEADER_NAMES = {
+        "Host", "Connection", "Content-Length", "Content-Type", "Content-Encoding", "Transfer-Encoding",
+        "Accept", "Accept-Encoding", "Accept-Language", "User-Agent", "Cookie", "Referer", "Origin",
+        "Authorization", "Cache-Control", "If-None-Match", "If-Modified-Since", "Range", "Upgrade",
+        "Sec-Fetch-Mode", "Sec-Fetch-Site", "Sec-Fetch-Dest", "Pragma", "DNT", "X-Forwarded-For"
+    };
 
 
 
     public HttpHeaderBlock( String firstLine, Map<String,String> headers ) {
         this.firstLine = firstLine;
-        this.headers = headers==null ? Lib.mapOf() : Collections.unmodifiableMap(headers);
+        this.headers = HttpHeaders.of(headers);
     }
 
 
@@ -43,39 +52,119 @@ public class HttpHeaderBlock {
 
 
     public HttpHeaderBlock withAddHeader( String name, String value ) {
-        Map<String,String> newHeaders = new LinkedHashMap<>(headers);
-        newHeaders.put( name, value );
-        return new HttpHeaderBlock( firstLine, newHeaders );
+        return new HttpHeaderBlock( firstLine, headers.with(name,value) );
+    }
+    /**
+     * Sets several headers with a single copy of the header array.
+     */
+    public HttpHeaderBlock withAddHeaders( String... namesAndValues ) {
+        HttpHeaders.Builder b = headers.toBuilder();
+        for ( int i=0; i+1<namesAndValues.length; i+=2 ) b.set( namesAndValues[i], namesAndValues[i+1] );
+        return new HttpHeaderBlock( firstLine, b.build() );
     }
 
 
 
+    /**
+     * Reads exactly one header block. When inp supports mark/reset (e.g. a BufferedInputStream), bytes are scanned
+     * a buffer at a time and anything past the blank line is left in inp for the body; otherwise one byte at a time.
+     */
     public static Result<HttpHeaderBlock,Exception> readFrom( InputStream inp ) {
-        StringBuilder sb = new StringBuilder();
+        byte[] buf = new byte[1024];
+        int len = 0;
+        boolean buffered = inp.markSupported();
         try {
+            if ( buffered ) inp.mark(maxHeaderBytes);
             while (true) {
-                int c = inp.read();
-                if (c<0) return Result.err( new IOException("incomplete header") );
-                sb.append( (char)c );
-                if ( sb.toString().endsWith("\r\n\r\n") ) break;
+                if ( len==buf.length ) {
+                    if ( len>=maxHeaderBytes ) return Result.err( new IOException("header too large") );
+                    buf = Arrays.copyOf( buf, Math.min( maxHeaderBytes, len*2 ) );
+                }
+                int n = inp.read( buf, len, buffered ? buf.length-len : 1 );
+                if ( n<0 ) return Result.err( new IOException("incomplete header") );
+                int end = headerEnd( buf, len-3, len+n );
+                len += n;
+                if ( end<0 ) continue;
+                if ( buffered ) {
+                    inp.reset();
+                    inp.skipNBytes(end);
+                }
+                return parseFrom( buf, 0, end );
             }
         } catch (IOException ioe) { return Result.err(ioe); }
-        return parseFrom( sb.toString() );
     }
 
 
 
-    public static Result<HttpHeaderBlock,Exception> parseFrom( String rawHeader ) {
-        String[] lines = rawHeader.split( "[\r\n]+" );
-        if ( lines.length<1 ) return Result.err( new IllegalArgumentException("no header lines") );
-        String firstLine = lines[0];
-        Map<String,String> headers = new LinkedHashMap<>();
-        for ( int i=1; i<lines.length; i++ ) {
-            String[] parts = lines[i].split(": ",2);
-            if ( parts.length<2 ) continue;
-            headers.put( parts[0], parts[1] );
+    /**
+     * Finds the end of a header block in buf[from,to), for engines that receive bytes incrementally.
+     * Returns the index just past the blank line, or -1; rescanning may restart 3 bytes before the old `to`.
+     */
+    public static int headerEnd( byte[] buf, int from, int to ) {
+        for ( int i=Math.max(from,3); i<to; i++ ) {
+            if ( buf[i]=='\n' && buf[i-1]=='\r' && buf[i-2]=='\n' && buf[i-3]=='\r' ) return i+1;
+        }
+        return -1;
+    }
+
+
+
+    /**
+     * Parses header bytes in place: lines are found by scanning for LF, and well-known header names are
+     * matched against their canonical String without allocating a new one.
+     */
+    public static Result<HttpHeaderBlock,Exception> parseFrom( byte[] buf, int off, int len ) {
+        int end = off+len;
+        String firstLine = null;
+        HttpHeaders.Builder headers = new HttpHeaders.Builder();
+        for ( int lineStart=off; lineStart<end; ) {
+            int lineEnd = lineStart;
+            while ( lineEnd<end && buf[lineEnd]!='\n' ) lineEnd++;
+            int next = lineEnd+1;
+            if ( lineEnd>lineStart && buf[lineEnd-1]=='\r' ) lineEnd--;
+            if ( lineEnd==lineStart ) {
+                lineStart = next;
+                continue;
+            }
+            if ( firstLine==null ) {
+                firstLine = new String( buf, lineStart, lineEnd-lineStart, StandardCharsets.ISO_8859_1 );
+                lineStart = next;
+                continue;
+            }
+            int colon = lineStart;
+            while ( colon<lineEnd && buf[colon]!=':' ) colon++;
+            int valueStart = colon+1;
+            while ( valueStart<lineEnd && buf[valueStart]==' ' ) valueStart++;
+            if ( colon<lineEnd ) {
+                if ( headers.size()>=maxHeaderCount ) return Result.err( new IOException("too many headers") );
+                headers.add(
+                    headerName( buf, lineStart, colon-lineStart ),
+                    new String( buf, valueStart, lineEnd-valueStart, StandardCharsets.ISO_8859_1 )
+                );
+            }
+            lineStart = next;
+        }
+        if ( firstLine==null ) return Result.err( new IllegalArgumentException("no header lines") );
+        return Result.ok( new HttpHeaderBlock( firstLine, headers.build() ) );
+    }
+
+
+
+    private static String headerName( byte[] buf, int off, int len ) {
+        for ( String name : COMMON_HEADER_NAMES ) {
+            if ( name.length()!=len ) continue;
+            int i = 0;
+            while ( i<len && Character.toLowerCase( (char)buf[off+i] )==Character.toLowerCase( name.charAt(i) ) ) i++;
+            if ( i==len ) return name;
         }
-        return Result.ok( new HttpHeaderBlock(firstLine,headers) );
+        return new String( buf, off, len, StandardCharsets.ISO_8859_1 );
+    }
+
+
+
+    public static Result<HttpHeaderBlock,Exception> parseFrom( String rawHeader ) {
+        byte[] bytes = rawHeader.getBytes( StandardCharsets.ISO_8859_1 );
+        return parseFrom( bytes, 0, bytes.length );
     }
 
 
@@ -86,6 +175,31 @@ public class HttpHeaderBlock {
 
 
 
+    /**
+     * Whether Accept-Encoding allows this content-coding, either by name or by "*", with a nonzero q-value.
+     */
+    public boolean acceptsEncoding( String coding ) {
+        String accept = headers.get("Accept-Encoding");
+        if ( accept==null ) return false;
+        Boolean wildcard = null;
+        for ( String part : accept.split(",") ) {
+            String[] params = part.split(";");
+            String name = params[0].trim();
+            boolean ok = true;
+            for ( int i=1; i<params.length; i++ ) {
+                String param = params[i].trim();
+                if (! param.startsWith("q=") ) continue;
+                try { ok = Double.parseDouble( param.substring(2) ) > 0; }
+                catch ( NumberFormatException e ) { ok = false; }
+            }
+            if ( name.equalsIgnoreCase(coding) ) return ok;
+            if ( name.equals("*") ) wildcard = ok;
+        }
+        return wildcard!=null && wildcard;
+    }
+
+
+
     public Map<String,String> cookieMap() {
         String cookieStr = headers.get("Cookie");
         if (cookieStr==null) return Lib.mapOf();
@@ -147,6 +261,13 @@ public class HttpHeaderBlock {
 
 
 
+    public boolean isChunked() {
+        String te = headers.get("Transfer-Encoding");
+        return te!=null && te.toLowerCase().contains("chunked");
+    }
+
+
+
     public String getMethod() {
         if (firstLine==null) return null;
         String[] lineParts = firstLine.split(" ");
@@ -156,27 +277,15 @@ public class HttpHeaderBlock {
 
 
 
-    public Result<Long,Exception> write( OutputStream out ) {
+    /**
+     * Writes the header block; extraNamesAndValues are emitted as additional header lines without copying
+     * the block, which is how HttpMessage adds a Content-Length.
+     */
+    public Result<Long,Exception> write( OutputStream out, String... extraNamesAndValues ) {
         try {
-            byte[] bytes = toString().getBytes();
+            byte[] bytes = toString(extraNamesAndValues).getBytes();
             out.write(bytes);
             return Result.ok( (long)bytes.length );
-            /*
-            long outCount = 0;
-            byte[] outArr = null;
-            outArr = (firstLine+"\r\n").getBytes();
-            out.write(outArr);
-            outCount += outArr.length;
-            for ( Map.Entry<String,String> e : headers.entrySet() ) {
-                outArr = (e.getKey()+": "+e.getValue()+"\r\n").getBytes();
-                out.write(outArr);
-                outCount += outArr.length;
-            }
-            outArr = "\r\n".getBytes();
-            out.write(outArr);
-            outCount += outArr.length;
-            return Result.ok(outCount);
-            */
         } catch ( IOException ioe ) { return Result.err(ioe); }
     }
 
@@ -204,15 +313,50 @@ public class HttpHeaderBlock {
         LibTest.asrt( inp.read() == (int)'1' );
         return true;
     }
+    @SuppressWarnings("unused")
+    private static boolean acceptsEncoding_TEST_( boolean findLineNumber ) {
+        if (findLineNumber) throw new RuntimeException();
+        HttpHeaderBlock hb = new HttpHeaderBlock( "GET / HTTP/1.1", Lib.mapOf( "Accept-Encoding", "gzip, deflate;q=0, *;q=0.1" ) );
+        LibTest.asrt( hb.acceptsEncoding("gzip") );
+        LibTest.asrt(! hb.acceptsEncoding("deflate") );
+        LibTest.asrt( hb.acceptsEncoding("br") );
+        LibTest.asrt(! new HttpHeaderBlock( "GET / HTTP/1.1", null ).acceptsEncoding("gzip") );
+        return true;
+    }
 
 
 
-    public String toString() {
+    @SuppressWarnings("unused")
+    private static boolean buffered_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        String raw = "POST /x HTTP/1.1\r\ncontent-length: 3\r\nX-Custom:  spaced\r\nnot a header\r\n\r\nabc";
+        InputStream inp = new BufferedInputStream( new ByteArrayInputStream( raw.getBytes() ) );
+        Result<HttpHeaderBlock,Exception> result = readFrom(inp);
+        if (! result.isOk() ) throw result.err();
+        HttpHeaderBlock headerBlock = result.ok();
+        LibTest.asrtEQ( "POST /x HTTP/1.1", headerBlock.firstLine );
+        LibTest.asrtEQ( 3L, headerBlock.getContentLength() );
+        LibTest.asrtEQ( "spaced", headerBlock.headers.get("x-custom") );
+        LibTest.asrtEQ( "3", headerBlock.getHeaderValue("CONTENT-LENGTH") );
+        LibTest.asrtEQ( 2, headerBlock.headers.size() );
+        LibTest.asrtEQ( "abc", new String( inp.readAllBytes() ) );
+        String tooMany = "GET / HTTP/1.1\r\n" + "X: y\r\n".repeat( maxHeaderCount+1 ) + "\r\n";
+        LibTest.asrt(! readFrom( new ByteArrayInputStream( tooMany.getBytes() ) ).isOk() );
+        return true;
+    }
+
+
+
+    public String toString() { return toString( new String[0] ); }
+    private String toString( String... extraNamesAndValues ) {
         StringBuilder sb = new StringBuilder();
         sb.append( firstLine ).append("\r\n");
         for ( Map.Entry<String,String> e : headers.entrySet() ) {
             sb.append( e.getKey() ).append(": ").append( e.getValue() ).append("\r\n");
         }
+        for ( int i=0; i+1<extraNamesAndValues.length; i+=2 ) {
+            sb.append( extraNamesAndValues[i] ).append(": ").append( extraNamesAndValues[i+1] ).append("\r\n");
+        }
         sb.append("\r\n");
         return sb.toString();
     }
@@ -0,0 +1,174 @@
+package http;
+import java.util.*;
+import jLib.LibTest;
+
+
+
+/**
+ * The header lines of one HTTP message, kept in arrival order in a single flat array. Lookups ignore case,
+ * a name may repeat (Set-Cookie), and instances never change, so HttpHeaderBlocks can share them freely.
+ * A Builder adds any number of headers for the price of one array.
+ * NOTE: entrySet() yields every header line, so a repeated name appears once per line.
+ */
+public final class HttpHeaders extends AbstractMap<String,String> {
+
+
+
+    public static final HttpHeaders EMPTY = new HttpHeaders( new String[0], 0 );
+    private final String[] namesAndValues;
+    private final int count;
+
+
+
+    private HttpHeaders( String[] namesAndValues, int count ) {
+        this.namesAndValues = namesAndValues;
+        this.count = count;
+    }
+
+
+
+    public static HttpHeaders of( Map<String,String> map ) {
+        if ( map==null ) return EMPTY;
+        if ( map instanceof HttpHeaders h ) return h;
+        Builder b = new Builder();
+        for ( Map.Entry<String,String> e : map.entrySet() ) b.add( e.getKey(), e.getValue() );
+        return b.build();
+    }
+
+
+
+    private int indexOf( Object name ) {
+        if (!( name instanceof String s )) return -1;
+        for ( int i=0; i<count; i++ ) {
+            String n = namesAndValues[i*2];
+            if ( n==s || n.equalsIgnoreCase(s) ) return i;
+        }
+        return -1;
+    }
+
+
+
+    @Override
+    public String get( Object name ) {
+        int i = indexOf(name);
+        return i<0 ? null : namesAndValues[i*2+1];
+    }
+    @Override
+    public boolean containsKey( Object name ) { return indexOf(name)>=0; }
+    @Override
+    public int size() { return count; }
+
+
+
+    public List<String> getAll( String name ) {
+        List<String> values = new ArrayList<>();
+        for ( int i=0; i<count; i++ ) {
+            if ( namesAndValues[i*2].equalsIgnoreCase(name) ) values.add( namesAndValues[i*2+1] );
+        }
+        return values;
+    }
+
+
+
+    /**
+     * Returns a copy where name has exactly this value; any earlier values of name are dropped.
+     */
+    public HttpHeaders with( String name, String value ) {
+        return toBuilder().set( name, value ).build();
+    }
+
+
+
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.namesAndValues = Arrays.copyOf( namesAndValues, Math.max( 16, count*2+8 ) );
+        b.count = count;
+        return b;
+    }
+
+
+
+    @Override
+    public Set<Map.Entry<String,String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override public int size() { return count; }
+            @Override public Iterator<Map.Entry<String,String>> iterator() {
+                return new Iterator<>() {
+                    int i = 0;
+                    @Override public boolean hasNext() { return i<count; }
+                    @Override public Map.Entry<String,String> next() {
+                        if ( i>=count ) throw new NoSuchElementException();
+                        i++;
+                        return new SimpleImmutableEntry<>( namesAndValues[i*2-2], namesAndValues[i*2-1] );
+                    }
+                };
+            }
+        };
+    }
+
+
+
+    public static class Builder {
+        private String[] namesAndValues = new String[16];
+        private int count = 0;
+
+        public Builder add( String name, String value ) {
+            if ( count*2==namesAndValues.length ) namesAndValues = Arrays.copyOf( namesAndValues, count*4 );
+            namesAndValues[count*2] = name;
+            namesAndValues[count*2+1] = value;
+            count++;
+            return this;
+        }
+
+        public Builder set( String name, String value ) {
+            remove(name);
+            return add( name, value );
+        }
+
+        public Builder remove( String name ) {
+            int kept = 0;
+            for ( int i=0; i<count; i++ ) {
+                if ( namesAndValues[i*2].equalsIgnoreCase(name) ) continue;
+                namesAndValues[kept*2] = namesAndValues[i*2];
+                namesAndValues[kept*2+1] = namesAndValues[i*2+1];
+                kept++;
+            }
+            count = kept;
+            return this;
+        }
+
+        public int size() { return count; }
+
+        public HttpHeaders build() {
+            return new HttpHeaders( Arrays.copyOf( namesAndValues, count*2 ), count );
+        }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) {
+        if (findLineNumber) throw new RuntimeException();
+        HttpHeaders h = new Builder()
+            .add( "Content-Type", "text/plain" )
+            .add( "Set-Cookie", "a=1" )
+            .add( "Set-Cookie", "b=2" )
+            .build();
+        LibTest.asrtEQ( "text/plain", h.get("content-type") );
+        LibTest.asrt( h.containsKey("CONTENT-TYPE") );
+        LibTest.asrtEQ( List.of("a=1","b=2"), h.getAll("set-cookie") );
+        LibTest.asrtEQ( 3, h.size() );
+        HttpHeaders h2 = h.with( "content-type", "application/json" );
+        LibTest.asrtEQ( "text/plain", h.get("Content-Type") );
+        LibTest.asrtEQ( "application/json", h2.get("Content-Type") );
+        LibTest.asrtEQ( 3, h2.size() );
+        int lines = 0;
+        for ( Map.Entry<String,String> e : h2.entrySet() ) lines++;
+        LibTest.asrtEQ( 3, lines );
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -1,6 +1,11 @@
 package http;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.net.URLDecoder;
 import jLib.*;
+import persist.PersistentList;
+import persist.PersistentMap;
 
 /**
  * HttpJsonHandler - A Universal HTTP Database Interface
@@ -26,6 +31,13 @@ import jLib.*;
  * POST /db + JSON → Merges JSON into database, returns updated database
  * PUT /db + JSON → Same as POST (merges data)
  *
+ * Below the handler's prefix, the path addresses one value, JSON-Pointer style: each segment is a map key or a list
+ * index ("-" appends to a list), with "~1" for "/" and "~0" for "~". Only that value is read or returned.
+ * GET /db/usr/alice/settings → Returns just that value (404 if absent)
+ * PUT /db/usr/alice/settings + JSON → Replaces that value; its parent must exist
+ * PATCH or POST /db/usr/alice/settings + JSON → Deep-merges into that value
+ * DELETE /db/usr/alice/settings → Removes it
+ *
  * Example:
  * POST /db: {"users": {"john": {"name": "John", "age": 30}}}
  * POST /db: {"users": {"john": {"email": "john@example.com"}}}
@@ -36,10 +48,15 @@ public class HttpJsonHandler implements HttpHandler {
 
 
     private final Map<Object,Object> dataMap;
+    public final String prefix; // null means no path addressing: every request is about the whole map
 
 
 
     public HttpJsonHandler( Map<Object,Object> dataMap ) {
+        this( null, dataMap );
+    }
+    public HttpJsonHandler( String prefix, Map<Object,Object> dataMap ) {
+        this.prefix = prefix;
         this.dataMap = dataMap;
     }
 
@@ -48,26 +65,25 @@ public class HttpJsonHandler implements HttpHandler {
     @Override
     public HttpResponse handle( HttpRequest req ) {
         String method = req.headerBlock.getMethod();
+        List<String> path = pathOf( req.headerBlock.getRequestPath() );
+        if ( !path.isEmpty() ) return handlePath( req, method, path );
 
         if ( "GET".equals(method) ) {
             // Return current data as JSON
-            String jsonData = JsonEncoder.encode( dataMap );
-            HttpHeaderBlock responseHeader = new HttpHeaderBlock( 200, "OK",
-                Lib.mapOf("Content-Type", "application/json") );
-            return new HttpResponse( responseHeader, jsonData.getBytes() );
+            return jsonResponse( dataMap );
         }
 
-        if ( !("POST".equals(method) || "PUT".equals(method)) ) {
+        if ( !("POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method)) ) {
             return new HttpErrorResponse( 405, "Method Not Allowed" );
         }
-        if ( req.parsedBody == null ) {
+        if ( req.parsedBody() == null ) {
             return new HttpErrorResponse( 400, "Bad Request: Empty or invalid body" );
         }
-        if ( !(req.parsedBody instanceof Map) ) {
+        if ( !(req.parsedBody() instanceof Map) ) {
             return new HttpErrorResponse( 400, "Bad Request: Body must be a JSON object" );
         }
         @SuppressWarnings("unchecked")
-        Map<Object,Object> requestData = (Map<Object,Object>) req.parsedBody;
+        Map<Object,Object> requestData = (Map<Object,Object>) req.parsedBody();
 
         // Debug: log database requests
         if ( requestData.size() > 0 ) {
@@ -77,13 +93,143 @@ public class HttpJsonHandler implements HttpHandler {
             }
         }
 
-        mergeMap( requestData, dataMap );
+        inTransaction( () -> mergeMap( requestData, dataMap ) );
 
         // Return merged data as JSON
-        String jsonData = JsonEncoder.encode( dataMap );
+        return jsonResponse( dataMap );
+    }
+
+
+
+    /**
+     * A request for one value below the root. Lookups walk the path one key at a time, which for a PersistentMap is
+     * one (parent_id, key_json) row per segment, so cost follows the path and the size of the answer.
+     */
+    @SuppressWarnings("unchecked")
+    private HttpResponse handlePath( HttpRequest req, String method, List<String> path ) {
+        if ( "GET".equals(method) ) {
+            Object[] found = lookup( dataMap, path );
+            if ( found==null ) return new HttpErrorResponse( 404, "Not Found" );
+            return jsonResponse( found[0] );
+        }
+        Object[] parentFound = lookup( dataMap, path.subList( 0, path.size()-1 ) );
+        if ( parentFound==null || !( parentFound[0] instanceof Map || parentFound[0] instanceof List ) ) {
+            return new HttpErrorResponse( 404, "Not Found" );
+        }
+        Object parent = parentFound[0];
+        String key = path.get( path.size()-1 );
+        if ( "DELETE".equals(method) ) {
+            if ( child( parent, key )==null ) return new HttpErrorResponse( 404, "Not Found" );
+            inTransaction( () -> {
+                if ( parent instanceof Map<?,?> m ) m.remove(key);
+                else ((List<Object>)parent).remove( index( key, ((List<?>)parent).size() ) );
+            } );
+            return new HttpResponse( new HttpHeaderBlock( 204, "No Content", Lib.mapOf() ), (byte[])null );
+        }
+        boolean merge = "PATCH".equals(method) || "POST".equals(method);
+        if ( !merge && !"PUT".equals(method) ) return new HttpErrorResponse( 405, "Method Not Allowed" );
+        Object body = req.parsedBody();
+        if ( body==null ) return new HttpErrorResponse( 400, "Bad Request: Empty or invalid body" );
+        if ( parent instanceof List<?> l && !key.equals("-") && index( key, l.size()+1 )<0 ) {
+            return new HttpErrorResponse( 404, "Not Found" );
+        }
+        Object[] stored = new Object[1];
+        inTransaction( () -> {
+            String storedKey = key;
+            Object[] existing = child( parent, key );
+            if ( merge && existing!=null && existing[0] instanceof Map && body instanceof Map ) {
+                mergeMap( (Map<Object,Object>)body, (Map<Object,Object>)existing[0] );
+            } else if ( parent instanceof Map<?,?> m ) {
+                ((Map<Object,Object>)m).put( key, body );
+            } else {
+                List<Object> list = (List<Object>)parent;
+                int i = key.equals("-") ? list.size() : index( key, list.size()+1 );
+                if ( i<list.size() ) list.remove(i); // NOTE: set() would merge a container into the old one
+                list.add( i, body );
+                storedKey = ""+i;
+            }
+            stored[0] = child( parent, storedKey )[0];
+        } );
+        return jsonResponse( stored[0] );
+    }
+
+
+
+    /**
+     * The path below prefix as decoded segments; empty for the root, or always without a prefix.
+     */
+    private List<String> pathOf( String reqPath ) {
+        if ( prefix==null || reqPath==null ) return List.of();
+        if (! ( reqPath.equals(prefix) || reqPath.startsWith( prefix+"/" ) ) ) return List.of();
+        List<String> path = new ArrayList<>();
+        for ( String seg : reqPath.substring( prefix.length() ).split("/") ) {
+            if ( seg.isEmpty() ) continue;
+            seg = URLDecoder.decode( seg.replace( "+", "%2B" ), StandardCharsets.UTF_8 );
+            path.add( seg.replace( "~1", "/" ).replace( "~0", "~" ) );
+        }
+        return path;
+    }
+
+
+
+    /**
+     * Returns {value} for the value at path, or null if some segment does not exist.
+     */
+    private static Object[] lookup( Object root, List<String> path ) {
+        Object[] found = { root };
+        for ( String key : path ) {
+            found = child( found[0], key );
+            if ( found==null ) return null;
+        }
+        return found;
+    }
+    private static Object[] child( Object container, String key ) {
+        if ( container instanceof Map<?,?> m ) {
+            Object value = m.get(key);
+            return value!=null || m.containsKey(key) ? new Object[]{ value } : null;
+        }
+        if ( container instanceof List<?> l ) {
+            int i = index( key, l.size() );
+            return i<0 ? null : new Object[]{ l.get(i) };
+        }
+        return null;
+    }
+    /**
+     * key as an index below limit, or -1.
+     */
+    private static int index( String key, int limit ) {
+        try {
+            int i = Integer.parseInt(key);
+            return i>=0 && i<limit ? i : -1;
+        } catch ( NumberFormatException e ) { return -1; }
+    }
+
+
+
+    /**
+     * NOTE: all of a write or none of it, with one commit, when the data is persistent.
+     */
+    private void inTransaction( Runnable work ) {
+        if ( dataMap instanceof PersistentMap pm ) pm.getPersistentData().transaction(work);
+        else work.run();
+    }
+
+
+
+    /**
+     * Streams the JSON as it is encoded, so a large database is never held in memory as one string.
+     * A PersistentMap is exported straight from its rows, one ordered page query per nested container.
+     */
+    private static HttpResponse jsonResponse( Object data ) {
         HttpHeaderBlock responseHeader = new HttpHeaderBlock( 200, "OK",
             Lib.mapOf("Content-Type", "application/json") );
-        return new HttpResponse( responseHeader, jsonData.getBytes() );
+        return new ChunkedResponse( responseHeader, out -> {
+            Writer w = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            if ( data instanceof PersistentMap pm ) pm.exportJson(w);
+            else if ( data instanceof PersistentList pl ) pl.exportJson(w);
+            else new JsonEncoder( w, null ).write( data );
+            w.flush();
+        } );
     }
 
 
@@ -128,11 +274,67 @@ public class HttpJsonHandler implements HttpHandler {
         LibTest.asrt( dataMap.get("existing").equals("value") );
         LibTest.asrt( dataMap.get("new").equals("data") );
         LibTest.asrt( dataMap.get("count").equals(42) );
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Result<Long,Exception> writeResult = response.write(bout);
+        if (! writeResult.isOk() ) throw writeResult.err();
+        Result<HttpMessage,Exception> readBack = HttpMessage.readHttpMessage( new ByteArrayInputStream( bout.toByteArray() ) );
+        if (! readBack.isOk() ) throw readBack.err();
+        LibTest.asrtEQ( dataMap, JsonDecoder.decode( new String( readBack.ok().body, StandardCharsets.UTF_8 ) ) );
         return true;
     }
 
 
 
+    @SuppressWarnings({"unused", "try"})
+    private static boolean path_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( persist.PersistentData pd = persist.PersistentData.temp("jsonpath") ) {
+            HttpJsonHandler handler = new HttpJsonHandler( "/db", pd.getRootMap() );
+            call( handler, "POST", "/db", "{\"usr\":{\"alice\":{\"settings\":{\"theme\":\"dark\"},\"tags\":[\"a\",\"b\"]}}}" );
+            LibTest.asrtEQ( "{\"theme\":\"dark\"}", call( handler, "GET", "/db/usr/alice/settings", null ) );
+            LibTest.asrtEQ( "\"b\"", call( handler, "GET", "/db/usr/alice/tags/1", null ) );
+            LibTest.asrtEQ( "404", call( handler, "GET", "/db/usr/bob", null ) );
+            LibTest.asrtEQ( call( handler, "GET", "/db", null ), call( handler, "GET", "/dbx/usr", null ), "not below /db" );
+
+            LibTest.asrtEQ( "{\"theme\":\"dark\",\"font\":12}",
+                call( handler, "PATCH", "/db/usr/alice/settings", "{\"font\":12}" ), "merged" );
+            LibTest.asrtEQ( "{\"font\":14}", call( handler, "PUT", "/db/usr/alice/settings", "{\"font\":14}" ), "replaced" );
+            LibTest.asrtEQ( "\"c\"", call( handler, "PUT", "/db/usr/alice/tags/-", "\"c\"" ), "appended" );
+            LibTest.asrtEQ( "[\"a\",\"b\",\"c\"]", call( handler, "GET", "/db/usr/alice/tags", null ) );
+            call( handler, "PUT", "/db/usr/alice/objs", "[{\"y\":2},[1,2,3]]" );
+            LibTest.asrtEQ( "{\"x\":1}", call( handler, "PUT", "/db/usr/alice/objs/0", "{\"x\":1}" ), "map over map" );
+            LibTest.asrtEQ( "[9]", call( handler, "PUT", "/db/usr/alice/objs/1", "[9]" ), "list over list" );
+            LibTest.asrtEQ( "[{\"x\":1},[9]]", call( handler, "GET", "/db/usr/alice/objs", null ) );
+            LibTest.asrtEQ( "\"x y/z\"", call( handler, "PUT", "/db/usr/a%20b~1c", "\"x y/z\"" ), "escaped key" );
+            LibTest.asrtEQ( "\"x y/z\"", call( handler, "GET", "/db/usr/a%20b~1c", null ) );
+            LibTest.asrtEQ( "404", call( handler, "PUT", "/db/usr/nobody/settings", "1" ), "parent must exist" );
+
+            LibTest.asrtEQ( "204", call( handler, "DELETE", "/db/usr/alice/tags/0", null ) );
+            LibTest.asrtEQ( "[\"b\",\"c\"]", call( handler, "GET", "/db/usr/alice/tags", null ) );
+            LibTest.asrtEQ( "204", call( handler, "DELETE", "/db/usr/alice", null ) );
+            LibTest.asrtEQ( "404", call( handler, "DELETE", "/db/usr/alice", null ) );
+            LibTest.asrtEQ( "{\"usr\":{\"a b/c\":\"x y/z\"}}", call( handler, "GET", "/db", null ) );
+        }
+        return true;
+    }
+    /**
+     * The response body, or the status code when it is not 200.
+     */
+    private static String call( HttpJsonHandler handler, String method, String uri, String json ) throws Exception {
+        HttpHeaderBlock head = new HttpHeaderBlock( method+" "+uri+" HTTP/1.1", Lib.mapOf( "Content-Type", "application/json" ) );
+        HttpResponse response = handler.handle( HttpRequest.newHttpRequest(
+            new HttpMessage( head, json==null ? null : json.getBytes(StandardCharsets.UTF_8) )
+        ) );
+        String status = response.headerBlock.firstLine.split(" ")[1];
+        if (! status.equals("200") ) return status;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Result<Long,Exception> written = response.writeBody(bout);
+        if (! written.isOk() ) throw written.err();
+        return bout.toString(StandardCharsets.UTF_8);
+    }
+
+
+
     public static void main( String[] args ) throws Exception { LibTest.testClass(); }
 
 
@@ -100,9 +100,9 @@ public class HttpJssHandler implements HttpHandler {
                 "method", req.headerBlock.getMethod(),
                 "url", req.headerBlock.getUri(),
                 "headers", req.headerBlock.headers,
-                "body", req.body!=null ? new String( req.body ) : "",
-                "parsedBody", req.parsedBody,
-                "params", req.allParms
+                "body", new String( req.bodyBytes() ),
+                "parsedBody", req.parsedBody(),
+                "params", req.allParms()
             ) );
             return engine.eval( "(" + requestJson + ")" );
         } catch ( Exception e ) {
@@ -133,6 +133,19 @@ public class HttpJssHandler implements HttpHandler {
                     headers.put( String.valueOf( entry.getKey() ), String.valueOf( entry.getValue() ) );
                 }
             }
+            if ( responseMap.get( "stream" )!=null ) {
+                if ( !headers.containsKey( "Content-Type" ) ) headers.put( "Content-Type", "text/html" );
+                String statusLine = "HTTP/1.1 " + status + " " + getStatusText( status );
+                return new ChunkedResponse( new HttpHeaderBlock( statusLine, headers ), out -> {
+                    Writer w = new OutputStreamWriter( out, "UTF-8" );
+                    try {
+                        ((Invocable)engine).invokeMethod( result, "stream", w );
+                    } catch ( ScriptException | NoSuchMethodException e ) {
+                        throw new IOException(e);
+                    }
+                    w.flush();
+                } );
+            }
             Object bodyObj = responseMap.get( "body" );
             String body = bodyObj!=null ? String.valueOf( bodyObj ) : "";
             byte[] bodyBytes = body.getBytes();
@@ -437,5 +450,44 @@ public class HttpJssHandler implements HttpHandler {
 
 
 
+    @SuppressWarnings( "unused" )
+    private static boolean stream_TEST_( boolean findLineNumber ) throws Exception {
+        if ( findLineNumber ) throw new RuntimeException();
+        File tempDir = new File( System.getProperty("java.io.tmpdir"), "jss_stream_test_" + System.currentTimeMillis() );
+        tempDir.mkdirs();
+        try {
+            File jsFile = new File( tempDir, "stream.jss" );
+            String jsCode = """
+                function handle(request) {
+                    return {
+                        status: 200,
+                        headers: {"Content-Type": "text/plain"},
+                        stream: function(out) {
+                            for (var i=0; i<3; i++) out.write("row" + i + ";");
+                        }
+                    };
+                }
+            """;
+            try ( FileWriter writer = new FileWriter( jsFile ) ) {
+                writer.write( jsCode );
+            }
+            HttpJssHandler handler = new HttpJssHandler( "/", tempDir );
+            HttpHeaderBlock headerBlock = new HttpHeaderBlock( "GET /stream.jss HTTP/1.1", new HashMap<>() );
+            HttpResponse response = handler.handle( new HttpRequest( headerBlock, new byte[0] ) );
+            LibTest.asrt( response instanceof ChunkedResponse );
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            Result<Long,Exception> writeResult = response.write( bout );
+            if ( !writeResult.isOk() ) throw writeResult.err();
+            Result<HttpMessage,Exception> readBack = HttpMessage.readHttpMessage( new ByteArrayInputStream( bout.toByteArray() ) );
+            if ( !readBack.isOk() ) throw readBack.err();
+            LibTest.asrtEQ( "row0;row1;row2;", new String( readBack.ok().body ) );
+            return true;
+        } finally {
+            LibFile.rm( tempDir );
+        }
+    }
+
+
+
     public static void main( String[] args ) throws Exception { LibTest.testClass(); }
 }
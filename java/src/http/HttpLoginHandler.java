@@ -30,7 +30,7 @@ public class HttpLoginHandler implements HttpHandler {
 
     @Override
     public HttpResponse handle( HttpRequest req ) {
-        String command = Lib.nvl(req.allParms.get("command"), "");
+        String command = Lib.nvl(req.allParms().get("command"), "");
         if (command == null) command = "";
         switch ( command.toLowerCase() ) {
             case "sendemail": return handleSendEmail(req);
@@ -43,7 +43,7 @@ public class HttpLoginHandler implements HttpHandler {
 
 
     private HttpResponse handleSendEmail( HttpRequest req ) {
-        String email = Lib.nvl(req.allParms.get("email"), "");
+        String email = Lib.nvl(req.allParms().get("email"), "");
         if (Lib.isEmpty(email)) return jsonError("Missing email parameter");
         String loginCode = Lib.randToken( "", 6, true );
         Object loginCodesObj = Jsonable.get( persistentMap, List.of("usr",email,"loginCode") );
@@ -77,8 +77,8 @@ public class HttpLoginHandler implements HttpHandler {
 
 
     private HttpResponse handleValidateLoginCode( HttpRequest req ) {
-        String email = Lib.nvl(req.allParms.get("email"), "");
-        String loginCode = Lib.nvl(req.allParms.get("loginCode"), "");
+        String email = Lib.nvl(req.allParms().get("email"), "");
+        String loginCode = Lib.nvl(req.allParms().get("loginCode"), "");
         
         if (Lib.isEmpty(email) || Lib.isEmpty(loginCode)) {
             return jsonError("Missing email or loginCode parameter");
@@ -95,10 +95,10 @@ public class HttpLoginHandler implements HttpHandler {
         }
         
         AuthToken tok = AuthToken.newAuthToken(email);
-        HttpHeaderBlock resHead = new HttpHeaderBlock("HTTP/1.1", "200", new HashMap<>())
-            .withAddHeader("Content-Type", "application/json")
-            .withAddHeader("Set-Cookie", "Authorization="+tok.toJson() )
-        ;
+        HttpHeaderBlock resHead = new HttpHeaderBlock("HTTP/1.1", "200", new HashMap<>()).withAddHeaders(
+            "Content-Type", "application/json",
+            "Set-Cookie", "Authorization="+tok.toJson()
+        );
         
         Map<String,Object> response = new HashMap<>();
         response.put("success", true);
@@ -1,38 +1,109 @@
 package http;
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
 import jLib.*;
 import jLib.LibString;
 
 
 
+/**
+ * A header block plus body. Bodies up to maxInMemoryBody are kept in the body array; larger ones are spooled
+ * to bodyFile while being read, so a big upload costs disk rather than heap. Either way, bodyStream() and
+ * bodyChannel() read the body, and parsedBody() and allParms() are only decoded the first time they are asked for.
+ */
 public class HttpMessage {
 
 
 
+    public static long maxInMemoryBody = 1024*1024;
     public final HttpHeaderBlock headerBlock;
-    public final byte[] body;
-    public final Object parsedBody;
-    public final Map<String,Object> allParms; // query string, body form, and cookie data; in that order of precidence
+    public final byte[] body; // empty when the body was spooled to bodyFile
+    public final File bodyFile;
+    public final long bodyLength;
+    private Object parsedBody;
+    private Map<String,Object> allParms;
+    private boolean bodyParsed = false;
 
 
 
     public HttpMessage( HttpHeaderBlock headerBlock, byte[] body ) {
         this.headerBlock = headerBlock;
         this.body = body != null ? body : new byte[0];
+        this.bodyFile = null;
+        this.bodyLength = this.body.length;
+    }
+    public HttpMessage( HttpHeaderBlock headerBlock, File bodyFile ) {
+        this.headerBlock = headerBlock;
+        this.body = new byte[0];
+        this.bodyFile = bodyFile;
+        this.bodyLength = bodyFile.length();
+    }
+
+
+
+    public InputStream bodyStream() throws IOException {
+        if ( bodyFile==null ) return new ByteArrayInputStream(body);
+        return new BufferedInputStream( new FileInputStream(bodyFile) );
+    }
+    public ReadableByteChannel bodyChannel() throws IOException {
+        if ( bodyFile==null ) return Channels.newChannel( new ByteArrayInputStream(body) );
+        return FileChannel.open( bodyFile.toPath(), StandardOpenOption.READ );
+    }
+
+
+
+    /**
+     * The whole body as bytes; this reads a spooled body back into memory, so prefer bodyStream() for large ones.
+     */
+    public byte[] bodyBytes() throws IOException {
+        if ( bodyFile==null ) return body;
+        return Files.readAllBytes( bodyFile.toPath() );
+    }
+
+
+
+    /**
+     * Removes the spool file, if any. The server calls this once the handler has answered.
+     */
+    public void discardBody() {
+        if ( bodyFile!=null ) bodyFile.delete();
+    }
+
+
+
+    public synchronized Object parsedBody() {
+        parse();
+        return parsedBody;
+    }
+    public synchronized Map<String,Object> allParms() { // query string, body form, and cookie data; in that order of precidence
+        parse();
+        return allParms;
+    }
+
+
+
+    private void parse() {
+        if ( bodyParsed ) return;
+        bodyParsed = true;
         String contentType = headerBlock.getContentType();
         String encoding = Lib.nvl( headerBlock.getHeaderValue("Content-Encoding"), "utf-8" );
         Object parsed = null;
-        if ( this.body.length > 0 ) {
+        if ( bodyLength > 0 ) {
             try {
-                String bodyStr = new String(this.body,encoding);
                 if ( contentType.toUpperCase().indexOf("JSON") >= 0 ) {
-                    parsed = JsonDecoder.decode(bodyStr);
-                } else
-                if ( contentType.toUpperCase().indexOf("URLENCODED") >= 0 ) {
-                    parsed = parseUrlEncoded(bodyStr);
+                    parsed = encoding.equalsIgnoreCase("utf-8")
+                        ? JsonDecoder.decode( bodyBytes() ) // NOTE: straight from the bytes; no String first
+                        : JsonDecoder.decode( new String( bodyBytes(), encoding ) )
+                    ;
                 } else {
-                    parsed = bodyStr;
+                    String bodyStr = new String( bodyBytes(), encoding );
+                    if ( contentType.toUpperCase().indexOf("URLENCODED") >= 0 ) {
+                        parsed = parseUrlEncoded(bodyStr);
+                    } else {
+                        parsed = bodyStr;
+                    }
                 }
             } catch ( Exception e ) {
                 parsed = null;
@@ -82,11 +153,13 @@ public class HttpMessage {
 
 
     public static Result<HttpMessage,Exception> readHttpMessage( HttpHeaderBlock headerBlock, InputStream inp ) {
+        if ( headerBlock.isChunked() ) return readChunked( headerBlock, inp );
         Long contentLength = headerBlock.getContentLength();
         if ( contentLength==null ) contentLength = 0L;
-        if ( contentLength<0 || contentLength>Integer.MAX_VALUE ) {
+        if ( contentLength<0 ) {
             return Result.err( new IllegalArgumentException("invalid content length: "+contentLength) );
         }
+        if ( contentLength > maxInMemoryBody ) return spoolBody( headerBlock, inp, contentLength );
         byte[] body = new byte[ contentLength.intValue() ];
         int totalRead = 0;
         while ( totalRead < body.length ) {
@@ -99,6 +172,129 @@ public class HttpMessage {
         Result<HttpMessage,Exception> result = Result.ok( new HttpMessage(headerBlock,body) );
         return result;
     }
+    private static Result<HttpMessage,Exception> spoolBody( HttpHeaderBlock headerBlock, InputStream inp, long contentLength ) {
+        File tmp = null;
+        try {
+            tmp = newSpoolFile();
+            try ( OutputStream out = new FileOutputStream(tmp) ) {
+                byte[] buf = new byte[64*1024];
+                long remaining = contentLength;
+                while ( remaining > 0 ) {
+                    int read = inp.read( buf, 0, (int)Math.min( buf.length, remaining ) );
+                    if ( read < 0 ) throw new IOException("incomplete body");
+                    out.write( buf, 0, read );
+                    remaining -= read;
+                }
+            }
+            return Result.ok( new HttpMessage(headerBlock,tmp) );
+        } catch ( IOException ioe ) {
+            if ( tmp!=null ) tmp.delete();
+            return Result.err(ioe);
+        }
+    }
+    /**
+     * Decodes a chunked body. The result carries a Content-Length instead of the Transfer-Encoding,
+     * so it can be written or forwarded as is. Past maxInMemoryBody the body goes to a spool file.
+     */
+    private static Result<HttpMessage,Exception> readChunked( HttpHeaderBlock headerBlock, InputStream inp ) {
+        ByteArrayOutputStream mem = new ByteArrayOutputStream();
+        OutputStream sink = mem;
+        File tmp = null;
+        long total = 0;
+        try {
+            byte[] buf = new byte[64*1024];
+            while (true) {
+                String sizeLine = readLine(inp);
+                int semi = sizeLine.indexOf(';');
+                long size = Long.parseLong( ( semi<0 ? sizeLine : sizeLine.substring(0,semi) ).trim(), 16 );
+                if ( size<0 ) throw new IOException( "bad chunk size: "+sizeLine );
+                if ( size==0 ) break;
+                if ( tmp==null && total+size>maxInMemoryBody ) {
+                    tmp = newSpoolFile();
+                    sink = new BufferedOutputStream( new FileOutputStream(tmp) );
+                    mem.writeTo(sink);
+                    mem = null;
+                }
+                for ( long remaining=size; remaining>0; ) {
+                    int read = inp.read( buf, 0, (int)Math.min( buf.length, remaining ) );
+                    if ( read<0 ) throw new IOException("incomplete chunk");
+                    sink.write( buf, 0, read );
+                    remaining -= read;
+                }
+                total += size;
+                if (! readLine(inp).isEmpty() ) throw new IOException("missing CRLF after chunk");
+            }
+            while (! readLine(inp).isEmpty() ); // NOTE: trailers are read and dropped
+            sink.close();
+        } catch ( IOException | NumberFormatException e ) {
+            try { sink.close(); } catch ( IOException ignore ) {}
+            if ( tmp!=null ) tmp.delete();
+            return Result.err(e);
+        }
+        HttpHeaderBlock unchunked = new HttpHeaderBlock( headerBlock.firstLine, headerBlock.headers.toBuilder()
+            .remove( "Transfer-Encoding" )
+            .set( "Content-Length", ""+total )
+            .build()
+        );
+        if ( tmp!=null ) return Result.ok( new HttpMessage(unchunked,tmp) );
+        return Result.ok( new HttpMessage( unchunked, mem.toByteArray() ) );
+    }
+    private static String readLine( InputStream inp ) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for ( int c; (c=inp.read())!='\n'; ) {
+            if ( c<0 ) throw new EOFException("incomplete chunked body");
+            if ( sb.length()>4096 ) throw new IOException("chunk line too long");
+            if ( c!='\r' ) sb.append( (char)c );
+        }
+        return sb.toString();
+    }
+
+
+
+    /**
+     * For engines that buffer raw bytes: returns the index just past a complete chunked body that starts at
+     * from, or -1 if more bytes are needed.
+     */
+    public static int chunkedEnd( byte[] buf, int from, int to ) {
+        int i = from;
+        while (true) {
+            int lineEnd = indexOfLf( buf, i, to );
+            if ( lineEnd<0 ) return -1;
+            long size = 0;
+            for ( int j=i; j<lineEnd; j++ ) {
+                int d = Character.digit( buf[j], 16 );
+                if ( d<0 ) break;
+                size = size*16 + d;
+                if ( size>Integer.MAX_VALUE ) return -1;
+            }
+            i = lineEnd+1;
+            if ( size==0 ) break;
+            if ( (long)i+size+2 > to ) return -1;
+            i += (int)size;
+            int crlf = indexOfLf( buf, i, to );
+            if ( crlf<0 ) return -1;
+            i = crlf+1;
+        }
+        while (true) { // trailers, then the blank line
+            int lineEnd = indexOfLf( buf, i, to );
+            if ( lineEnd<0 ) return -1;
+            boolean blank = lineEnd==i || ( lineEnd==i+1 && buf[i]=='\r' );
+            i = lineEnd+1;
+            if ( blank ) return i;
+        }
+    }
+    private static int indexOfLf( byte[] buf, int from, int to ) {
+        for ( int i=from; i<to; i++ ) if ( buf[i]=='\n' ) return i;
+        return -1;
+    }
+
+
+
+    static File newSpoolFile() throws IOException {
+        File tmp = File.createTempFile( "webx-body-", ".tmp" );
+        tmp.deleteOnExit();
+        return tmp;
+    }
     public static Result<HttpMessage,Exception> readHttpMessage( InputStream inp ) {
         Result<HttpHeaderBlock,Exception> headerResult = HttpHeaderBlock.readFrom(inp);
         if (! headerResult.isOk() ) return Result.err( headerResult.err() );
@@ -108,15 +304,37 @@ public class HttpMessage {
 
 
     public Result<Long,Exception> write( OutputStream out ) {
-        HttpHeaderBlock newHeaderBlock = headerBlock;
-        if ( headerBlock.getContentLength() == null ) {
-            newHeaderBlock = headerBlock.withAddHeader( "Content-Length", ""+body.length );
-        }
-        Result<Long,Exception> headerResult = newHeaderBlock.write(out);
+        Result<Long,Exception> headerResult = headerBlock.getContentLength()==null && !bodilessStatus()
+            ? headerBlock.write( out, "Content-Length", ""+bodyLength )
+            : headerBlock.write(out);
         if (! headerResult.isOk() ) return headerResult;
-        try { out.write(body); }
-        catch ( IOException ioe ) { return Result.err(ioe); }
-        return Result.ok( headerResult.ok() + body.length );
+        Result<Long,Exception> bodyResult = writeBody(out);
+        if (! bodyResult.isOk() ) return bodyResult;
+        return Result.ok( headerResult.ok() + bodyResult.ok() );
+    }
+
+
+
+    /**
+     * Whether this is a 1xx, 204 or 304 response, which never has a body and so gets no Content-Length.
+     */
+    private boolean bodilessStatus() {
+        String[] parts = headerBlock.firstLine==null ? new String[0] : headerBlock.firstLine.split(" ");
+        if ( parts.length<2 || !parts[0].startsWith("HTTP/") ) return false;
+        return parts[1].startsWith("1") || parts[1].equals("204") || parts[1].equals("304");
+    }
+
+
+
+    /**
+     * Writes just the body bytes, with no framing; subclasses that produce their body override this.
+     */
+    public Result<Long,Exception> writeBody( OutputStream out ) {
+        try {
+            if ( bodyFile==null ) out.write(body);
+            else try ( InputStream inp = bodyStream() ) { inp.transferTo(out); }
+        } catch ( IOException ioe ) { return Result.err(ioe); }
+        return Result.ok(bodyLength);
     }
 
 
@@ -157,9 +375,9 @@ public class HttpMessage {
             Result<HttpMessage,Exception> result = readHttpMessage( new ByteArrayInputStream(rawHeader.getBytes()) );
             if (! result.isOk() ) throw result.err();
             HttpMessage msg = result.ok();
-            LibTest.asrt( msg.parsedBody instanceof Map );
+            LibTest.asrt( msg.parsedBody() instanceof Map );
             @SuppressWarnings("unchecked")
-            Map<String,Object> parsed = (Map<String,Object>) msg.parsedBody;
+            Map<String,Object> parsed = (Map<String,Object>) msg.parsedBody();
             LibTest.asrt( parsed.size() == 3 );
             LibTest.asrt( parsed.get("a").equals(1) );
             LibTest.asrt( parsed.get("b").equals(2) );
@@ -180,9 +398,9 @@ public class HttpMessage {
             Result<HttpMessage,Exception> result = readHttpMessage( new ByteArrayInputStream(rawHeader.getBytes()) );
             if (! result.isOk() ) throw result.err();
             HttpMessage msg = result.ok();
-            LibTest.asrt( msg.parsedBody instanceof Map );
+            LibTest.asrt( msg.parsedBody() instanceof Map );
             @SuppressWarnings("unchecked")
-            Map<String,Object> parsed = (Map<String,Object>) msg.parsedBody;
+            Map<String,Object> parsed = (Map<String,Object>) msg.parsedBody();
             LibTest.asrt( parsed.size() == 3 );
             LibTest.asrt( parsed.get("a").equals("1") );
             LibTest.asrt( parsed.get("b").equals("2") );
@@ -193,5 +411,54 @@ public class HttpMessage {
 
 
 
+    @SuppressWarnings("unused")
+    private static boolean chunked_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        String raw = "POST /up HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Type: text/plain\r\n\r\n"
+            + "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\nX-Trailer: t\r\n\r\n";
+        byte[] bytes = ( raw+"GET / HTTP/1.1\r\n\r\n" ).getBytes();
+        LibTest.asrtEQ( raw.length(), chunkedEnd( bytes, raw.indexOf("\r\n\r\n")+4, bytes.length ) );
+        LibTest.asrtEQ( -1, chunkedEnd( bytes, raw.indexOf("\r\n\r\n")+4, raw.length()-3 ) );
+        InputStream inp = new ByteArrayInputStream(bytes);
+        Result<HttpMessage,Exception> result = readHttpMessage(inp);
+        if (! result.isOk() ) throw result.err();
+        LibTest.asrtEQ( "hello, world", new String( result.ok().body ) );
+        LibTest.asrtEQ( 12L, result.ok().headerBlock.getContentLength() );
+        Result<HttpMessage,Exception> next = readHttpMessage(inp);
+        LibTest.asrt( next.isOk(), "request after chunked body" );
+        LibTest.asrtEQ( "GET", next.ok().headerBlock.getMethod() );
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean spool_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        long oldMax = maxInMemoryBody;
+        maxInMemoryBody = 4;
+        try {
+            String raw = "POST / HTTP/1.1\r\nContent-Length: 7\r\nContent-Type: application/json\r\n\r\n{\"a\":1}";
+            Result<HttpMessage,Exception> result = readHttpMessage( new ByteArrayInputStream(raw.getBytes()) );
+            if (! result.isOk() ) throw result.err();
+            HttpMessage msg = result.ok();
+            LibTest.asrt( msg.bodyFile!=null && msg.bodyFile.exists() );
+            LibTest.asrtEQ( 0, msg.body.length );
+            LibTest.asrtEQ( 7L, msg.bodyLength );
+            LibTest.asrtEQ( "{\"a\":1}", new String( msg.bodyStream().readAllBytes() ) );
+            LibTest.asrtEQ( 1, msg.allParms().get("a") );
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            msg.write(bout);
+            LibTest.asrt( bout.toString().endsWith("\r\n\r\n{\"a\":1}") );
+            msg.discardBody();
+            LibTest.asrt(! msg.bodyFile.exists() );
+        } finally {
+            maxInMemoryBody = oldMax;
+        }
+        return true;
+    }
+
+
+
     public static void main( String[] args ) throws Exception { LibTest.testClass(); }
 }
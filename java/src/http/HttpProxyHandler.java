@@ -48,7 +48,9 @@ public class HttpProxyHandler implements HttpHandler {
             }
             java.net.http.HttpRequest request;
             String method = req.headerBlock.getMethod();
-            byte[] body = req.body;
+            java.net.http.HttpRequest.BodyPublisher body = req.bodyFile!=null
+                ? java.net.http.HttpRequest.BodyPublishers.ofFile( req.bodyFile.toPath() )
+                : java.net.http.HttpRequest.BodyPublishers.ofByteArray( req.body );
             switch (method) {
                 case "GET":
                     request = requestBuilder.GET().build();
@@ -57,32 +59,33 @@ public class HttpProxyHandler implements HttpHandler {
                     request = requestBuilder.DELETE().build();
                     break;
                 case "POST":
-                    request = requestBuilder.POST( java.net.http.HttpRequest.BodyPublishers.ofByteArray( body ) ).build();
+                    request = requestBuilder.POST( body ).build();
                     break;
                 case "PUT":
-                    request = requestBuilder.PUT( java.net.http.HttpRequest.BodyPublishers.ofByteArray( body ) ).build();
+                    request = requestBuilder.PUT( body ).build();
                     break;
                 case "OPTIONS":
                     request = requestBuilder.method( "OPTIONS", java.net.http.HttpRequest.BodyPublishers.noBody() ).build();
                     break;
                 default:
                     request = requestBuilder.method( method,
-                        body.length>0 ? java.net.http.HttpRequest.BodyPublishers.ofByteArray( body ) : java.net.http.HttpRequest.BodyPublishers.noBody() )
+                        req.bodyLength>0 ? body : java.net.http.HttpRequest.BodyPublishers.noBody() )
                         .build();
             }
             java.net.http.HttpResponse<byte[]> response = client.send( request, java.net.http.HttpResponse.BodyHandlers.ofByteArray() );
-            HttpHeaderBlock resHead = new HttpHeaderBlock( response.statusCode(), "OK", new LinkedHashMap<>() );
+            HttpHeaders.Builder resHeaders = new HttpHeaders.Builder();
             for (Map.Entry<String,List<String>> entry : response.headers().map().entrySet()) {
                 String name = entry.getKey();
                 if (name==null ||
                     name.equalsIgnoreCase( "connection" ) ||
                     name.equalsIgnoreCase( "keep-alive" )) continue;
-                for (String value : entry.getValue()) resHead = resHead.withAddHeader( name, value );
+                for (String value : entry.getValue()) resHeaders.add( name, value );
             }
-            resHead = resHead.withAddHeader( "Access-Control-Allow-Origin", "*" );
-            resHead = resHead.withAddHeader( "Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS" );
-            resHead = resHead.withAddHeader( "Access-Control-Allow-Headers",
+            resHeaders.set( "Access-Control-Allow-Origin", "*" );
+            resHeaders.set( "Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS" );
+            resHeaders.set( "Access-Control-Allow-Headers",
                 "X-Target-URL, X-File-Path, X-File-Response-Format, X-Disable-Compression, Content-Type" );
+            HttpHeaderBlock resHead = new HttpHeaderBlock( response.statusCode(), "OK", resHeaders.build() );
             byte[] responseBody = response.body();
             return new HttpResponse( resHead, responseBody );
         } catch (Exception e) {
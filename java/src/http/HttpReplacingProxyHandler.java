@@ -158,15 +158,21 @@ public class HttpReplacingProxyHandler extends HttpProxyHandler {
 
         // Update the X-Target-URL header with the modified URL
         modifiedHeaders = modifiedHeaders.withAddHeader( "X-Target-URL", modifiedTargetUrl );
-        byte[] modifiedBody = req.body;
         String contentType = modifiedHeaders.getHeaderValue( "Content-Type" );
-        if (contentType!=null && isTextContent( contentType ) && req.body.length>0) {
-            String bodyString = new String( req.body );
-            String modifiedBodyString = applyReplacements( bodyString );
-            if (!bodyString.equals( modifiedBodyString )) {
-                modifiedBody = modifiedBodyString.getBytes();
-                modifiedHeaders = updateContentLength( modifiedHeaders, modifiedBody.length );
-            }
+        if (contentType==null || !isTextContent( contentType ) || req.bodyLength==0) {
+            HttpRequest modifiedReq = req.bodyFile!=null
+                ? new HttpRequest( modifiedHeaders, req.bodyFile )
+                : new HttpRequest( modifiedHeaders, req.body );
+            return super.handle( modifiedReq );
+        }
+        byte[] modifiedBody;
+        try { modifiedBody = req.bodyBytes(); }
+        catch (IOException e) { return new HttpErrorResponse( 500, "Failed to read request body" ); }
+        String bodyString = new String( modifiedBody );
+        String modifiedBodyString = applyReplacements( bodyString );
+        if (!bodyString.equals( modifiedBodyString )) {
+            modifiedBody = modifiedBodyString.getBytes();
+            modifiedHeaders = updateContentLength( modifiedHeaders, modifiedBody.length );
         }
         HttpRequest modifiedReq = new HttpRequest( modifiedHeaders, modifiedBody );
         return super.handle( modifiedReq );
@@ -248,14 +254,7 @@ public class HttpReplacingProxyHandler extends HttpProxyHandler {
 
 
     private HttpHeaderBlock updateContentLength( HttpHeaderBlock headerBlock, int newLength ) {
-        LinkedHashMap<String,String> newHeaders = new LinkedHashMap<>();
-        for (Map.Entry<String,String> entry : headerBlock.headers.entrySet()) {
-            if (!entry.getKey().equalsIgnoreCase( "Content-Length" )) {
-                newHeaders.put( entry.getKey(), entry.getValue() );
-            }
-        }
-        newHeaders.put( "Content-Length", String.valueOf( newLength ) );
-        return new HttpHeaderBlock( headerBlock.firstLine, newHeaders );
+        return headerBlock.withAddHeader( "Content-Length", String.valueOf( newLength ) );
     }
 
 
@@ -15,10 +15,14 @@ public class HttpRequest extends HttpMessage {
     public HttpRequest( HttpHeaderBlock headerBlock, byte[] body ) {
         super(headerBlock, body);
     }
+    public HttpRequest( HttpHeaderBlock headerBlock, File bodyFile ) {
+        super(headerBlock, bodyFile);
+    }
 
 
 
     public static HttpRequest newHttpRequest( HttpMessage msg ) {
+        if ( msg.bodyFile!=null ) return new HttpRequest( msg.headerBlock, msg.bodyFile );
         return new HttpRequest( msg.headerBlock, msg.body );
     }
 
@@ -15,10 +15,14 @@ public class HttpResponse extends HttpMessage {
     public HttpResponse( HttpHeaderBlock headerBlock, byte[] body ) {
         super(headerBlock, body);
     }
+    public HttpResponse( HttpHeaderBlock headerBlock, File bodyFile ) {
+        super(headerBlock, bodyFile);
+    }
 
 
 
     public static HttpResponse newHttpResponse( HttpMessage msg ) {
+        if ( msg.bodyFile!=null ) return new HttpResponse( msg.headerBlock, msg.bodyFile );
         return new HttpResponse( msg.headerBlock, msg.body );
     }
 
@@ -0,0 +1,187 @@
+package http;
+import java.util.*;
+import jLib.*;
+
+
+
+/**
+ * HttpServer.handlers: the routes, each mapped to its handler, compiled into a trie.
+ * A request path resolves to the handler of the longest registered route that prefixes it, segment by segment,
+ * so "/app" serves "/app/x/y" unless "/app/x" is registered too. A route segment "{name}" or "*" matches any
+ * one path segment; literal segments win over those. put() and remove() rebuild the trie and swap it in atomically,
+ * so resolve() never locks, and it walks the path in place without allocating.
+ * Handlers of parameterized routes read their values with params(route,path).
+ */
+public class HttpRouter {
+
+
+
+    private final LinkedHashMap<String,HttpHandler> routes = new LinkedHashMap<>();
+    private volatile Node root = new Node();
+
+
+
+    private static final class Node {
+        String[] literals = new String[0];
+        Node[] literalNodes = new Node[0];
+        Node paramNode;
+        HttpHandler handler;
+
+        Node child( String segment ) {
+            if ( isParam(segment) ) {
+                if ( paramNode==null ) paramNode = new Node();
+                return paramNode;
+            }
+            for ( int i=0; i<literals.length; i++ ) {
+                if ( literals[i].equals(segment) ) return literalNodes[i];
+            }
+            literals = Arrays.copyOf( literals, literals.length+1 );
+            literalNodes = Arrays.copyOf( literalNodes, literalNodes.length+1 );
+            literals[ literals.length-1 ] = segment;
+            return literalNodes[ literalNodes.length-1 ] = new Node();
+        }
+
+        Node literal( String path, int from, int to ) {
+            int len = to - from;
+            for ( int i=0; i<literals.length; i++ ) {
+                String lit = literals[i];
+                if ( lit.length()==len && path.regionMatches( from, lit, 0, len ) ) return literalNodes[i];
+            }
+            return null;
+        }
+    }
+
+
+
+    private static boolean isParam( String segment ) {
+        return segment.equals("*") || ( segment.startsWith("{") && segment.endsWith("}") );
+    }
+
+
+
+    /**
+     * Returns the handler for a request path such as HttpHeaderBlock.getRequestPath() gives, or null if no
+     * route matches (not even "/").
+     */
+    public HttpHandler resolve( String path ) {
+        Node r = root;
+        if ( path==null ) return r.handler;
+        return match( r, path, 0 );
+    }
+
+
+
+    private static HttpHandler match( Node node, String path, int pos ) {
+        while ( pos<path.length() && path.charAt(pos)=='/' ) pos++;
+        if ( pos<path.length() ) {
+            int end = path.indexOf( '/', pos );
+            if ( end<0 ) end = path.length();
+            Node lit = node.literal( path, pos, end );
+            HttpHandler h = lit==null ? null : match( lit, path, end );
+            if ( h==null && node.paramNode!=null ) h = match( node.paramNode, path, end );
+            if ( h!=null ) return h;
+        }
+        return node.handler;
+    }
+
+
+
+    /**
+     * The values of route's "{name}" segments in path, e.g. params("/users/{id}","/users/7/photos") is {id=7}.
+     */
+    public static Map<String,String> params( String route, String path ) {
+        Map<String,String> params = new LinkedHashMap<>();
+        String[] routeParts = segments(route);
+        String[] pathParts = segments(path);
+        for ( int i=0; i<routeParts.length && i<pathParts.length; i++ ) {
+            String seg = routeParts[i];
+            if ( seg.startsWith("{") && seg.endsWith("}") ) params.put( seg.substring( 1, seg.length()-1 ), pathParts[i] );
+        }
+        return params;
+    }
+
+
+
+    private static String[] segments( String path ) {
+        if ( path==null ) return new String[0];
+        return Arrays.stream( path.split("/") ).filter( s -> !s.isEmpty() ).toArray( String[]::new );
+    }
+
+
+
+    /**
+     * Registers handler for route, replacing and returning any handler it had.
+     */
+    public synchronized HttpHandler put( String route, HttpHandler handler ) {
+        HttpHandler old = routes.put( route, handler );
+        rebuild();
+        return old;
+    }
+    public synchronized HttpHandler remove( String route ) {
+        HttpHandler old = routes.remove(route);
+        rebuild();
+        return old;
+    }
+    /** The handler registered for exactly this route; resolve() is what matches request paths. */
+    public synchronized HttpHandler get( String route ) { return routes.get(route); }
+    public synchronized boolean isEmpty() { return routes.isEmpty(); }
+    /** A snapshot of the routes, in registration order. */
+    public synchronized Map<String,HttpHandler> routes() {
+        return Collections.unmodifiableMap( new LinkedHashMap<>(routes) );
+    }
+
+
+
+    private void rebuild() { // NOTE: callers hold the monitor
+        Node newRoot = new Node();
+        for ( Map.Entry<String,HttpHandler> e : routes.entrySet() ) {
+            Node node = newRoot;
+            for ( String seg : segments( e.getKey() ) ) node = node.child(seg);
+            node.handler = e.getValue();
+        }
+        root = newRoot;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        HttpRouter router = new HttpRouter();
+        HttpHandler rootH = req -> null, app = req -> null, appX = req -> null, user = req -> null, any = req -> null;
+        LibTest.asrt( router.resolve("/x")==null );
+        router.put( "/", rootH );
+        router.put( "/app", app );
+        router.put( "/app/x", appX );
+        router.put( "/users/{id}/photos", user );
+        router.put( "/files/*", any );
+        LibTest.asrt( router.resolve("/")==rootH );
+        LibTest.asrt( router.resolve("/nothing/here")==rootH );
+        LibTest.asrt( router.resolve("/app")==app );
+        LibTest.asrt( router.resolve("/app/y/z")==app );
+        LibTest.asrt( router.resolve("/app/x/z")==appX );
+        LibTest.asrt( router.resolve("/appx")==rootH, "whole segments only" );
+        LibTest.asrt( router.resolve("/users/7/photos/1")==user );
+        LibTest.asrt( router.resolve("/users/7")==rootH );
+        LibTest.asrt( router.resolve("/files/a")==any );
+        LibTest.asrt( router.resolve("/files")==rootH );
+        LibTest.asrtEQ( Map.of( "id", "7" ), params( "/users/{id}/photos", "/users/7/photos/1" ) );
+
+        router.put( "/users/me/photos", app );
+        LibTest.asrt( router.resolve("/users/me/photos")==app, "literal wins" );
+        LibTest.asrt( router.resolve("/users/you/photos")==user, "falls back to parameter" );
+        router.remove("/app/x");
+        LibTest.asrt( router.resolve("/app/x/z")==app, "rebuilt on remove" );
+        LibTest.asrtEQ( List.of( "/", "/app", "/users/{id}/photos", "/files/*", "/users/me/photos" ),
+            new ArrayList<>( router.routes().keySet() ) );
+        try {
+            router.routes().clear();
+            LibTest.asrt( false, "routes() is read-only" );
+        } catch ( UnsupportedOperationException expected ) {}
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -1,11 +1,12 @@
 package http;
 import java.util.function.Predicate;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.net.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
 import jLib.*;
 
 
@@ -15,10 +16,16 @@ public class HttpServer {
 
 
     public static final String VER = "20250601a";
-    public final LinkedHashMap<String,HttpHandler> handlers = new LinkedHashMap<>();
+    public final HttpRouter handlers = new HttpRouter();
+    private static final HttpHandler NO_HANDLER = new HttpErrorHandler( 404, "no matching handler" );
     public final int port;
     public final boolean useHttps;
     public Predicate<HttpRequest> requestFilter = new SecurityGuard();
+    public Executor connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    public int maxConnections = 10000;
+    public HttpCompression compression = new HttpCompression(); // null sends every response as the handler made it
+    public AuditLog auditLog = new AuditLog( new File("./log"), 8192 ); // null disables the request/response audit trail
+    final AtomicInteger openConnections = new AtomicInteger();
     private String shutdownCode = null;
     private volatile boolean shouldShutdown = false;
 
@@ -50,20 +57,17 @@ public class HttpServer {
 
 
     public void start() {
-        try ( ServerSocket serverSocket = useHttps ? Lib.createServerSocket( port, true, null, null, null ) : new ServerSocket(port); ) {
+        try ( ServerSocket serverSocket = useHttps ? Lib.createServerSocket( port, true, null, null, null ) : plainServerSocket(port); ) {
             serverSocket.setSoTimeout(1000); // Set timeout so we can check shutdown flag
             while (!shouldShutdown) {
                 try {
-                    Socket clientSocket = serverSocket.accept();
-                    new Thread(() -> {
-                        try { handleClient(clientSocket); }
-                        catch (IOException e) { Log.log(e); }
-                    }).start();
+                    dispatch( serverSocket.accept() );
                 } catch (java.net.SocketTimeoutException e) {
                     // Timeout is expected, just continue to check shutdown flag
                 }
             }
             Log.log("Server shutdown requested, stopping...");
+            if ( auditLog!=null ) auditLog.flush();
         } catch (IOException e) {
             if (!shouldShutdown) { // Only log if not shutting down intentionally
                 Log.log(e);
@@ -73,15 +77,66 @@ public class HttpServer {
 
 
 
-    private HttpHandler findHandler( HttpHeaderBlock headerBlock ) {
-        String path = headerBlock.getRequestPath();
-        while (true) {
-            HttpHandler handler = handlers.get(path);
-            if (handler!=null) return handler;
-            if ( path.equals("/") ) break;
-            path = Lib.normalizePath( path+"/.." );
+    /**
+     * Plain HTTP listens through a ServerSocketChannel so that accepted sockets have a channel for FileResponse
+     * to transferTo; the sockets are still used in blocking mode.
+     */
+    private static ServerSocket plainServerSocket( int port ) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind( new InetSocketAddress(port) );
+            return serverChannel.socket();
+        } catch ( IOException e ) {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
+
+
+    /**
+     * A bounded pool of platform threads, for use as connectionExecutor when virtual threads are not wanted.
+     * Connections beyond threadCount are rejected with a 503 instead of queueing without limit.
+     */
+    public static ExecutorService platformThreadPool( int threadCount ) {
+        return new ThreadPoolExecutor( threadCount, threadCount, 60, TimeUnit.SECONDS, new SynchronousQueue<>() );
+    }
+
+
+
+    private void dispatch( Socket clientSocket ) {
+        if ( openConnections.incrementAndGet() > maxConnections ) {
+            openConnections.decrementAndGet();
+            rejectBusy(clientSocket);
+            return;
         }
-        return new HttpErrorHandler( 404, "no matching handler" );
+        try {
+            connectionExecutor.execute( () -> {
+                try { handleClient(clientSocket); }
+                catch ( IOException e ) { Log.log(e); }
+                finally { openConnections.decrementAndGet(); }
+            } );
+        } catch ( RejectedExecutionException e ) {
+            openConnections.decrementAndGet();
+            rejectBusy(clientSocket);
+        }
+    }
+
+
+
+    private static void rejectBusy( Socket clientSocket ) {
+        Log.logOnce( "HttpServer.rejectBusy", "connection limit reached; answering 503", 5000 );
+        try ( clientSocket ) {
+            clientSocket.setSoTimeout(1000);
+            new HttpErrorResponse( 503, "Service Unavailable" ).write( clientSocket.getOutputStream() );
+        } catch ( IOException ignore ) {}
+    }
+
+
+
+    private HttpHandler findHandler( HttpHeaderBlock headerBlock ) {
+        HttpHandler handler = handlers.resolve( headerBlock.getRequestPath() );
+        return handler!=null ? handler : NO_HANDLER;
     }
 
     public static String shutdownTimestamp() {
@@ -119,55 +174,33 @@ public class HttpServer {
             remoteAddr = Lib.getRemoteAddr(clientSocket).replaceAll( "[^a-zA-Z0-9]", "-" );
             rawSockInp = clientSocket.getInputStream();
             rawSockOut = clientSocket.getOutputStream();
-            sockInp = rawSockInp;
-            sockOut = rawSockOut;
+            sockInp = new BufferedInputStream(rawSockInp);
+            sockOut = clientSocket.getChannel()!=null
+                ? new SocketChannelOutputStream( clientSocket.getChannel(), rawSockOut )
+                : rawSockOut;
             while (! clientSocket.isClosed() ) {
-                String requestId = Lib.timeStamp().replaceAll( "[^0-9]", "" );
                 Result<HttpHeaderBlock,Exception> headerResult = HttpHeaderBlock.readFrom(sockInp);
                 if (! headerResult.isOk() ) return;
                 HttpHeaderBlock headerBlock = headerResult.ok();
-
-                // Check for shutdown request
-                if ( shouldShutDown(headerBlock) ) {
-                    shouldShutdown = true;
-                    HttpResponse shutdownResponse = new HttpResponse(
-                        new HttpHeaderBlock( "HTTP/1.1 200 OK", new LinkedHashMap<>() ),
-                        "Server shutting down".getBytes()
-                    );
-                    logResponse( requestId, shutdownResponse );
-                    shutdownResponse.write(sockOut);
-                    return;
-                } else if ( shutdownCode != null && headerBlock.firstLine != null && headerBlock.firstLine.contains(shutdownCode) ) {
-                    // Shutdown code detected but timestamp validation failed
-                    HttpResponse response = new HttpErrorResponse( 403, "Invalid shutdown request" );
-                    logResponse( requestId, response );
-                    response.write(sockOut);
-                    return;
-                }
-                HttpHandler foundHandler = findHandler(headerBlock);
-                if (foundHandler==null) foundHandler = new HttpErrorHandler( 404, "no matching handler" );
                 Result<HttpMessage,Exception> msgResult = HttpMessage.readHttpMessage(headerBlock,sockInp);
                 if (! msgResult.isOk() ) {
                     Log.log( msgResult.err() );
                     return;
                 }
                 HttpRequest req = HttpRequest.newHttpRequest( msgResult.ok() );
-                Log.log( requestId + " " + remoteAddr + " " + headerBlock.firstLine );
-                logRequest( requestId, req );
-                if ( requestFilter != null && ! requestFilter.test(req) ) {
-                    HttpResponse response = new HttpErrorResponse( 403, "Forbidden" );
-                    logResponse( requestId, response );
-                    response.write(sockOut);
-                    return;
+                HttpResponse response;
+                Result<Long,Exception> writeResult;
+                try {
+                    response = respond( req, remoteAddr );
+                    writeResult = response.write(sockOut);
+                } finally {
+                    req.discardBody();
                 }
-                HttpResponse response = foundHandler.handle(req);
-                logResponse( requestId, response );
-                Result<Long,Exception> writeResult = response.write(sockOut);
                 if (! writeResult.isOk() ) {
                     Log.log( writeResult.err() );
                     return;
                 }
-                if ( "close".equalsIgnoreCase( headerBlock.headers.get("Connection") ) ) break;
+                if ( closesConnection( headerBlock, response ) ) break;
             }
         } catch ( Throwable t ) {
             Log.log(t);
@@ -180,48 +213,59 @@ public class HttpServer {
 
 
 
-    private void logRequest( String requestId, HttpRequest request ) {
-        try {
-            String filename = "./log/" + requestId + ".log";
-            StringBuilder content = new StringBuilder();
-            content.append( "=== REQUEST ===\n" );
-            content.append( "Time: " ).append( Lib.timeStamp() ).append( "\n" );
-            content.append( request.headerBlock.firstLine ).append( "\n" );
-            for ( Map.Entry<String,String> header : request.headerBlock.headers.entrySet() ) {
-                content.append( header.getKey() ).append( ": " ).append( header.getValue() ).append( "\n" );
-            }
-            content.append( "\n" );
-            if ( request.body!=null && request.body.length>0 ) {
-                content.append( new String( request.body, StandardCharsets.UTF_8 ) );
+    /**
+     * Everything that happens to one complete request, whichever engine read it off the wire:
+     * shutdown check, requestFilter, handler dispatch, logging and compression.
+     * Responses that must end the connection carry "Connection: close".
+     */
+    HttpResponse respond( HttpRequest req, String remoteAddr ) {
+        String requestId = Lib.timeStamp().replaceAll( "[^0-9]", "" );
+        HttpHeaderBlock headerBlock = req.headerBlock;
+        HttpResponse response;
+        if ( shouldShutDown(headerBlock) ) {
+            shouldShutdown = true;
+            response = closingResponse( 200, "OK", "Server shutting down" );
+        } else if ( shutdownCode != null && headerBlock.firstLine != null && headerBlock.firstLine.contains(shutdownCode) ) {
+            response = closingResponse( 403, "Forbidden", "Invalid shutdown request" );
+        } else {
+            Log.log( requestId + " " + remoteAddr + " " + headerBlock.firstLine );
+            logRequest( requestId, req );
+            if ( requestFilter != null && ! requestFilter.test(req) ) {
+                response = closingResponse( 403, "Forbidden", "Forbidden" );
+            } else {
+                response = findHandler(headerBlock).handle(req);
             }
-            File logFile = new File(filename);
-            logFile.delete();
-            Lib.append2file( logFile, content.toString() );
-        } catch ( Exception e ) {
-            Log.log( "Failed to log request: " + e.getMessage() );
         }
+        logResponse( requestId, response );
+        if ( compression!=null ) response = compression.apply( headerBlock, response );
+        return response;
+    }
+
+
+
+    private static HttpResponse closingResponse( int statusCode, String statusText, String body ) {
+        return new HttpResponse(
+            new HttpHeaderBlock( statusCode, statusText, Lib.mapOf("Connection","close") ), body.getBytes()
+        );
+    }
+
+
+
+    static boolean closesConnection( HttpHeaderBlock requestHeaders, HttpResponse response ) {
+        if ( "close".equalsIgnoreCase( requestHeaders.headers.get("Connection") ) ) return true;
+        return "close".equalsIgnoreCase( response.headerBlock.headers.get("Connection") );
+    }
+
+
+
+    private void logRequest( String requestId, HttpRequest request ) {
+        if ( auditLog!=null ) auditLog.logRequest( requestId, request );
     }
 
 
 
     private void logResponse( String requestId, HttpResponse response ) {
-        try {
-            String filename = "./log/" + requestId + ".log";
-            StringBuilder content = new StringBuilder();
-            content.append( "\n\n=== RESPONSE ===\n" );
-            content.append( "Time: " ).append( Lib.timeStamp() ).append( "\n" );
-            content.append( response.headerBlock.firstLine ).append( "\n" );
-            for ( Map.Entry<String,String> header : response.headerBlock.headers.entrySet() ) {
-                content.append( header.getKey() ).append( ": " ).append( header.getValue() ).append( "\n" );
-            }
-            content.append( "\n" );
-            if ( response.body!=null && response.body.length>0 ) {
-                content.append( new String( response.body, StandardCharsets.UTF_8 ) );
-            }
-            Lib.append2file( new File(filename), content.toString() );
-        } catch ( Exception e ) {
-            Log.log( "Failed to log response: " + e.getMessage() );
-        }
+        if ( auditLog!=null ) auditLog.logResponse( requestId, response );
     }
 
 
@@ -320,18 +364,19 @@ public class HttpServer {
         String requestId = Lib.timeStamp().replaceAll( "[^0-9]", "" );
         server.logRequest( requestId, request );
         server.logResponse( requestId, response );
+        server.auditLog.close();
 
-        // Verify log file exists and contains expected content
-        File logFile = new File( "./log/" + requestId + ".log" );
-        LibTest.asrt( logFile.exists(), "Log file should exist" );
+        // Verify the audit segment exists and contains expected content
+        File logFile = server.auditLog.currentSegment();
+        LibTest.asrt( logFile!=null && logFile.exists(), "Log file should exist" );
 
         String logContent = LibFile.file2string( logFile );
-        LibTest.asrt( logContent.contains( "=== REQUEST ===" ), "Should contain request header" );
+        LibTest.asrt( logContent.contains( "=== REQUEST "+requestId+" ===" ), "Should contain request header" );
         LibTest.asrt( logContent.contains( "GET /test HTTP/1.1" ), "Should contain request line" );
         LibTest.asrt( logContent.contains( "Host: example.com" ), "Should contain Host header" );
         LibTest.asrt( logContent.contains( "Test body" ), "Should contain request body" );
 
-        LibTest.asrt( logContent.contains( "=== RESPONSE ===" ), "Should contain response header" );
+        LibTest.asrt( logContent.contains( "=== RESPONSE "+requestId+" ===" ), "Should contain response header" );
         LibTest.asrt( logContent.contains( "HTTP/1.1 200 OK" ), "Should contain response line" );
         LibTest.asrt( logContent.contains( "Response body" ), "Should contain response body" );
 
@@ -341,6 +386,31 @@ public class HttpServer {
         return true;
     }
 
+    public static boolean connectionLimit_TEST_() throws Exception {
+        int port = 19181;
+        HttpServer server = new HttpServer( port, false );
+        server.maxConnections = 1;
+        server.handlers.put( "/", req -> new HttpResponse( new HttpHeaderBlock( 200, "OK", null ), "ok".getBytes() ) );
+        Thread serverThread = new Thread( server::start );
+        serverThread.start();
+        Socket first = null;
+        while ( first==null ) {
+            try { first = new Socket( "localhost", port ); }
+            catch ( IOException e ) { Thread.sleep(10); }
+        }
+        try ( Socket a = first; Socket b = new Socket( "localhost", port ) ) {
+            a.getOutputStream().write( "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes() );
+            Result<HttpMessage,Exception> okRes = HttpMessage.readHttpMessage( a.getInputStream() );
+            LibTest.asrt( okRes.isOk() && okRes.ok().headerBlock.firstLine.contains("200"), "first connection served" );
+            Result<HttpMessage,Exception> busyRes = HttpMessage.readHttpMessage( b.getInputStream() );
+            LibTest.asrt( busyRes.isOk() && busyRes.ok().headerBlock.firstLine.contains("503"), "second rejected" );
+        } finally {
+            server.shouldShutdown = true;
+            serverThread.join();
+        }
+        return true;
+    }
+
     public static void main( String[] args ) throws Exception { LibTest.testClass(); }
 
 
@@ -0,0 +1,551 @@
+package http;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import jLib.*;
+
+
+
+/**
+ * A non-blocking HttpServer engine: one selector thread owns every socket, and only complete requests are handed
+ * to connectionExecutor. An idle keep-alive connection costs a selection key instead of a parked thread, which is
+ * what long-poll clients need. Handlers, requestFilter and logging are shared with HttpServer. Plain HTTP only.
+ */
+public class NioHttpServer extends HttpServer {
+
+
+
+    public int maxBodyBytes = 64*1024*1024;
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+
+
+    public NioHttpServer( int port ) {
+        super( port, false );
+    }
+
+
+
+    @Override
+    public void start() {
+        try (
+            Selector sel = Selector.open();
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        ) {
+            selector = sel;
+            serverChannel.bind( new InetSocketAddress(port) );
+            serverChannel.configureBlocking(false);
+            serverChannel.register( sel, SelectionKey.OP_ACCEPT );
+            while (! isShutdown() ) {
+                sel.select(1000);
+                for ( Runnable task; (task=selectorTasks.poll())!=null; ) task.run();
+                Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+                while ( it.hasNext() ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (! key.isValid() ) continue;
+                        if ( key.isAcceptable() ) accept(serverChannel);
+                        else if ( key.isReadable() ) ((Conn)key.attachment()).onReadable();
+                        else if ( key.isWritable() ) ((Conn)key.attachment()).onWritable();
+                    } catch ( IOException | CancelledKeyException e ) {
+                        if ( key.attachment() instanceof Conn conn ) conn.close();
+                    }
+                }
+            }
+            for ( SelectionKey key : sel.keys() ) {
+                if ( key.attachment() instanceof Conn conn ) conn.close();
+            }
+            Log.log("Server shutdown requested, stopping...");
+            if ( auditLog!=null ) auditLog.flush();
+        } catch ( IOException e ) {
+            if (! isShutdown() ) Log.log(e);
+        }
+    }
+
+
+
+    private void accept( ServerSocketChannel serverChannel ) throws IOException {
+        SocketChannel ch = serverChannel.accept();
+        if ( ch==null ) return;
+        ch.configureBlocking(false);
+        if ( openConnections.incrementAndGet() > maxConnections ) {
+            openConnections.decrementAndGet();
+            Log.logOnce( "NioHttpServer.accept", "connection limit reached; answering 503", 5000 );
+            try ( ch ) { ch.write( ByteBuffer.wrap( toBytes( new HttpErrorResponse( 503, "Service Unavailable" ) ) ) ); }
+            return;
+        }
+        new Conn(ch);
+    }
+
+
+
+    private void onSelector( Runnable task ) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+
+
+    private static byte[] toBytes( HttpResponse response ) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Result<Long,Exception> res = response.write(bout);
+        if (! res.isOk() ) throw new IOException( res.err() );
+        return bout.toByteArray();
+    }
+
+
+
+    /**
+     * One client connection. Bytes accumulate in inBuf until a full request is present; the key's interest is
+     * then cleared while a worker runs the handler, so a connection never has two requests in flight.
+     */
+    private class Conn {
+        final SocketChannel ch;
+        final SelectionKey key;
+        final String remoteAddr;
+        ByteBuffer inBuf = ByteBuffer.allocate(4096);
+        ByteBuffer outBuf = null;
+        FileChannel outFile = null; // while a FileResponse is being sent with transferTo
+        long outFilePos = 0;
+        long outFileEnd = 0;
+        Runnable afterWrite = null;
+        CompletableFuture<Void> pendingWrite = null;
+        HttpHeaderBlock headerBlock = null;
+        int scanFrom = 0;
+        int bodyStart = 0;
+        int bodyLen = 0;
+        File spoolFile = null; // bodies over HttpMessage.maxInMemoryBody go here as they arrive
+        FileChannel spool = null;
+        long spoolRemaining = 0;
+        boolean closed = false;
+
+        Conn( SocketChannel ch ) throws IOException {
+            this.ch = ch;
+            this.remoteAddr = Lib.getRemoteAddr( ch.socket() ).replaceAll( "[^a-zA-Z0-9]", "-" );
+            this.key = ch.register( selector, SelectionKey.OP_READ, this );
+        }
+
+        void onReadable() throws IOException {
+            if (! inBuf.hasRemaining() ) inBuf = grow( inBuf, inBuf.capacity()*2 );
+            if ( ch.read(inBuf)<0 ) throw new EOFException();
+            if ( spool!=null ) drainToSpool(0);
+            else parse();
+        }
+
+        void startSpool() throws IOException {
+            spoolFile = HttpMessage.newSpoolFile();
+            spool = FileChannel.open( spoolFile.toPath(), StandardOpenOption.WRITE );
+            spoolRemaining = bodyLen;
+            drainToSpool(bodyStart);
+        }
+
+        void drainToSpool( int from ) throws IOException {
+            ByteBuffer chunk = ByteBuffer.wrap( inBuf.array(), from, (int)Math.min( spoolRemaining, inBuf.position()-from ) );
+            while ( chunk.hasRemaining() ) spoolRemaining -= spool.write(chunk);
+            inBuf.flip().position( chunk.position() );
+            inBuf.compact();
+            if ( spoolRemaining>0 ) return;
+            spool.close();
+            spool = null;
+            HttpRequest req = new HttpRequest( headerBlock, spoolFile );
+            spoolFile = null;
+            dispatch(req);
+        }
+
+        void parse() throws IOException {
+            if ( headerBlock==null ) {
+                int end = HttpHeaderBlock.headerEnd( inBuf.array(), scanFrom, inBuf.position() );
+                if ( end<0 ) {
+                    if ( inBuf.position()>HttpHeaderBlock.maxHeaderBytes ) fail( 431, "Request Header Fields Too Large" );
+                    scanFrom = Math.max( 0, inBuf.position()-3 );
+                    return;
+                }
+                Result<HttpHeaderBlock,Exception> headerResult = HttpHeaderBlock.parseFrom( inBuf.array(), 0, end );
+                if (! headerResult.isOk() ) {
+                    fail( 400, "Bad Request" );
+                    return;
+                }
+                bodyStart = end;
+                if ( headerResult.ok().isChunked() ) {
+                    headerBlock = headerResult.ok();
+                    bodyLen = -1;
+                } else {
+                    Long contentLength = headerResult.ok().getContentLength();
+                    if ( contentLength==null ) contentLength = 0L;
+                    if ( contentLength<0 || contentLength>maxBodyBytes ) {
+                        fail( 413, "Payload Too Large" );
+                        return;
+                    }
+                    headerBlock = headerResult.ok();
+                    bodyLen = contentLength.intValue();
+                    if ( bodyLen>HttpMessage.maxInMemoryBody ) {
+                        startSpool();
+                        return;
+                    }
+                    if ( inBuf.capacity()<bodyStart+bodyLen ) inBuf = grow( inBuf, bodyStart+bodyLen );
+                }
+            }
+            if ( bodyLen<0 ) {
+                parseChunked();
+                return;
+            }
+            if ( inBuf.position()<bodyStart+bodyLen ) return;
+            HttpRequest req = new HttpRequest(
+                headerBlock, Arrays.copyOfRange( inBuf.array(), bodyStart, bodyStart+bodyLen )
+            );
+            inBuf.flip().position( bodyStart+bodyLen );
+            inBuf.compact();
+            dispatch(req);
+        }
+
+        /**
+         * A chunked body is buffered until its terminating chunk arrives, within maxBodyBytes,
+         * then decoded by HttpMessage like any other.
+         */
+        void parseChunked() throws IOException {
+            int end = HttpMessage.chunkedEnd( inBuf.array(), bodyStart, inBuf.position() );
+            if ( end<0 ) {
+                if ( inBuf.position()-bodyStart>maxBodyBytes ) fail( 413, "Payload Too Large" );
+                return;
+            }
+            InputStream body = new ByteArrayInputStream( inBuf.array(), bodyStart, end-bodyStart );
+            Result<HttpMessage,Exception> msg = HttpMessage.readHttpMessage( headerBlock, body );
+            if (! msg.isOk() ) {
+                fail( 400, "Bad Request" );
+                return;
+            }
+            inBuf.flip().position(end);
+            inBuf.compact();
+            dispatch( HttpRequest.newHttpRequest( msg.ok() ) );
+        }
+
+        void dispatch( HttpRequest req ) {
+            headerBlock = null;
+            scanFrom = 0;
+            key.interestOps(0);
+            try {
+                connectionExecutor.execute( () -> serve(req) );
+            } catch ( RejectedExecutionException e ) { // NOTE: a bounded executor is full; the selector must live on
+                req.discardBody();
+                Log.logOnce( "NioHttpServer.dispatch", "executor busy; answering 503", 5000 );
+                try { fail( 503, "Service Unavailable" ); }
+                catch ( IOException ignore ) { close(); }
+            }
+        }
+
+        void serve( HttpRequest req ) {
+            try {
+                HttpResponse response = respond( req, remoteAddr );
+                boolean close = closesConnection( req.headerBlock, response );
+                ConnOutputStream out = new ConnOutputStream();
+                Result<Long,Exception> res = response.write(out);
+                if (! res.isOk() ) throw res.err();
+                out.finish(close);
+            } catch ( Throwable t ) {
+                Log.log(t);
+                onSelector( this::close );
+            } finally {
+                req.discardBody();
+            }
+        }
+
+        void fail( int statusCode, String statusText ) throws IOException {
+            startWrite( ByteBuffer.wrap( toBytes( new HttpErrorResponse( statusCode, statusText ) ) ), this::close );
+        }
+
+        void startWrite( ByteBuffer out, Runnable afterWrite ) {
+            if ( closed ) return;
+            outBuf = out;
+            this.afterWrite = afterWrite;
+            try { onWritable(); }
+            catch ( IOException | CancelledKeyException e ) { close(); }
+        }
+
+        void startTransfer( FileChannel file, long position, long count, Runnable afterWrite ) {
+            if ( closed ) return;
+            outFile = file;
+            outFilePos = position;
+            outFileEnd = position + count;
+            this.afterWrite = afterWrite;
+            try { onWritable(); }
+            catch ( IOException | CancelledKeyException e ) { close(); }
+        }
+
+        void onWritable() throws IOException {
+            if ( outFile!=null ) {
+                long n = outFile.transferTo( outFilePos, outFileEnd-outFilePos, ch );
+                if ( n<=0 && outFilePos>=outFile.size() ) throw new EOFException("file shrank while sending");
+                outFilePos += n;
+                if ( outFilePos<outFileEnd ) {
+                    key.interestOps( SelectionKey.OP_WRITE );
+                    return;
+                }
+                outFile = null;
+            } else {
+                ch.write(outBuf);
+                if ( outBuf.hasRemaining() ) {
+                    key.interestOps( SelectionKey.OP_WRITE );
+                    return;
+                }
+                outBuf = null;
+            }
+            key.interestOps(0);
+            Runnable after = afterWrite;
+            afterWrite = null;
+            after.run();
+        }
+
+        void endResponse( boolean close ) {
+            if ( close ) {
+                close();
+                return;
+            }
+            key.interestOps( SelectionKey.OP_READ );
+            try { if ( inBuf.position()>0 ) parse(); } // NOTE: a pipelined request may already be buffered
+            catch ( IOException e ) { close(); }
+        }
+
+        /**
+         * What a worker writes a response into. Output is handed to the selector thread a buffer at a time, and
+         * the worker waits for each buffer to drain, so a streaming response never gets ahead of the client.
+         */
+        class ConnOutputStream extends OutputStream implements FileTransferTarget {
+            byte[] buf = new byte[16*1024];
+            int count = 0;
+
+            @Override
+            public void write( int b ) throws IOException {
+                if ( count==buf.length ) send( false, false );
+                buf[count++] = (byte)b;
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len ) throws IOException {
+                while ( len>0 ) {
+                    if ( count==buf.length ) send( false, false );
+                    int n = Math.min( len, buf.length-count );
+                    System.arraycopy( b, off, buf, count, n );
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if ( count>0 ) send( false, false );
+            }
+
+            void finish( boolean close ) throws IOException {
+                send( true, close );
+            }
+
+            @Override
+            public void transferFrom( FileChannel file, long position, long count ) throws IOException {
+                flush();
+                awaitOnSelector( after -> startTransfer( file, position, count, after ) );
+            }
+
+            @Override
+            public void write( ByteBuffer out ) throws IOException {
+                flush();
+                awaitOnSelector( after -> startWrite( out, after ) );
+            }
+
+            private void send( boolean last, boolean close ) throws IOException {
+                ByteBuffer out = ByteBuffer.wrap( buf, 0, count );
+                count = 0; // NOTE: buf is reused only after the selector has drained it
+                if ( last ) {
+                    onSelector( () -> startWrite( out, () -> endResponse(close) ) );
+                    return;
+                }
+                awaitOnSelector( after -> startWrite( out, after ) );
+            }
+
+            /**
+             * Runs a write on the selector thread and blocks this worker until the selector reports it done.
+             */
+            private void awaitOnSelector( java.util.function.Consumer<Runnable> startWriting ) throws IOException {
+                CompletableFuture<Void> drained = new CompletableFuture<>();
+                onSelector( () -> {
+                    if ( closed ) {
+                        drained.completeExceptionally( new IOException("connection closed") );
+                        return;
+                    }
+                    pendingWrite = drained;
+                    startWriting.accept( () -> {
+                        pendingWrite = null;
+                        drained.complete(null);
+                    } );
+                } );
+                try { drained.get(); }
+                catch ( InterruptedException e ) { throw new InterruptedIOException(); }
+                catch ( ExecutionException e ) { throw new IOException( e.getCause() ); }
+            }
+        }
+
+        void close() {
+            if ( closed ) return;
+            closed = true;
+            openConnections.decrementAndGet();
+            key.cancel();
+            try { ch.close(); } catch ( IOException ignore ) {}
+            if ( spool!=null ) {
+                try { spool.close(); } catch ( IOException ignore ) {}
+                spoolFile.delete();
+            }
+            if ( pendingWrite!=null ) pendingWrite.completeExceptionally( new IOException("connection closed") );
+        }
+    }
+
+
+
+    private static ByteBuffer grow( ByteBuffer buf, int minCapacity ) {
+        ByteBuffer bigger = ByteBuffer.allocate( Math.max( minCapacity, buf.capacity()*2 ) );
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean pipelined_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        int port = 19182;
+        NioHttpServer server = new NioHttpServer(port);
+        server.handlers.put( "/", req -> {
+            String body;
+            try { body = new String( req.bodyBytes() ); }
+            catch ( IOException e ) { body = e.toString(); }
+            return new HttpResponse(
+                new HttpHeaderBlock( 200, "OK", null ), ( req.headerBlock.getMethod()+":"+body ).getBytes()
+            );
+        } );
+        server.handlers.put( "/stream", req -> new ChunkedResponse( new HttpHeaderBlock( 200, "OK", null ), out -> {
+            for ( int i=0; i<100; i++ ) out.write( new byte[1024] );
+        } ) );
+        Thread serverThread = new Thread( server::start );
+        serverThread.start();
+        Socket sock = null;
+        while ( sock==null ) {
+            try { sock = new Socket( "localhost", port ); }
+            catch ( IOException e ) { Thread.sleep(10); }
+        }
+        try ( Socket s = sock ) {
+            String twoRequests = (
+                "POST /a HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\nContent-Type: text/plain\r\n\r\nhello"
+                + "GET /b HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            );
+            s.getOutputStream().write( twoRequests.getBytes() );
+            InputStream inp = s.getInputStream();
+            Result<HttpMessage,Exception> first = HttpMessage.readHttpMessage(inp);
+            LibTest.asrt( first.isOk(), "first response" );
+            LibTest.asrtEQ( "POST:hello", new String( first.ok().body ) );
+            Result<HttpMessage,Exception> second = HttpMessage.readHttpMessage(inp);
+            LibTest.asrt( second.isOk(), "second response" );
+            LibTest.asrtEQ( "GET:", new String( second.ok().body ) );
+            long oldMax = HttpMessage.maxInMemoryBody;
+            HttpMessage.maxInMemoryBody = 3;
+            try { // spooled body, followed by a pipelined request
+                s.getOutputStream().write( (
+                    "PUT /c HTTP/1.1\r\nContent-Length: 6\r\n\r\nspool!"
+                    + "GET /d HTTP/1.1\r\n\r\n"
+                ).getBytes() );
+                Result<HttpMessage,Exception> third = HttpMessage.readHttpMessage(inp);
+                LibTest.asrt( third.isOk(), "spooled response" );
+                LibTest.asrtEQ( "PUT:spool!", new String( third.ok().bodyBytes() ) );
+                Result<HttpMessage,Exception> fourth = HttpMessage.readHttpMessage(inp);
+                LibTest.asrt( fourth.isOk(), "response after spooled request" );
+                LibTest.asrtEQ( "GET:", new String( fourth.ok().bodyBytes() ) );
+            } finally {
+                HttpMessage.maxInMemoryBody = oldMax;
+            }
+            s.getOutputStream().write( ( // chunked upload, then a streamed response larger than one write buffer
+                "POST /e HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n2\r\nde\r\n0\r\n\r\n"
+                + "GET /stream HTTP/1.1\r\n\r\n"
+            ).getBytes() );
+            Result<HttpMessage,Exception> chunkedUpload = HttpMessage.readHttpMessage(inp);
+            LibTest.asrt( chunkedUpload.isOk(), "chunked upload response" );
+            LibTest.asrtEQ( "POST:abcde", new String( chunkedUpload.ok().body ) );
+            Result<HttpMessage,Exception> streamed = HttpMessage.readHttpMessage(inp);
+            LibTest.asrt( streamed.isOk(), "streamed response" );
+            LibTest.asrtEQ( 100*1024L, streamed.ok().bodyLength );
+        } finally {
+            server.setShutdownCode("STOP");
+            try ( Socket s = new Socket( "localhost", port ) ) {
+                s.getOutputStream().write( ( "GET /STOP"+shutdownTimestamp()+" HTTP/1.1\r\n\r\n" ).getBytes() );
+                HttpMessage.readHttpMessage( s.getInputStream() );
+            }
+            serverThread.join();
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean busy_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        int port = 19184;
+        NioHttpServer server = new NioHttpServer(port);
+        ExecutorService pool = platformThreadPool(1);
+        server.connectionExecutor = pool;
+        CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+        server.handlers.put( "/", req -> {
+            if ( req.headerBlock.getRequestPath().startsWith("/slow") ) {
+                entered.countDown();
+                try { release.await(); } catch ( InterruptedException e ) { Thread.currentThread().interrupt(); }
+            }
+            return new HttpResponse( new HttpHeaderBlock( 200, "OK", null ), "ok".getBytes() );
+        } );
+        Thread serverThread = new Thread( server::start );
+        serverThread.start();
+        Socket sock = null;
+        while ( sock==null ) {
+            try { sock = new Socket( "localhost", port ); }
+            catch ( IOException e ) { Thread.sleep(10); }
+        }
+        try ( Socket slow = sock ) {
+            slow.getOutputStream().write( "GET /slow HTTP/1.1\r\n\r\n".getBytes() );
+            entered.await(); // NOTE: the pool's only thread is taken
+            try ( Socket s = new Socket( "localhost", port ) ) {
+                s.getOutputStream().write( "GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n".getBytes() );
+                Result<HttpMessage,Exception> busy = HttpMessage.readHttpMessage( s.getInputStream() );
+                LibTest.asrt( busy.isOk(), "busy response" );
+                LibTest.asrt( busy.ok().headerBlock.firstLine.contains("503"), "rejected" );
+                LibTest.asrtEQ( -1, s.getInputStream().read(), "then closed" );
+            }
+            release.countDown();
+            Result<HttpMessage,Exception> done = HttpMessage.readHttpMessage( slow.getInputStream() );
+            LibTest.asrt( done.isOk(), "the slow request still finishes" );
+            LibTest.asrtEQ( "ok", new String( done.ok().body ) );
+            try ( Socket s = new Socket( "localhost", port ) ) { // NOTE: the selector survived the rejection
+                s.getOutputStream().write( "GET /c HTTP/1.1\r\n\r\n".getBytes() );
+                Result<HttpMessage,Exception> later = HttpMessage.readHttpMessage( s.getInputStream() );
+                LibTest.asrt( later.isOk(), "served after the rejection" );
+                LibTest.asrt( later.ok().headerBlock.firstLine.contains("200"), "ok" );
+            }
+        } finally {
+            release.countDown();
+            server.setShutdownCode("STOP");
+            try ( Socket s = new Socket( "localhost", port ) ) {
+                s.getOutputStream().write( ( "GET /STOP"+shutdownTimestamp()+" HTTP/1.1\r\n\r\n" ).getBytes() );
+                HttpMessage.readHttpMessage( s.getInputStream() );
+            }
+            serverThread.join();
+            pool.shutdown();
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -0,0 +1,40 @@
+package http;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+
+/**
+ * The blocking engine's FileTransferTarget: a socket stream that also hands its SocketChannel to transferTo.
+ */
+class SocketChannelOutputStream extends FilterOutputStream implements FileTransferTarget {
+    private final SocketChannel channel;
+
+    SocketChannelOutputStream( SocketChannel channel, OutputStream out ) {
+        super(out);
+        this.channel = channel;
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+        out.write( b, off, len );
+    }
+
+    @Override
+    public void transferFrom( FileChannel file, long position, long count ) throws IOException {
+        out.flush();
+        long end = position + count;
+        while ( position<end ) {
+            long n = file.transferTo( position, end-position, channel );
+            if ( n<=0 && position>=file.size() ) throw new EOFException("file shrank while sending");
+            position += n;
+        }
+    }
+
+    @Override
+    public void write( ByteBuffer buf ) throws IOException {
+        out.flush();
+        while ( buf.hasRemaining() ) channel.write(buf);
+    }
+}
@@ -1,5 +1,7 @@
 package jLib;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.math.*;
 
@@ -7,6 +9,26 @@ public class JsonDecoder {
 
     public static Object decode( Object o ) {
         if (o==null) return null;
+        if ( o instanceof byte[] bytes ) {
+            try { return Utf8JsonDecoder.decode( bytes, 0, bytes.length ); }
+            catch ( Utf8JsonDecoder.Lenient e ) {} // NOTE: not strict JSON; the Reader parser below decides
+        }
+        if ( o instanceof ByteBuffer bb ) {
+            if ( bb.hasArray() ) {
+                try { return Utf8JsonDecoder.decode( bb.array(), bb.arrayOffset()+bb.position(), bb.remaining() ); }
+                catch ( Utf8JsonDecoder.Lenient e ) {}
+            }
+            byte[] bytes = new byte[ bb.remaining() ];
+            bb.duplicate().get(bytes);
+            return decode(bytes);
+        }
+        if ( o instanceof String s ) {
+            if (! hasLoneSurrogate(s) ) { // NOTE: getBytes() would turn one into '?'
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                try { return Utf8JsonDecoder.decode( bytes, 0, bytes.length ); }
+                catch ( Utf8JsonDecoder.Lenient e ) {}
+            }
+        }
         if ( o instanceof Reader r ) {
             JsonDecoder decoder = new JsonDecoder(r);
             try {
@@ -29,6 +51,16 @@ public class JsonDecoder {
         }
     }
 
+    private static boolean hasLoneSurrogate( String s ) {
+        for ( int i=0, n=s.length(); i<n; i++ ) {
+            char c = s.charAt(i);
+            if (! Character.isSurrogate(c) ) continue;
+            if ( Character.isHighSurrogate(c) && i+1<n && Character.isLowSurrogate( s.charAt(i+1) ) ) i++;
+            else return true;
+        }
+        return false;
+    }
+
     public static <K,V> Map<K,V> decodeMap( Object o ) {
         @SuppressWarnings({"unchecked","rawtypes"})
         Map<K,V> result = (Map) decode(o);
@@ -341,6 +373,19 @@ public class JsonDecoder {
         }
     }
 
+    /**
+     * The next character after any whitespace, without consuming it, or -1 at the end. With consume() this lets
+     * a caller walk a large document's objects and arrays itself and decode() only the values inside them.
+     */
+    public int peekNext() throws IOException {
+        decodeWhitespace();
+        return peek();
+    }
+    public boolean consume( char c ) throws IOException {
+        decodeWhitespace();
+        return expect(c) >= 0;
+    }
+
     public String decodeWhitespace() throws IOException {
         // whitespace might include a comment
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,270 @@
+package jLib;
+import java.io.*;
+import java.util.*;
+
+
+
+/**
+ * Reads JSON one token at a time instead of building the whole tree, for documents too big to hold or when only a
+ * few fields matter. Scalars are decoded by JsonDecoder, so the same lenient JSON is accepted; objects and arrays
+ * are only materialized when readValue() is asked for one.
+ * - nextToken() steps through START_OBJECT, NAME, VALUE, END_OBJECT (and the array tokens) to END_DOCUMENT.
+ * - hasNext() says whether the current object or array has another member; skipValue() passes over the next one.
+ * - extract(path) walks straight to one value, e.g. extract( "choices", 0, "message", "content" ).
+ * Like JsonDecoder.decode(), it reads one top-level value and ignores whatever follows.
+ */
+public class JsonPullParser {
+    public enum Token { START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, VALUE, END_DOCUMENT }
+    private static final class Frame {
+        final boolean object;
+        int count = 0;
+        boolean afterName = false;
+        boolean separated = true; // NOTE: whether the comma before the next member has been read
+        Object at; // NOTE: the current member's name, or element's index
+        Frame( boolean object ) { this.object = object; }
+    }
+    private final JsonDecoder decoder;
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+    private boolean started = false;
+    private Token token;
+    private String name;
+    private Object value;
+
+
+
+    public JsonPullParser( Reader in ) { this.decoder = new JsonDecoder(in); }
+
+
+
+    public Token nextToken() throws IOException {
+        value = null;
+        Frame f = stack.peek();
+        if ( f==null ) {
+            if ( started ) return token = Token.END_DOCUMENT;
+            started = true;
+            return token = valueToken(true);
+        }
+        if ( f.afterName ) {
+            f.afterName = false;
+            return token = valueToken(false);
+        }
+        if ( atEnd(f) ) {
+            decoder.consume( f.object ? '}' : ']' );
+            stack.pop();
+            return token = f.object ? Token.END_OBJECT : Token.END_ARRAY;
+        }
+        f.separated = false;
+        if ( f.object ) {
+            Object key = decoder.decode();
+            name = key instanceof String s ? s : String.valueOf(key);
+            f.at = name;
+            f.count++;
+            f.afterName = true;
+            decoder.consume(':');
+            return token = Token.NAME;
+        }
+        f.at = f.count++;
+        return token = valueToken(false);
+    }
+    private Token valueToken( boolean topLevel ) throws IOException {
+        int c = decoder.peekNext();
+        if ( c<0 ) {
+            if ( topLevel ) return Token.END_DOCUMENT;
+            throw new IOException( "unexpected end of JSON" );
+        }
+        if ( c=='{' || c=='[' ) {
+            decoder.consume( (char)c );
+            stack.push( new Frame( c=='{' ) );
+            return c=='{' ? Token.START_OBJECT : Token.START_ARRAY;
+        }
+        value = decoder.decode();
+        return Token.VALUE;
+    }
+    private boolean atEnd( Frame f ) throws IOException {
+        if (! f.separated ) {
+            decoder.consume(',');
+            f.separated = true;
+        }
+        int c = decoder.peekNext();
+        if ( c<0 ) throw new IOException( "unexpected end of JSON" );
+        return c==( f.object ? '}' : ']' );
+    }
+
+
+
+    /** The last token nextToken() returned, or VALUE after readValue(). */
+    public Token token() { return token; }
+    /** The member name, after NAME. */
+    public String name() { return name; }
+    /** The decoded scalar (null for JSON null), after VALUE. */
+    public Object value() { return value; }
+    /** How many objects and arrays the parser is inside. */
+    public int depth() { return stack.size(); }
+    /**
+     * Names and indexes from the top-level value down to the current token; for START_OBJECT or START_ARRAY, the
+     * path of the container just entered.
+     */
+    public List<Object> path() {
+        List<Object> path = new ArrayList<>();
+        Iterator<Frame> it = stack.descendingIterator();
+        while ( it.hasNext() ) {
+            Object at = it.next().at;
+            if ( at!=null ) path.add(at); // NOTE: null in a container just entered
+        }
+        return path;
+    }
+
+
+
+    /**
+     * Whether the current object or array has another member, or, before the first token, whether there is a
+     * document at all.
+     */
+    public boolean hasNext() throws IOException {
+        Frame f = stack.peek();
+        if ( f==null ) return !started && decoder.peekNext()>=0;
+        if ( f.afterName ) return true;
+        return !atEnd(f);
+    }
+
+
+
+    /**
+     * Passes over the next value (after NAME, or the next element) or the next whole member of an object, reading
+     * through any objects and arrays in it without building them.
+     */
+    public void skipValue() throws IOException {
+        Frame f = stack.peek();
+        if ( f!=null && f.object && !f.afterName ) {
+            if ( nextToken()!=Token.NAME ) return; // NOTE: END_OBJECT; nothing left to skip
+        }
+        int depth = stack.size();
+        Token t = nextToken();
+        if ( t!=Token.START_OBJECT && t!=Token.START_ARRAY ) return;
+        while ( stack.size()>depth ) nextToken();
+    }
+
+
+
+    /**
+     * Decodes the next value (after NAME, or the next element) whole, as JsonDecoder.decode() would.
+     * @throws IllegalStateException in an object before its NAME, or when the container has no more members
+     */
+    public Object readValue() throws IOException {
+        Frame f = stack.peek();
+        if ( f==null ) {
+            if ( started ) return null;
+            started = true;
+        } else if ( f.afterName ) {
+            f.afterName = false;
+        } else {
+            if ( f.object ) throw new IllegalStateException( "at a name, not a value" );
+            if ( atEnd(f) ) throw new IllegalStateException( "no elements left" );
+            f.separated = false;
+            f.at = f.count++;
+        }
+        token = Token.VALUE;
+        return value = decoder.decode();
+    }
+
+
+
+    /**
+     * Reads forward to the value at path, below the next value: a String steps into an object member, a Number into
+     * an array element. Everything before it is skipped, not built.
+     * @return that value decoded, or null if the document has no such path
+     */
+    public Object extract( Object... path ) throws IOException {
+        for ( Object step : path ) {
+            Token t = nextToken();
+            if ( t==Token.START_OBJECT && step instanceof String key ) {
+                while (true) {
+                    if (! hasNext() ) return null;
+                    nextToken();
+                    if ( key.equals(name) ) break;
+                    skipValue();
+                }
+            } else if ( t==Token.START_ARRAY && step instanceof Number index ) {
+                for ( long i=index.longValue(); i>0; i-- ) {
+                    if (! hasNext() ) return null;
+                    skipValue();
+                }
+                if (! hasNext() ) return null;
+            } else {
+                return null;
+            }
+        }
+        return readValue();
+    }
+    public static Object extract( Reader in, Object... path ) throws IOException {
+        return new JsonPullParser(in).extract(path);
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        String json = """
+            { "id": 7, "tags": [ "a", { "deep": [1,2] }, null ], "choices": [
+                { "message": { "role": "x", "content": "first" } },
+                { "message": { "content": "second", "extra": { "n": [ 1, 2, 3 ] } } }
+            ], // a comment, as JsonDecoder allows
+            "last": true, }
+        """;
+        { // tokens
+            JsonPullParser p = new JsonPullParser( new StringReader(json) );
+            List<String> seen = new ArrayList<>();
+            for ( Token t; (t=p.nextToken())!=Token.END_DOCUMENT; ) {
+                seen.add( t==Token.NAME ? p.name() : t==Token.VALUE ? String.valueOf( p.value() ) : t.name() );
+                if ( t==Token.VALUE && "2".equals( String.valueOf( p.value() ) ) && p.depth()==4 ) {
+                    LibTest.asrtEQ( List.of( "tags", 1, "deep", 1 ), p.path() );
+                }
+            }
+            LibTest.asrtEQ(
+                "[START_OBJECT, id, 7, tags, START_ARRAY, a, START_OBJECT, deep, START_ARRAY, 1, 2, END_ARRAY, "
+                +"END_OBJECT, null, END_ARRAY, choices, START_ARRAY, START_OBJECT, message, START_OBJECT, role, x, "
+                +"content, first, END_OBJECT, END_OBJECT, START_OBJECT, message, START_OBJECT, content, second, extra, "
+                +"START_OBJECT, n, START_ARRAY, 1, 2, 3, END_ARRAY, END_OBJECT, END_OBJECT, END_OBJECT, END_ARRAY, "
+                +"last, true, END_OBJECT]",
+                seen.toString()
+            );
+        }
+        { // skipping and reading whole values
+            JsonPullParser p = new JsonPullParser( new StringReader(json) );
+            LibTest.asrtEQ( Token.START_OBJECT, p.nextToken() );
+            p.skipValue(); // NOTE: the whole "id" member
+            LibTest.asrtEQ( Token.NAME, p.nextToken() );
+            LibTest.asrtEQ( "tags", p.name() );
+            LibTest.asrtEQ( List.of( "a", Map.of( "deep", List.of(1,2) ) ), Arrays.asList(
+                ((List<?>)p.readValue()).get(0), ((List<?>)p.value()).get(1)
+            ) );
+            p.skipValue();
+            LibTest.asrtEQ( Token.NAME, p.nextToken() );
+            LibTest.asrtEQ( "last", p.name() );
+            LibTest.asrtEQ( true, p.readValue() );
+            LibTest.asrt(! p.hasNext() );
+            LibTest.asrtEQ( Token.END_OBJECT, p.nextToken() );
+            LibTest.asrtEQ( Token.END_DOCUMENT, p.nextToken() );
+        }
+        { // extract
+            LibTest.asrtEQ( "second", extract( new StringReader(json), "choices", 1, "message", "content" ) );
+            LibTest.asrtEQ( List.of(1,2,3), extract( new StringReader(json), "choices", 1, "message", "extra", "n" ) );
+            LibTest.asrtEQ( 7, extract( new StringReader(json), "id" ) );
+            LibTest.asrtEQ( null, extract( new StringReader(json), "choices", 2 ) );
+            LibTest.asrtEQ( null, extract( new StringReader(json), "id", "x" ) );
+            LibTest.asrtEQ( null, extract( new StringReader(json), "missing" ) );
+            LibTest.asrtEQ( JsonDecoder.decode(json), extract( new StringReader(json) ) );
+        }
+        try {
+            JsonPullParser p = new JsonPullParser( new StringReader( "[1,2" ) );
+            while ( p.nextToken()!=Token.END_DOCUMENT ) {}
+            LibTest.asrt( false, "truncated input accepted" );
+        } catch ( IOException expected ) {}
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}
@@ -0,0 +1,283 @@
+package jLib;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+
+/**
+ * JsonDecoder's engine for UTF-8 bytes already in memory: one pass over the array, one switch on the first byte of
+ * each value, integers accumulated without building a String, and ASCII strings copied straight out of the bytes.
+ * It knows only strict JSON. At anything JsonDecoder merely forgives (comments, other quotes, hex and octal, NaN,
+ * bare words, missing or trailing commas, \x escapes) it throws Lenient, and JsonDecoder.decode() starts over with
+ * the Reader parser, so the two never give different results.
+ */
+final class Utf8JsonDecoder {
+    static final class Lenient extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private Lenient() { super( "not strict JSON", null, false, false ); }
+    }
+    static final Lenient LENIENT = new Lenient();
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+
+
+    private Utf8JsonDecoder( byte[] buf, int off, int len ) {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off+len;
+    }
+
+
+
+    /**
+     * The first value in buf[off..off+len), or null if there is none; like JsonDecoder, whatever follows it is ignored.
+     * @throws Lenient if JsonDecoder's Reader parser has to decide
+     */
+    static Object decode( byte[] buf, int off, int len ) {
+        Utf8JsonDecoder d = new Utf8JsonDecoder( buf, off, len );
+        d.skipWhitespace();
+        if ( d.pos>=d.end ) return null;
+        return d.value();
+    }
+
+
+
+    private Object value() {
+        switch ( buf[pos] ) {
+            case '"': pos++; return string();
+            case '{': pos++; return map();
+            case '[': pos++; return list();
+            case 't': literal("true"); return Boolean.TRUE;
+            case 'f': literal("false"); return Boolean.FALSE;
+            case 'n': literal("null"); return null;
+            case '-': case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
+                return number();
+            default: throw LENIENT;
+        }
+    }
+
+
+
+    private Map<Object,Object> map() {
+        Map<Object,Object> map = new LinkedHashMap<>();
+        skipWhitespace();
+        if ( peek()=='}' ) {
+            pos++;
+            return Collections.unmodifiableMap(map);
+        }
+        while (true) {
+            if ( peek()!='"' ) throw LENIENT;
+            pos++;
+            String key = string();
+            skipWhitespace();
+            if ( peek()!=':' ) throw LENIENT;
+            pos++;
+            skipWhitespace();
+            if ( pos>=end ) throw LENIENT;
+            map.put( key, value() );
+            skipWhitespace();
+            int c = peek();
+            pos++;
+            if ( c=='}' ) return Collections.unmodifiableMap(map);
+            if ( c!=',' ) throw LENIENT;
+            skipWhitespace();
+        }
+    }
+    private List<Object> list() {
+        List<Object> list = new ArrayList<>();
+        skipWhitespace();
+        if ( peek()==']' ) {
+            pos++;
+            return Collections.unmodifiableList(list);
+        }
+        while (true) {
+            if ( pos>=end ) throw LENIENT;
+            list.add( value() );
+            skipWhitespace();
+            int c = peek();
+            pos++;
+            if ( c==']' ) return Collections.unmodifiableList(list);
+            if ( c!=',' ) throw LENIENT;
+            skipWhitespace();
+        }
+    }
+
+
+
+    /**
+     * Called just past the opening quote. Without escapes the string is one copy out of buf.
+     */
+    private String string() {
+        int start = pos;
+        boolean ascii = true;
+        while ( pos<end ) {
+            byte b = buf[pos];
+            if ( b=='"' ) {
+                String s = new String( buf, start, pos-start, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8 );
+                pos++;
+                return s;
+            }
+            if ( b=='\\' ) return escapedString(start);
+            if ( b<0 ) ascii = false;
+            pos++;
+        }
+        throw LENIENT; // NOTE: unterminated
+    }
+    private String escapedString( int start ) {
+        StringBuilder sb = new StringBuilder( pos-start+16 );
+        int run = start;
+        while ( pos<end ) {
+            byte b = buf[pos];
+            if ( b!='"' && b!='\\' ) {
+                pos++;
+                continue;
+            }
+            appendRun( sb, run, pos ); // NOTE: '"' and '\\' never occur inside a multi-byte UTF-8 sequence
+            pos++;
+            if ( b=='"' ) return sb.toString();
+            if ( pos>=end ) throw LENIENT;
+            switch ( buf[pos++] ) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u': {
+                    if ( pos+4>end ) throw LENIENT;
+                    int u = 0;
+                    for ( int i=0; i<4; i++ ) u = u<<4 | hexDigit( buf[pos++] );
+                    sb.append( (char)u );
+                } break;
+                default: throw LENIENT;
+            }
+            run = pos;
+        }
+        throw LENIENT;
+    }
+    private void appendRun( StringBuilder sb, int from, int to ) {
+        for ( int i=from; i<to; i++ ) {
+            if ( buf[i]<0 ) {
+                sb.append( new String( buf, i, to-i, StandardCharsets.UTF_8 ) );
+                return;
+            }
+            sb.append( (char)buf[i] );
+        }
+    }
+    private static int hexDigit( byte b ) {
+        if ( b>='0' && b<='9' ) return b-'0';
+        if ( b>='a' && b<='f' ) return b-'a'+10;
+        if ( b>='A' && b<='F' ) return b-'A'+10;
+        throw LENIENT;
+    }
+
+
+
+    /**
+     * Integer, Long or Double, chosen exactly as JsonDecoder chooses them.
+     */
+    private Number number() {
+        int start = pos;
+        boolean negative = buf[pos]=='-';
+        if ( negative ) pos++;
+        int digitsStart = pos;
+        if ( pos>=end || !isDigit( buf[pos] ) ) throw LENIENT; // NOTE: -Infinity, -NaN
+        if ( buf[pos]=='0' ) {
+            pos++;
+            if ( pos<end && isDigit( buf[pos] ) ) throw LENIENT; // NOTE: octal to JsonDecoder
+        } else {
+            while ( pos<end && isDigit( buf[pos] ) ) pos++;
+        }
+        int digitsEnd = pos;
+        boolean integral = true;
+        if ( pos<end && buf[pos]=='.' ) {
+            integral = false;
+            pos++;
+            if ( pos>=end || !isDigit( buf[pos] ) ) throw LENIENT;
+            while ( pos<end && isDigit( buf[pos] ) ) pos++;
+        }
+        if ( pos<end && ( buf[pos]=='e' || buf[pos]=='E' ) ) {
+            integral = false;
+            pos++;
+            if ( pos<end && ( buf[pos]=='+' || buf[pos]=='-' ) ) pos++;
+            if ( pos>=end || !isDigit( buf[pos] ) ) throw LENIENT;
+            while ( pos<end && isDigit( buf[pos] ) ) pos++;
+        }
+        if ( pos<end ) { // NOTE: JsonDecoder would read on, e.g. 0x1F, 1_000, 1.5.5
+            byte b = buf[pos];
+            if ( b=='.' || b=='_' || b=='+' || b=='-' || ( b>='a' && b<='z' ) || ( b>='A' && b<='Z' ) ) throw LENIENT;
+        }
+        if ( integral && digitsEnd-digitsStart<=18 ) {
+            long n = 0;
+            for ( int i=digitsStart; i<digitsEnd; i++ ) n = n*10 + ( buf[i]-'0' );
+            if ( negative ) n = -n;
+            if ( n>=Integer.MIN_VALUE && n<=Integer.MAX_VALUE ) return (int)n;
+            return n;
+        }
+        String text = new String( buf, start, pos-start, StandardCharsets.ISO_8859_1 );
+        if ( integral ) {
+            try { return Long.parseLong(text); }
+            catch ( NumberFormatException tooBig ) {}
+        }
+        return Double.parseDouble(text);
+    }
+    private static boolean isDigit( byte b ) { return b>='0' && b<='9'; }
+
+
+
+    private void literal( String word ) {
+        int n = word.length();
+        if ( pos+n>end ) throw LENIENT;
+        for ( int i=0; i<n; i++ ) {
+            if ( buf[pos+i]!=word.charAt(i) ) throw LENIENT;
+        }
+        pos += n;
+    }
+    private void skipWhitespace() {
+        while ( pos<end ) {
+            byte b = buf[pos];
+            if ( b==' ' || b=='\n' || b=='\r' || b=='\t' ) pos++;
+            else if ( b=='/' ) throw LENIENT; // NOTE: a comment
+            else return;
+        }
+    }
+    private int peek() { return pos<end ? buf[pos] : -1; }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean sameAsReader_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        String[] inputs = {
+            "", "  ", "null", "true", "false", "0", "-0", "7", "-12", "2147483647", "2147483648", "-2147483649",
+            "123456789012345678", "9223372036854775807", "9223372036854775808", "123456789012345678901234",
+            "1.5", "-0.25e-3", "1E5", "1e+2", "0.1", "01", "0x1F", "1_000", "1.", "-", "+1", "-NaN", "Infinity",
+            "\"\"", "\"plain\"", "\"tab\\there\"", "\"q\\\"\\\\\\/\"", "\"\\u00e9\\uD83D\\uDE3A\"", "\"é ünïcode ☃\"",
+            "\"\\x41\"", "\"\\0\"", "\"unterminated", "'single'", "`back`",
+            "[]", "{}", "[1,2,3]", "[ 1 , [ ] , { } , null , \"x\" ]", "[1,]", "[1 2]", "[1,2",
+            "{\"a\":1,\"b\":[true,false,null],\"c\":{\"d\":\"e\"}}", "{\"a\":1,\"a\":2}", "{\"a\":1,}", "{a:1}",
+            "{\"k\":null}", "{\"x\" : 1 /* c */ }", "// lead\n[1]", "[1] trailing", "truex", "nul", "[tru]",
+            "{\"n\":-1.25E-2,\"big\":12345678901234567890,\"s\":\"a\\nb\"}",
+        };
+        for ( String s : inputs ) {
+            Object expected = new JsonDecoder( new StringReader(s) ).decode();
+            LibTest.asrtEQ( expected, JsonDecoder.decode( s.getBytes(StandardCharsets.UTF_8) ), s );
+            LibTest.asrtEQ( expected, JsonDecoder.decode(s), s );
+            if ( expected!=null ) LibTest.asrtEQ(
+                expected.getClass(), JsonDecoder.decode( s.getBytes(StandardCharsets.UTF_8) ).getClass(), s
+            );
+        }
+        String loneSurrogate = "\"x\uD800y\"";
+        LibTest.asrtEQ( "x\uD800y", JsonDecoder.decode(loneSurrogate), "kept, not turned into ?" );
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}
@@ -0,0 +1,44 @@
+package jLib;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+
+/**
+ * Stands in for a JMH comparison (there is no JMH in this build): decodes the same mixed document with the Reader
+ * parser and with Utf8JsonDecoder, after a warm-up round, and prints both rates. It reports; it does not judge,
+ * so timing noise never fails a build. Utf8JsonDecoder.sameAsReader_TEST_ covers correctness.
+ */
+public class Utf8JsonDecoderBenchmark {
+
+
+
+    public static void main( String[] args ) throws IOException {
+        int records = args.length>0 ? Integer.parseInt( args[0] ) : 200;
+        int reps = args.length>1 ? Integer.parseInt( args[1] ) : 100;
+        List<Object> list = new ArrayList<>();
+        for ( int i=0; i<records; i++ ) {
+            list.add( Map.of(
+                "id", 1_700_000_000_000_000L+i, "n", i, "score", i*0.37, "name", "record number "+i,
+                "tags", List.of( "alpha", "beta", "gämma" ), "ok", i%2==0
+            ) );
+        }
+        String json = JsonEncoder.encode(list);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        long readerNanos = 0, bytesNanos = 0;
+        for ( int round=0; round<2; round++ ) { // NOTE: the first round is warm-up
+            long t = System.nanoTime();
+            for ( int i=0; i<reps; i++ ) new JsonDecoder( new StringReader(json) ).decode();
+            readerNanos = System.nanoTime()-t;
+            t = System.nanoTime();
+            for ( int i=0; i<reps; i++ ) Utf8JsonDecoder.decode( bytes, 0, bytes.length );
+            bytesNanos = System.nanoTime()-t;
+        }
+        double mb = (double)bytes.length*reps / 1e6;
+        System.out.printf(
+            "JsonDecoder on %d bytes x %d: Reader %.1f MB/s, UTF-8 bytes %.1f MB/s%n",
+            bytes.length, reps, mb/(readerNanos/1e9), mb/(bytesNanos/1e9)
+        );
+    }
+}
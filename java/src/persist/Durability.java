@@ -0,0 +1,67 @@
+package persist;
+import jLib.LibTest;
+
+
+
+/**
+ * How soon a committed write must be on disk.
+ * - SYNC: before the write returns. Writers that commit while a sync is running all share the next one.
+ * - group(millis,writes): the write returns once a shared sync covers it; that sync starts when `writes` commits
+ *   are waiting or the oldest of them has waited `millis`, whichever comes first.
+ * - async(millis): the write returns at once and a background sync runs every `millis`, so a crash of the machine
+ *   can lose that much. PersistentData.flush() is the barrier for callers that need more.
+ * NOTE: only LogRowStore offers group(). JdbcRowStore rejects it: HSQLDB and SQLite can only delay syncs, not let
+ * commits wait for a shared one, so it would quietly behave like async().
+ */
+public record Durability( Level level, long millis, int writes ) {
+    public enum Level { SYNC, GROUP, ASYNC }
+    public static final Durability SYNC = new Durability( Level.SYNC, 0, 1 );
+
+
+
+    public Durability {
+        if ( level==null ) throw new IllegalArgumentException( "level is required" );
+        if ( millis<0 || writes<1 ) throw new IllegalArgumentException( "need millis>=0 and writes>=1" );
+    }
+    public static Durability group( long millis, int writes ) { return new Durability( Level.GROUP, millis, writes ); }
+    public static Durability async( long millis ) { return new Durability( Level.ASYNC, millis, Integer.MAX_VALUE ); }
+
+
+
+    /**
+     * "sync", "group:millis", "group:millis:writes" or "async:millis", as given on the command line.
+     */
+    public static Durability parse( String spec ) {
+        String[] parts = spec.trim().toLowerCase().split(":");
+        try {
+            switch ( parts[0] ) {
+                case "sync": return SYNC;
+                case "group": return group(
+                    parts.length>1 ? Long.parseLong(parts[1]) : 5, parts.length>2 ? Integer.parseInt(parts[2]) : 64
+                );
+                case "async": return async( parts.length>1 ? Long.parseLong(parts[1]) : 1000 );
+            }
+        } catch ( NumberFormatException e ) {}
+        throw new IllegalArgumentException( "durability must be sync, group:millis[:writes] or async:millis, not "+spec );
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) {
+        if (findLineNumber) throw new RuntimeException();
+        LibTest.asrtEQ( SYNC, parse("SYNC") );
+        LibTest.asrtEQ( group( 10, 64 ), parse("group:10") );
+        LibTest.asrtEQ( group( 2, 8 ), parse("group:2:8") );
+        LibTest.asrtEQ( async(250), parse("async:250") );
+        try {
+            parse("group:x");
+            LibTest.asrt( false, "bad spec accepted" );
+        } catch ( IllegalArgumentException expected ) {}
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}
@@ -0,0 +1,218 @@
+package persist;
+import java.util.concurrent.atomic.AtomicInteger;
+import jLib.*;
+
+
+
+/**
+ * Turns many commits into few syncs. Each commit takes a sequence number; waitDurable(seq) returns once a sync that
+ * started after that commit has finished. Whoever finds no sync running becomes the syncer for everything committed
+ * so far, while the others wait and are released together, so concurrent writers coalesce into one sync without any
+ * extra thread. Under Durability.GROUP the syncer also waits until enough commits have piled up or the oldest has
+ * waited long enough; under ASYNC nobody waits and a background thread syncs instead.
+ * NOTE: call committed() only after the commit's bytes are written, and waitDurable() without holding store locks.
+ */
+final class GroupCommit implements AutoCloseable {
+    private final Runnable syncAction;
+    private volatile Durability durability;
+    private long committedSeq = 0;
+    private long syncedSeq = 0;
+    private long oldestPendingMillis = 0;
+    private boolean syncing = false;
+    private final AtomicInteger syncs = new AtomicInteger();
+    private Thread background;
+    private boolean closed = false;
+
+
+
+    GroupCommit( Durability durability, Runnable syncAction ) {
+        this.syncAction = syncAction;
+        setDurability(durability);
+    }
+
+
+
+    synchronized void setDurability( Durability durability ) {
+        this.durability = durability;
+        notifyAll(); // NOTE: GROUP waiters re-check their deadline
+        if ( durability.level()==Durability.Level.ASYNC && background==null && !closed ) {
+            background = Thread.ofVirtual().name("GroupCommit").start( this::backgroundSyncs );
+        }
+    }
+    Durability durability() { return durability; }
+
+
+
+    /**
+     * Registers one commit and returns the sequence number to wait for.
+     */
+    synchronized long committed() {
+        if ( committedSeq==syncedSeq ) oldestPendingMillis = System.currentTimeMillis();
+        committedSeq++;
+        if ( committedSeq-syncedSeq >= durability.writes() ) notifyAll();
+        return committedSeq;
+    }
+
+
+
+    /**
+     * Returns when commit seq is on disk, or at once under ASYNC.
+     */
+    void waitDurable( long seq ) {
+        if ( durability.level()!=Durability.Level.ASYNC ) syncThrough( seq, false );
+    }
+
+
+
+    /**
+     * Barrier: returns once every commit made before the call is on disk, whatever the level.
+     */
+    void flush() {
+        long seq;
+        synchronized (this) { seq = committedSeq; }
+        syncThrough( seq, true );
+    }
+
+
+
+    private void syncThrough( long seq, boolean now ) {
+        long target;
+        synchronized (this) {
+            while (true) {
+                if ( syncedSeq>=seq ) return;
+                if (! syncing ) {
+                    long wait = now ? 0 : groupWaitMillis();
+                    if ( wait<=0 ) break;
+                    waitQuietly(wait);
+                } else {
+                    waitQuietly(0);
+                }
+            }
+            syncing = true;
+            target = committedSeq;
+        }
+        boolean done = false;
+        try {
+            syncAction.run();
+            syncs.incrementAndGet();
+            done = true;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if ( done ) {
+                    syncedSeq = Math.max( syncedSeq, target );
+                    if ( committedSeq>syncedSeq ) oldestPendingMillis = System.currentTimeMillis();
+                }
+                notifyAll();
+            }
+        }
+    }
+    /**
+     * How much longer a GROUP syncer should let commits pile up; 0 means sync now. NOTE: holds the monitor.
+     */
+    private long groupWaitMillis() {
+        Durability d = durability;
+        if ( d.level()!=Durability.Level.GROUP || closed ) return 0;
+        if ( committedSeq-syncedSeq >= d.writes() ) return 0;
+        return Math.max( 0, oldestPendingMillis + d.millis() - System.currentTimeMillis() );
+    }
+    private void waitQuietly( long millis ) {
+        try { wait(millis); }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+
+
+    private void backgroundSyncs() {
+        while (true) {
+            Durability d = durability;
+            try { Thread.sleep( Math.max( 1, d.millis() ) ); }
+            catch ( InterruptedException e ) { return; }
+            synchronized (this) {
+                if ( closed || d.level()!=Durability.Level.ASYNC ) {
+                    background = null;
+                    return;
+                }
+            }
+            try { flush(); }
+            catch ( Throwable t ) { Log.log(t); }
+        }
+    }
+
+
+
+    int syncs() { return syncs.get(); }
+
+
+
+    /**
+     * Syncs whatever is still pending and stops the background thread.
+     */
+    @Override public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = background;
+            notifyAll();
+        }
+        if ( t!=null ) t.interrupt();
+        flush();
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        AtomicInteger synced = new AtomicInteger();
+        Runnable slowSync = () -> {
+            try { Thread.sleep(20); } catch ( InterruptedException e ) { throw new RuntimeException(e); }
+            synced.incrementAndGet();
+        };
+        { // SYNC: every writer waits, but those that arrive during a sync share the next one
+            GroupCommit gc = new GroupCommit( Durability.SYNC, slowSync );
+            java.util.List<Thread> threads = new java.util.ArrayList<>();
+            for ( int i=0; i<32; i++ ) threads.add( Thread.ofVirtual().start( () -> gc.waitDurable( gc.committed() ) ) );
+            for ( Thread t : threads ) t.join();
+            LibTest.asrt( gc.syncs()<32, "coalesced: "+gc.syncs() );
+            LibTest.asrt( gc.syncedSeq==32 );
+            gc.close();
+        }
+        { // GROUP: the syncer waits for `writes` commits
+            GroupCommit gc = new GroupCommit( Durability.group( 10_000, 4 ), slowSync );
+            java.util.List<Thread> threads = new java.util.ArrayList<>();
+            long start = System.currentTimeMillis();
+            for ( int i=0; i<4; i++ ) threads.add( Thread.ofVirtual().start( () -> gc.waitDurable( gc.committed() ) ) );
+            for ( Thread t : threads ) t.join();
+            LibTest.asrt( System.currentTimeMillis()-start < 5000, "released by count, not by time" );
+            LibTest.asrtEQ( 1, gc.syncs(), "one sync for all 4" );
+            gc.close();
+        }
+        { // GROUP: or when the oldest has waited long enough
+            GroupCommit gc = new GroupCommit( Durability.group( 30, 1000 ), slowSync );
+            long start = System.currentTimeMillis();
+            gc.waitDurable( gc.committed() );
+            LibTest.asrt( System.currentTimeMillis()-start >= 30 );
+            gc.close();
+        }
+        { // ASYNC: nobody waits; flush() is the barrier
+            GroupCommit gc = new GroupCommit( Durability.async(60_000), slowSync );
+            int before = gc.syncs();
+            gc.waitDurable( gc.committed() );
+            LibTest.asrtEQ( before, gc.syncs(), "returned without a sync" );
+            gc.flush();
+            LibTest.asrtEQ( before+1, gc.syncs() );
+            gc.flush();
+            LibTest.asrtEQ( before+1, gc.syncs(), "nothing pending, nothing to do" );
+            gc.close();
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}
@@ -0,0 +1,625 @@
+package persist;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import jLib.*;
+
+
+
+/**
+ * The RowStore PersistentData always had: one table in HSQLDB, SQLite or another JDBC database, reached through a
+ * small pool of connections that each keep their prepared statements.
+ */
+@SuppressWarnings("try")
+public final class JdbcRowStore implements RowStore {
+    private final String tableName;
+    private final String jdbcUrl;
+    public final int poolSize;
+    private final LinkedBlockingQueue<Conn> idleConns = new LinkedBlockingQueue<>();
+    private final List<Conn> allConns = new ArrayList<>();
+    private final ThreadLocal<Conn> currentConn = new ThreadLocal<>();
+    private volatile boolean closed = false;
+    private volatile Durability durability = Durability.SYNC;
+    private final String insertSql, selectByIdSql, selectByOrderSql, selectByKeySql, deleteByIdSql;
+    private final String statsSql, moveChildrenSql, idsSql, parentsBelowSql;
+    private final String ordersSql, pageSql, idsInRangeSql, setOrderSql;
+
+    static {
+        try {
+            Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Failed to load HSQLDB JDBC driver", e);
+        }
+    }
+
+
+
+    public JdbcRowStore( String jdbcUrl, String tableName ) {
+        this.tableName = tableName;
+        this.jdbcUrl = jdbcUrl;
+        this.poolSize = Math.max( 1, PersistentData.defaultPoolSize );
+        insertSql = sql( """
+            INSERT INTO {{tableName}} (
+                id, parent_id, entry_order, key_json, value_json, last_change_time
+            ) VALUES (?,?,?,?,?,?)
+        """ );
+        selectByIdSql = sql( """
+            SELECT * FROM {{tableName}} WHERE id=?
+        """ );
+        selectByOrderSql = sql( """
+            SELECT * FROM {{tableName}} WHERE parent_id=? AND entry_order=?
+        """ );
+        selectByKeySql = sql( """
+            SELECT * FROM {{tableName}} WHERE parent_id=? AND key_json=?
+        """ );
+        deleteByIdSql = sql( """
+            DELETE FROM {{tableName}} WHERE id=?
+        """ );
+        // NOTE: SQLITE gives MIN and MAX as 0,0 for no rows, so only the count says whether they mean anything
+        statsSql = sql( """
+            SELECT COUNT(*) AS count, MIN(entry_order) AS min_order, MAX(entry_order) AS max_order
+            FROM {{tableName}} WHERE parent_id=?
+        """ );
+        moveChildrenSql = sql( """
+            UPDATE {{tableName}} SET parent_id=? WHERE parent_id=?
+        """ );
+        ordersSql = sql( """
+            SELECT entry_order FROM {{tableName}} WHERE parent_id=? ORDER BY entry_order
+        """ );
+        pageSql = sql( """
+            SELECT * FROM {{tableName}} WHERE parent_id=? AND entry_order>? ORDER BY entry_order LIMIT ?
+        """ );
+        idsInRangeSql = sql( """
+            SELECT id FROM {{tableName}} WHERE parent_id=? AND entry_order>=? AND entry_order<=? ORDER BY entry_order
+        """ );
+        setOrderSql = sql( """
+            UPDATE {{tableName}} SET entry_order=? WHERE id=?
+        """ );
+        idsSql = sql( """
+            SELECT id FROM {{tableName}} ORDER BY parent_id,entry_order
+        """ );
+        parentsBelowSql = sql( """
+            SELECT DISTINCT parent_id FROM {{tableName}} WHERE parent_id < ? ORDER BY parent_id
+        """ );
+        Conn first = openConn(true);
+        synchronized (allConns) { allConns.add(first); }
+        idleConns.add(first);
+        createTable();
+    }
+
+
+
+    /**
+     * Renders a statement for this table once, so the hot paths never re-template SQL.
+     */
+    private String sql( String template ) {
+        return LibString.evalTemplate( LibString.unindent(template), Map.of( "tableName", tableName ) );
+    }
+
+
+
+    /**
+     * One pooled JDBC connection and its prepared statements. A thread holds at most one at a time: nested
+     * lease() calls on the same thread get the same Conn back, and it returns to the pool when the outermost
+     * lease closes. Statements from prepare() belong to the Conn and must not be closed by the caller.
+     */
+    final class Conn implements Session {
+        final Connection conn;
+        private int depth = 0;
+        private Durability durability = Durability.SYNC; // NOTE: as this connection was last told; SQLite only
+        private final LinkedHashMap<String,PreparedStatement> statements = new LinkedHashMap<>( 32, 0.75f, true ) {
+            @Override protected boolean removeEldestEntry( Map.Entry<String,PreparedStatement> eldest ) {
+                if ( size()<=64 ) return false; // NOTE: only update() builds SQL dynamically; 64 covers its shapes
+                try { eldest.getValue().close(); } catch ( SQLException ignore ) {}
+                return true;
+            }
+        };
+
+        Conn( Connection conn ) { this.conn = conn; }
+
+        PreparedStatement prepare( String sql ) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if ( stmt==null ) {
+                stmt = conn.prepareStatement(sql);
+                statements.put( sql, stmt );
+            } else {
+                stmt.clearParameters();
+            }
+            return stmt;
+        }
+
+        @Override public void close() { release(this); }
+
+        void closeConnection() {
+            for ( PreparedStatement stmt : statements.values() ) {
+                try { stmt.close(); } catch ( SQLException ignore ) {}
+            }
+            statements.clear();
+            try { conn.close(); } catch ( SQLException ignore ) {}
+        }
+    }
+
+
+
+    /**
+     * The calling thread's connection; use it in try-with-resources.
+     */
+    Conn lease() {
+        Conn c = currentConn.get();
+        if ( c!=null ) {
+            c.depth++;
+            return c;
+        }
+        if ( closed ) throw new IllegalStateException( "PersistentData is closed" );
+        c = idleConns.poll();
+        if ( c==null ) {
+            synchronized (allConns) {
+                if ( allConns.size()<poolSize ) {
+                    c = openConn(false);
+                    allConns.add(c);
+                }
+            }
+        }
+        if ( c==null ) {
+            try { c = idleConns.take(); }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        c.depth = 1;
+        currentConn.set(c);
+        if ( c.durability!=durability && jdbcUrl.startsWith("jdbc:sqlite:") ) {
+            Durability d = durability;
+            try ( Statement stmt = c.conn.createStatement() ) {
+                stmt.execute( d.level()==Durability.Level.SYNC ? "pragma synchronous = full" : "pragma synchronous = normal" );
+                c.durability = d;
+            } catch ( SQLException e ) {
+                release(c);
+                throw new RuntimeException(e);
+            }
+        }
+        return c;
+    }
+    @Override public Session session() { return lease(); }
+
+
+
+    private void release( Conn c ) {
+        if ( --c.depth > 0 ) return;
+        currentConn.remove();
+        if ( closed ) c.closeConnection();
+        else idleConns.add(c);
+    }
+
+
+
+    /**
+     * One JDBC transaction on this thread's connection (one commit instead of one per statement); a nested call
+     * becomes a savepoint.
+     */
+    @Override public void transaction( Runnable work ) {
+        try ( Conn c = lease() ) {
+            if ( c.conn.getAutoCommit() ) {
+                c.conn.setAutoCommit(false);
+                try {
+                    work.run();
+                    c.conn.commit();
+                } catch ( RuntimeException | Error e ) {
+                    c.conn.rollback();
+                    throw e;
+                } finally {
+                    c.conn.setAutoCommit(true);
+                }
+            } else {
+                Savepoint savepoint = c.conn.setSavepoint();
+                try {
+                    work.run();
+                    c.conn.releaseSavepoint(savepoint);
+                } catch ( RuntimeException | Error e ) {
+                    c.conn.rollback(savepoint);
+                    throw e;
+                }
+            }
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    private Conn openConn( boolean first ) {
+        try {
+            Connection conn;
+            if ( jdbcUrl.startsWith("jdbc:hsqldb:") ) {
+                if (jdbcUrl.startsWith("jdbc:hsqldb:file:")) {
+                    conn = DriverManager.getConnection(jdbcUrl + ";shutdown=true", "SA", "");
+                } else {
+                    conn = DriverManager.getConnection(jdbcUrl, "SA", "");
+                }
+                if ( first ) { // NOTE: database-wide settings, made before any other connection can open a transaction
+                    try ( Statement stmt = conn.createStatement() ) {
+                        stmt.execute( "SET DATABASE SQL SYNTAX ORA TRUE" );
+                        stmt.execute( "SET DATABASE TRANSACTION CONTROL MVCC" );
+                        stmt.execute( "SET FILES WRITE DELAY FALSE" );
+                    }
+                }
+            } else if ( jdbcUrl.startsWith("jdbc:sqlite:") ) {
+                conn = DriverManager.getConnection(jdbcUrl);
+                try ( Statement stmt = conn.createStatement() ) {
+                    stmt.execute( LibString.nw( """
+                        pragma journal_mode = WAL;
+                        pragma synchronous = normal;
+                        pragma temp_store = memory;
+                        pragma mmap_size = 2000000000;
+                    """ ) );
+                }
+            } else {
+                conn = DriverManager.getConnection(jdbcUrl);
+            }
+            return new Conn(conn);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    /**
+     * NOTE: if this represents a map or a list, then value_json will be "MAP" or "LIST",
+     * but not quoted, so it will be invalid json.
+    */
+    private void createTable() {
+        String textType = "TEXT";
+        try ( Conn c = lease() ) {
+            String dbProduct = c.conn.getMetaData().getDatabaseProductName();
+            if (dbProduct.toLowerCase().contains("hsql")) {
+                textType = "VARCHAR(32672)";
+            }
+        } catch (SQLException ignore) {}
+
+        String createTable = LibString.evalTemplate( LibString.unindent( """
+            CREATE TABLE IF NOT EXISTS {{tableName}} (
+                id BIGINT NOT NULL,
+                parent_id BIGINT NOT NULL,
+                entry_order BIGINT NOT NULL,
+                key_json {{textType}} NOT NULL,
+                value_json {{textType}} NOT NULL,
+                last_change_time BIGINT NOT NULL,
+                PRIMARY KEY (id)
+            )
+        """ ), Map.of( "tableName", this.tableName, "textType", textType ) );
+        String createIndexA = LibString.evalTemplate( LibString.unindent( """
+            CREATE INDEX IF NOT EXISTS {{tableName}}_key_idx
+            ON {{tableName}} (parent_id, key_json)
+        """ ), Map.of( "tableName", this.tableName ) );
+        String createIndexB = LibString.evalTemplate( LibString.unindent( """
+            CREATE INDEX IF NOT EXISTS {{tableName}}_order_idx  -- this would be UNIQUE except it would be
+            ON {{tableName}} (parent_id, entry_order)           -- violated temporarily during overlapping updates
+        """ ), Map.of( "tableName", this.tableName ) );
+        try ( Conn c = lease(); Statement stmt = c.conn.createStatement() ) {
+            stmt.execute(createTable);
+            stmt.execute(createIndexA);
+            stmt.execute(createIndexB);
+        }
+        catch ( SQLException e ) { throw new RuntimeException(e); }
+    }
+
+
+
+    private static Values values( ResultSet rs ) throws SQLException {
+        return new Values(
+            rs.getLong("id"),
+            rs.getLong("parent_id"),
+            rs.getLong("entry_order"),
+            rs.getString("key_json"),
+            rs.getString("value_json"),
+            rs.getLong("last_change_time")
+        );
+    }
+    private static void bindInsert( PreparedStatement stmt, Values row ) throws SQLException {
+        stmt.setLong(1, row.id());
+        stmt.setLong(2, row.parentID());
+        stmt.setLong(3, row.entryOrder());
+        stmt.setString(4, row.keyJson());
+        stmt.setString(5, row.valueJson());
+        stmt.setLong(6, row.lastChangeTime());
+    }
+    private Values selectOne( PreparedStatement stmt ) throws SQLException {
+        try ( ResultSet rs = stmt.executeQuery() ) {
+            return rs.next() ? values(rs) : null;
+        }
+    }
+    private long[] longs( PreparedStatement stmt ) throws SQLException {
+        long[] result = new long[64];
+        int count = 0;
+        try ( ResultSet rs = stmt.executeQuery() ) {
+            while ( rs.next() ) {
+                if ( count==result.length ) result = Arrays.copyOf( result, count*2 );
+                result[count++] = rs.getLong(1);
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+
+
+    @Override public boolean insert( Values row ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(insertSql);
+            bindInsert( stmt, row );
+            return stmt.executeUpdate()==1;
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    /**
+     * Goes out as one JDBC batch per call, inside the caller's transaction if there is one.
+     */
+    @Override public void insertAll( List<Values> rows ) {
+        if ( rows.isEmpty() ) return;
+        transaction( () -> {
+            try ( Conn c = lease() ) {
+                PreparedStatement stmt = c.prepare(insertSql);
+                try {
+                    for ( Values row : rows ) {
+                        bindInsert( stmt, row );
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch ( SQLException | RuntimeException e ) {
+                    stmt.clearBatch(); // NOTE: the statement is cached, so it must not keep half a batch
+                    throw e;
+                }
+            } catch (SQLException e) { throw new RuntimeException(e); }
+        } );
+    }
+
+
+
+    @Override public Values selectById( long id ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(selectByIdSql);
+            stmt.setLong(1, id);
+            return selectOne(stmt);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public Values selectByKey( long parentID, String keyJson ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(selectByKeySql);
+            stmt.setLong(1, parentID);
+            stmt.setString(2, keyJson);
+            return selectOne(stmt);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public Values selectByOrder( long parentID, long entryOrder ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(selectByOrderSql);
+            stmt.setLong(1, parentID);
+            stmt.setLong(2, entryOrder);
+            return selectOne(stmt);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    @Override public boolean update( long id, Values changes ) {
+        List<String> setSql = new ArrayList<>();
+        List<Object> setValues = new ArrayList<>();
+        if (changes.id()!=null) {
+            setSql.add("id=?");
+            setValues.add(changes.id());
+        }
+        if (changes.parentID()!=null) {
+            setSql.add("parent_id=?");
+            setValues.add(changes.parentID());
+        }
+        if (changes.entryOrder()!=null) {
+            setSql.add("entry_order=?");
+            setValues.add(changes.entryOrder());
+        }
+        if (changes.keyJson()!=null) {
+            setSql.add("key_json=?");
+            setValues.add(changes.keyJson());
+        }
+        if (changes.valueJson()!=null) {
+            setSql.add("value_json=?");
+            setValues.add(changes.valueJson());
+        }
+        if (changes.lastChangeTime()!=null) {
+            setSql.add("last_change_time=?");
+            setValues.add(changes.lastChangeTime());
+        }
+        if (setSql.isEmpty()) return selectById(id)!=null;
+        String sql = "UPDATE "+tableName+" SET "+String.join(",",setSql)+" WHERE id=?";
+        setValues.add(id);
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(sql);
+            for ( int i=0; i<setValues.size(); i++ ) {
+                Object value = setValues.get(i);
+                if ( value instanceof String ) stmt.setString( i+1, (String)value );
+                if ( value instanceof Long ) stmt.setLong( i+1, (Long)value );
+            }
+            return stmt.executeUpdate()==1;
+        }
+        catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    @Override public boolean delete( long id ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(deleteByIdSql);
+            stmt.setLong(1, id);
+            return stmt.executeUpdate()==1;
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public long moveChildren( long fromParentID, long toParentID ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(moveChildrenSql);
+            stmt.setLong(1, toParentID);
+            stmt.setLong(2, fromParentID);
+            return stmt.executeUpdate();
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    @Override public List<Values> page( long parentID, long afterEntryOrder, int limit ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(pageSql);
+            stmt.setLong(1, parentID);
+            stmt.setLong(2, afterEntryOrder);
+            stmt.setInt(3, limit);
+            List<Values> page = new ArrayList<>();
+            try ( ResultSet rs = stmt.executeQuery() ) {
+                while ( rs.next() ) page.add( values(rs) );
+            }
+            return page;
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public long[] entryOrders( long parentID ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(ordersSql);
+            stmt.setLong(1, parentID);
+            return longs(stmt);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public long[] stats( long parentID ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(statsSql);
+            stmt.setLong(1, parentID);
+            try ( ResultSet rs = stmt.executeQuery() ) {
+                if (! rs.next() ) return new long[3];
+                return new long[]{ rs.getLong("count"), rs.getLong("min_order"), rs.getLong("max_order") };
+            }
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public long[] idsInRange( long parentID, long fromEntryOrder, long toEntryOrder ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(idsInRangeSql);
+            stmt.setLong(1, parentID);
+            stmt.setLong(2, fromEntryOrder);
+            stmt.setLong(3, toEntryOrder);
+            return longs(stmt);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public void setEntryOrders( long[] ids, long[] entryOrders ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(setOrderSql);
+            try {
+                for ( int i=0; i<ids.length; i++ ) {
+                    stmt.setLong( 1, entryOrders[i] );
+                    stmt.setLong( 2, ids[i] );
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            } catch ( SQLException e ) {
+                stmt.clearBatch();
+                throw e;
+            }
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public long[] ids() {
+        try ( Conn c = lease() ) {
+            return longs( c.prepare(idsSql) );
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    @Override public long[] parentIDsBelow( long maxParentID ) {
+        try ( Conn c = lease() ) {
+            PreparedStatement stmt = c.prepare(parentsBelowSql);
+            stmt.setLong(1, maxParentID);
+            return longs(stmt);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    /**
+     * Tells the database how to sync: HSQLDB syncs its log at every commit for SYNC, or every durability.millis()
+     * for ASYNC; SQLite, in WAL mode, syncs every commit for SYNC and at checkpoints for ASYNC. GROUP is refused:
+     * neither can make a commit wait for a sync it shares with others, so it would quietly lose acknowledged writes.
+     */
+    @Override public void setDurability( Durability durability ) {
+        if ( durability.level()==Durability.Level.GROUP ) throw new IllegalArgumentException(
+            "group durability needs a log: store; with a JDBC database use sync or async"
+        );
+        this.durability = durability;
+        if (! jdbcUrl.startsWith("jdbc:hsqldb:") ) return; // NOTE: SQLite connections catch up in lease()
+        String sql = durability.level()==Durability.Level.SYNC ? "SET FILES WRITE DELAY FALSE"
+            : "SET FILES WRITE DELAY "+Math.max( 1, durability.millis() )+" MILLIS";
+        try ( Conn c = lease(); Statement stmt = c.conn.createStatement() ) {
+            stmt.execute(sql);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+    /**
+     * Nothing to do under SYNC; otherwise a CHECKPOINT, which is the one way to make HSQLDB write everything now.
+     */
+    @Override public void flush() {
+        if ( durability.level()==Durability.Level.SYNC ) return;
+        String sql = (
+            jdbcUrl.startsWith("jdbc:hsqldb:file:") ? "CHECKPOINT"
+            : jdbcUrl.startsWith("jdbc:sqlite:") ? "pragma wal_checkpoint(FULL)"
+            : null
+        );
+        if ( sql==null ) return;
+        try ( Conn c = lease(); Statement stmt = c.conn.createStatement() ) {
+            stmt.execute(sql);
+        } catch (SQLException e) { throw new RuntimeException(e); }
+    }
+
+
+
+    @Override
+    public void close() {
+        if ( closed ) return;
+        try {
+            if ( jdbcUrl.startsWith("jdbc:hsqldb:file:") ) {
+                try ( Conn c = lease(); Statement stmt = c.conn.createStatement() ) {
+                    stmt.execute("SHUTDOWN");
+                }
+            }
+        }catch(Throwable ignore){ Log.log(ignore); }
+        closed = true;
+        synchronized (allConns) { // NOTE: connections still leased are closed when released
+            Conn c;
+            while ( ( c = idleConns.poll() ) != null ) c.closeConnection();
+        }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean pool_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        JdbcRowStore store = new JdbcRowStore( "jdbc:hsqldb:mem:pool_"+Lib.uniqID(), "pool" );
+        try ( PersistentData pd = new PersistentData(store) ) {
+            try ( Conn a = store.lease() ) {
+                PreparedStatement stmt = a.prepare(store.selectByIdSql);
+                try ( Conn b = store.lease() ) {
+                    LibTest.asrt( a==b, "nested lease shares the thread's connection" );
+                    LibTest.asrt( b.prepare(store.selectByIdSql)==stmt, "statement reused" );
+                }
+            }
+            PersistentMap root = pd.getRootMap();
+            List<Thread> threads = new ArrayList<>();
+            for ( int t=0; t<store.poolSize*2; t++ ) {
+                root.put( "t"+t, Map.of() ); // NOTE: one parent per writer
+                PersistentMap own = (PersistentMap) root.get( "t"+t );
+                threads.add( Thread.ofVirtual().start( () -> {
+                    for ( int i=0; i<20; i++ ) own.put( "k"+i, i );
+                } ) );
+            }
+            for ( Thread t : threads ) t.join();
+            for ( int t=0; t<store.poolSize*2; t++ ) LibTest.asrtEQ( 20, ((Map<?,?>)root.get("t"+t)).size() );
+            LibTest.asrt( store.allConns.size()<=store.poolSize );
+            LibTest.asrtEQ( store.allConns.size(), store.idleConns.size(), "every connection returned" );
+            try {
+                store.setDurability( Durability.group( 5, 64 ) );
+                LibTest.asrt( false, "group durability accepted" );
+            } catch ( IllegalArgumentException expected ) {}
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}
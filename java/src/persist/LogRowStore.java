@@ -0,0 +1,887 @@
+package persist;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+import jLib.*;
+
+
+
+/**
+ * A RowStore with no database underneath: every change is appended to a log of memory-mapped segment files, and an
+ * in-memory index knows where the latest version of each row is. A write is a record copied into the page cache
+ * rather than a SQL statement and a disk sync, which is what makes it fast on a single node.
+ * - Each group of changes (one call, or one whole transaction) ends with a COMMIT record. Reopening replays the
+ *   files; a group without its COMMIT, and anything after a torn or corrupt record, is ignored.
+ * - Ids, keys and entry orders are held in memory; value_json stays in the mapped files and is read on demand.
+ * - Once superseded records outweigh live ones, a background thread copies the live rows into fresh segments and
+ *   deletes the old files. Neither writers nor readers wait while it copies; writers only wait for the swap.
+ * - When a commit reaches the disk follows the Durability set on it (SYNC until told otherwise): commits that are
+ *   waiting at the same time share one force of the dirty segments.
+ * NOTE: transactions are atomic and run one at a time, but other threads can read what a transaction has written
+ * before it commits; JdbcRowStore keeps it private until then.
+ * NOTE: entry orders must be unique per parent, as PersistentData always makes them; a clash throws.
+ */
+public class LogRowStore implements RowStore {
+    public static int defaultSegmentBytes = 64<<20;
+    public static long defaultCompactBytes = 64<<20;
+    private static final byte PUT=1, DELETE=2, COMMIT=3, ABORT=4, ROLLBACK_TO=5, RESET=6;
+    private static final int HEADER = 8; // NOTE: body length, then CRC32C of the body
+    private static final Session NO_SESSION = () -> {};
+    public final File dir;
+    public final String name;
+    private final int segmentBytes;
+    private final long compactBytes;
+    private final HashMap<Long,Entry> rows = new HashMap<>();
+    private final HashMap<Long,Children> children = new HashMap<>();
+    private final TreeMap<Long,Segment> segments = new TreeMap<>();
+    private Segment tail;
+    private long liveBytes = 0, logBytes = 0;
+    private final ReentrantLock writer = new ReentrantLock();
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final ArrayList<Undo> undo = new ArrayList<>();
+    private int depth = 0;
+    private volatile boolean closed = false;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final Object compactLock = new Object(); // NOTE: one compact() at a time; taken before writer
+    private final GroupCommit groupCommit = new GroupCommit( Durability.SYNC, this::sync );
+
+
+
+    /**
+     * The latest version of one row, and where its record is: the segment's sequence number in the high 32 bits of
+     * address, the offset in the low ones.
+     */
+    private record Entry( long id, long parentID, long entryOrder, String keyJson, long lastChangeTime, long address, int size ) {}
+    private record Undo( Entry before, Entry after ) {}
+    private static final class Children {
+        final HashMap<String,Long> byKey = new HashMap<>();
+        final TreeMap<Long,Long> byOrder = new TreeMap<>();
+    }
+    private static final class Segment {
+        final long seq;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buf;
+        int end = 0;
+        volatile boolean dirty = false;
+        Segment( File file, long seq, int capacity ) throws IOException {
+            this.seq = seq;
+            this.file = file;
+            this.channel = FileChannel.open( file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+            );
+            this.buf = channel.map( FileChannel.MapMode.READ_WRITE, 0, Math.max( channel.size(), capacity ) );
+        }
+    }
+
+
+
+    public LogRowStore( File dir, String name ) {
+        this( dir, name, defaultSegmentBytes, defaultCompactBytes );
+    }
+    LogRowStore( File dir, String name, int segmentBytes, long compactBytes ) {
+        this.dir = dir;
+        this.name = name;
+        this.segmentBytes = segmentBytes;
+        this.compactBytes = compactBytes;
+        dir.mkdirs();
+        try { recover(); }
+        catch ( IOException e ) { throw new UncheckedIOException(e); }
+    }
+
+
+
+    private File segmentFile( long seq ) {
+        return new File( dir, String.format( "%s.%08d.log", name, seq ) );
+    }
+
+
+
+    /**
+     * Replays every segment in order, applying each group of records when its COMMIT is reached.
+     */
+    private void recover() throws IOException {
+        String[] stale = dir.list( (d,n) -> n.startsWith(name+".compact.") && n.endsWith(".tmp") );
+        for ( String n : stale==null ? new String[0] : stale ) new File(dir,n).delete(); // NOTE: an unfinished compact()
+        String[] names = dir.list( (d,n) -> n.startsWith(name+".") && n.endsWith(".log") );
+        TreeMap<Long,File> files = new TreeMap<>();
+        for ( String n : names==null ? new String[0] : names ) {
+            String seq = n.substring( name.length()+1, n.length()-4 );
+            if ( seq.matches("[0-9]+") ) files.put( Long.parseLong(seq), new File(dir,n) );
+        }
+        List<Object> pending = new ArrayList<>(); // NOTE: an Entry to put, a Long id to delete, or RESET
+        for ( Map.Entry<Long,File> f : files.entrySet() ) {
+            Segment seg = new Segment( f.getValue(), f.getKey(), 0 );
+            segments.put( seg.seq, seg );
+            int pos = 0, cap = seg.buf.capacity();
+            while ( pos+HEADER < cap ) {
+                int len = seg.buf.getInt(pos);
+                if ( len<=0 || len > cap-pos-HEADER ) break;
+                CRC32C crc = new CRC32C();
+                crc.update( seg.buf.slice( pos+HEADER, len ) );
+                if ( (int)crc.getValue() != seg.buf.getInt(pos+4) ) break;
+                int body = pos+HEADER;
+                switch ( seg.buf.get(body) ) {
+                    case PUT -> pending.add( entry( seg.buf, body, seg.seq<<32 | pos, HEADER+len ) );
+                    case DELETE -> pending.add( seg.buf.getLong(body+1) );
+                    case RESET -> pending.add(RESET);
+                    case COMMIT -> {
+                        for ( Object op : pending ) replay(op);
+                        pending.clear();
+                    }
+                    case ABORT -> pending.clear();
+                    case ROLLBACK_TO -> pending.subList( seg.buf.getInt(body+1), pending.size() ).clear();
+                    default -> throw new IOException( "unknown record type at "+pos+" of "+seg.file );
+                }
+                pos += HEADER+len;
+                logBytes += HEADER+len;
+            }
+            seg.end = pos;
+            tail = seg;
+        }
+        if ( tail==null ) {
+            tail = new Segment( segmentFile(1), 1, segmentBytes );
+            segments.put( tail.seq, tail );
+        }
+        if (! pending.isEmpty() ) append( new byte[]{ ABORT } ); // NOTE: or the next COMMIT would adopt them
+    }
+    private void replay( Object op ) {
+        if ( op instanceof Entry e ) index(e);
+        else if ( op instanceof Long id ) {
+            Entry e = rows.get(id);
+            if ( e!=null ) unindex(e);
+        } else {
+            rows.clear();
+            children.clear();
+            liveBytes = 0;
+        }
+    }
+    private static Entry entry( ByteBuffer buf, int body, long address, int size ) {
+        int keyLen = buf.getInt( body+33 );
+        byte[] key = new byte[keyLen];
+        buf.get( body+37, key );
+        return new Entry(
+            buf.getLong(body+1), buf.getLong(body+9), buf.getLong(body+17), new String( key, StandardCharsets.UTF_8 ),
+            buf.getLong(body+25), address, size
+        );
+    }
+
+
+
+    /**
+     * Appends one record and returns its address. NOTE: the caller holds writer.
+     */
+    private long append( byte[] body ) {
+        int need = HEADER+body.length;
+        if ( need > tail.buf.capacity()-tail.end ) roll(need);
+        logBytes += need;
+        return tail.seq<<32 | write( tail, body );
+    }
+    /**
+     * Writes one record at the end of seg, which must have room, and returns its offset.
+     */
+    private static int write( Segment seg, byte[] body ) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        int pos = seg.end;
+        seg.buf.putInt( pos+4, (int)crc.getValue() );
+        seg.buf.put( pos+HEADER, body );
+        seg.buf.putInt( pos, body.length ); // NOTE: last, though only the CRC can really tell a torn write
+        seg.end = pos+HEADER+body.length;
+        seg.dirty = true;
+        return pos;
+    }
+    private void roll( int need ) {
+        try {
+            Segment next = new Segment( segmentFile(tail.seq+1), tail.seq+1, Math.max( segmentBytes, need ) );
+            indexLock.writeLock().lock();
+            try { segments.put( next.seq, next ); }
+            finally { indexLock.writeLock().unlock(); }
+            tail = next;
+        } catch ( IOException e ) { throw new UncheckedIOException(e); }
+    }
+    private static byte[] putBody( long id, long parentID, long entryOrder, long lastChangeTime, byte[] key, byte[] value ) {
+        ByteBuffer b = ByteBuffer.allocate( 41+key.length+value.length );
+        b.put(PUT).putLong(id).putLong(parentID).putLong(entryOrder).putLong(lastChangeTime);
+        b.putInt(key.length).put(key).putInt(value.length).put(value);
+        return b.array();
+    }
+
+
+
+    /**
+     * NOTE: the caller holds indexLock for reading, or writer.
+     */
+    private byte[] valueBytes( Entry e ) {
+        ByteBuffer buf = segments.get( e.address>>>32 ).buf;
+        int at = (int)e.address + HEADER + 37 + buf.getInt( (int)e.address+HEADER+33 );
+        byte[] value = new byte[ buf.getInt(at) ];
+        buf.get( at+4, value );
+        return value;
+    }
+    private Values values( Entry e ) {
+        if ( e==null ) return null;
+        String valueJson = new String( valueBytes(e), StandardCharsets.UTF_8 );
+        return new Values( e.id, e.parentID, e.entryOrder, e.keyJson, valueJson, e.lastChangeTime );
+    }
+
+
+
+    /**
+     * NOTE: the caller holds indexLock for writing.
+     */
+    private void index( Entry e ) {
+        Entry old = rows.put( e.id, e );
+        if ( old!=null ) {
+            unmap(old);
+            liveBytes -= old.size;
+        }
+        Children ch = children.computeIfAbsent( e.parentID, k -> new Children() );
+        ch.byKey.put( e.keyJson, e.id );
+        ch.byOrder.put( e.entryOrder, e.id ); // NOTE: may briefly overwrite a row that setEntryOrders() moves next
+        liveBytes += e.size;
+    }
+    private void unindex( Entry e ) {
+        if (! rows.remove( e.id, e ) ) return;
+        unmap(e);
+        liveBytes -= e.size;
+    }
+    private void unmap( Entry e ) {
+        Children ch = children.get( e.parentID );
+        if ( ch==null ) return;
+        ch.byKey.remove( e.keyJson, e.id );
+        ch.byOrder.remove( e.entryOrder, e.id );
+        if ( ch.byOrder.isEmpty() && ch.byKey.isEmpty() ) children.remove( e.parentID );
+    }
+
+
+
+    /**
+     * Swaps before for after in the index and remembers how to undo it. NOTE: the caller holds writer.
+     */
+    private void change( Entry before, Entry after ) {
+        indexLock.writeLock().lock();
+        try {
+            if ( before!=null ) unindex(before);
+            if ( after!=null ) index(after);
+        } finally { indexLock.writeLock().unlock(); }
+        undo.add( new Undo( before, after ) );
+    }
+    private Entry putRow( Entry before, long id, long parentID, long entryOrder, String keyJson, byte[] value, long time ) {
+        byte[] body = putBody( id, parentID, entryOrder, time, keyJson.getBytes(StandardCharsets.UTF_8), value );
+        long address = append(body);
+        Entry after = new Entry( id, parentID, entryOrder, keyJson, time, address, HEADER+body.length );
+        change( before, after );
+        return after;
+    }
+    private void deleteRow( Entry before ) {
+        append( ByteBuffer.allocate(9).put(DELETE).putLong(before.id).array() );
+        change( before, null );
+    }
+    private void checkOrderFree( long parentID, long entryOrder, Set<Long> movers ) {
+        Children ch = children.get(parentID);
+        Long taken = ch==null ? null : ch.byOrder.get(entryOrder);
+        if ( taken!=null && ( movers==null || !movers.contains(taken) ) ) throw new IllegalStateException(
+            "entry order "+entryOrder+" under "+parentID+" is taken by "+taken
+        );
+    }
+
+
+
+    /**
+     * Holds writer for the whole of work, so transactions run one at a time. Each record written is matched by an
+     * Undo entry; a failure undoes the index back to where it started and logs ABORT (or ROLLBACK_TO for a nested
+     * call) so replay skips the same records. The wait for the disk comes after writer is released, so the next
+     * transactions can commit meanwhile and share the sync.
+     */
+    @Override public void transaction( Runnable work ) {
+        long seq = 0;
+        writer.lock();
+        try {
+            if ( closed ) throw new IllegalStateException( "LogRowStore is closed" );
+            int mark = undo.size();
+            depth++;
+            try {
+                work.run();
+            } catch ( RuntimeException | Error e ) {
+                try { rollbackTo(mark); }
+                catch ( RuntimeException | Error suppressed ) { e.addSuppressed(suppressed); }
+                throw e;
+            } finally {
+                depth--;
+            }
+            if ( depth==0 ) {
+                append( new byte[]{ COMMIT } );
+                undo.clear();
+                seq = groupCommit.committed();
+                maybeCompact();
+            }
+        } finally { writer.unlock(); }
+        if ( seq>0 ) groupCommit.waitDurable(seq);
+    }
+    private void rollbackTo( int mark ) {
+        indexLock.writeLock().lock();
+        try {
+            for ( int i=undo.size()-1; i>=mark; i-- ) {
+                Undo u = undo.remove(i);
+                if ( u.after!=null ) unindex( u.after );
+                if ( u.before!=null ) index( u.before );
+            }
+        } finally { indexLock.writeLock().unlock(); }
+        if ( depth==1 ) append( new byte[]{ ABORT } );
+        else append( ByteBuffer.allocate(5).put(ROLLBACK_TO).putInt(mark).array() );
+    }
+    @Override public Session session() { return NO_SESSION; }
+
+
+
+    @Override public boolean insert( Values row ) {
+        transaction( () -> insertRow(row) );
+        return true;
+    }
+    @Override public void insertAll( List<Values> rows ) {
+        if ( rows.isEmpty() ) return;
+        transaction( () -> { for ( Values row : rows ) insertRow(row); } );
+    }
+    private void insertRow( Values row ) {
+        if ( rows.containsKey( row.id() ) ) throw new IllegalStateException( "row "+row.id()+" already exists" );
+        checkOrderFree( row.parentID(), row.entryOrder(), null );
+        putRow(
+            null, row.id(), row.parentID(), row.entryOrder(), row.keyJson(),
+            row.valueJson().getBytes(StandardCharsets.UTF_8), row.lastChangeTime()
+        );
+    }
+
+
+
+    @Override public boolean update( long id, Values changes ) {
+        boolean[] found = new boolean[1];
+        transaction( () -> {
+            Entry before = rows.get(id);
+            if ( before==null ) return;
+            found[0] = true;
+            long newID = changes.id()!=null ? changes.id() : id;
+            long parentID = changes.parentID()!=null ? changes.parentID() : before.parentID;
+            long entryOrder = changes.entryOrder()!=null ? changes.entryOrder() : before.entryOrder;
+            String keyJson = changes.keyJson()!=null ? changes.keyJson() : before.keyJson;
+            byte[] value = changes.valueJson()!=null ? changes.valueJson().getBytes(StandardCharsets.UTF_8) : valueBytes(before);
+            long time = changes.lastChangeTime()!=null ? changes.lastChangeTime() : before.lastChangeTime;
+            if ( parentID!=before.parentID || entryOrder!=before.entryOrder ) checkOrderFree( parentID, entryOrder, null );
+            if ( newID!=id ) {
+                if ( rows.containsKey(newID) ) throw new IllegalStateException( "row "+newID+" already exists" );
+                deleteRow(before);
+                before = null;
+            }
+            putRow( before, newID, parentID, entryOrder, keyJson, value, time );
+        } );
+        return found[0];
+    }
+
+
+
+    @Override public boolean delete( long id ) {
+        boolean[] found = new boolean[1];
+        transaction( () -> {
+            Entry before = rows.get(id);
+            if ( before==null ) return;
+            found[0] = true;
+            deleteRow(before);
+        } );
+        return found[0];
+    }
+    /**
+     * NOTE: rewrites each child's whole record, value included; children of one parent only, so it stays bounded.
+     */
+    @Override public long moveChildren( long fromParentID, long toParentID ) {
+        long[] count = new long[1];
+        transaction( () -> {
+            Children ch = children.get(fromParentID);
+            if ( ch==null ) return;
+            for ( Long id : new ArrayList<>( ch.byOrder.values() ) ) {
+                Entry before = rows.get(id);
+                checkOrderFree( toParentID, before.entryOrder, null );
+                putRow( before, id, toParentID, before.entryOrder, before.keyJson, valueBytes(before), before.lastChangeTime );
+                count[0]++;
+            }
+        } );
+        return count[0];
+    }
+
+
+
+    @Override public void setEntryOrders( long[] ids, long[] entryOrders ) {
+        transaction( () -> {
+            Set<Long> movers = new HashSet<>();
+            for ( long id : ids ) movers.add(id);
+            Entry[] before = new Entry[ids.length];
+            for ( int i=0; i<ids.length; i++ ) {
+                before[i] = rows.get( ids[i] );
+                if ( before[i]==null ) throw new IllegalStateException( "no row "+ids[i] );
+                checkOrderFree( before[i].parentID, entryOrders[i], movers );
+            }
+            for ( int i=0; i<ids.length; i++ ) {
+                Entry b = before[i];
+                putRow( b, b.id, b.parentID, entryOrders[i], b.keyJson, valueBytes(b), b.lastChangeTime );
+            }
+        } );
+    }
+
+
+
+    @Override public Values selectById( long id ) {
+        indexLock.readLock().lock();
+        try { return values( rows.get(id) ); }
+        finally { indexLock.readLock().unlock(); }
+    }
+    @Override public Values selectByKey( long parentID, String keyJson ) {
+        indexLock.readLock().lock();
+        try {
+            Children ch = children.get(parentID);
+            Long id = ch==null ? null : ch.byKey.get(keyJson);
+            return id==null ? null : values( rows.get(id) );
+        } finally { indexLock.readLock().unlock(); }
+    }
+    @Override public Values selectByOrder( long parentID, long entryOrder ) {
+        indexLock.readLock().lock();
+        try {
+            Children ch = children.get(parentID);
+            Long id = ch==null ? null : ch.byOrder.get(entryOrder);
+            return id==null ? null : values( rows.get(id) );
+        } finally { indexLock.readLock().unlock(); }
+    }
+
+
+
+    @Override public List<Values> page( long parentID, long afterEntryOrder, int limit ) {
+        List<Values> page = new ArrayList<>();
+        indexLock.readLock().lock();
+        try {
+            Children ch = children.get(parentID);
+            if ( ch==null ) return page;
+            for ( Long id : ch.byOrder.tailMap( afterEntryOrder, false ).values() ) {
+                if ( page.size()>=limit ) break;
+                page.add( values( rows.get(id) ) );
+            }
+            return page;
+        } finally { indexLock.readLock().unlock(); }
+    }
+    @Override public long[] entryOrders( long parentID ) {
+        indexLock.readLock().lock();
+        try {
+            Children ch = children.get(parentID);
+            if ( ch==null ) return new long[0];
+            return ch.byOrder.keySet().stream().mapToLong( Long::longValue ).toArray();
+        } finally { indexLock.readLock().unlock(); }
+    }
+    @Override public long[] stats( long parentID ) {
+        indexLock.readLock().lock();
+        try {
+            Children ch = children.get(parentID);
+            if ( ch==null || ch.byOrder.isEmpty() ) return new long[3];
+            return new long[]{ ch.byOrder.size(), ch.byOrder.firstKey(), ch.byOrder.lastKey() };
+        } finally { indexLock.readLock().unlock(); }
+    }
+    @Override public long[] idsInRange( long parentID, long fromEntryOrder, long toEntryOrder ) {
+        indexLock.readLock().lock();
+        try {
+            Children ch = children.get(parentID);
+            if ( ch==null ) return new long[0];
+            return ch.byOrder.subMap( fromEntryOrder, true, toEntryOrder, true ).values().stream()
+                .mapToLong( Long::longValue ).toArray();
+        } finally { indexLock.readLock().unlock(); }
+    }
+    @Override public long[] ids() {
+        indexLock.readLock().lock();
+        try {
+            long[] ids = new long[ rows.size() ];
+            int i = 0;
+            for ( Long parentID : new TreeSet<>( children.keySet() ) ) {
+                for ( Long id : children.get(parentID).byOrder.values() ) ids[i++] = id;
+            }
+            return Arrays.copyOf( ids, i );
+        } finally { indexLock.readLock().unlock(); }
+    }
+    @Override public long[] parentIDsBelow( long maxParentID ) {
+        indexLock.readLock().lock();
+        try {
+            return children.keySet().stream().mapToLong( Long::longValue ).filter( p -> p<maxParentID ).sorted().toArray();
+        } finally { indexLock.readLock().unlock(); }
+    }
+
+
+
+    /**
+     * Starts a compaction once superseded records are both more than compactBytes and more than the live ones, so
+     * the log stays under about twice the live data. NOTE: the caller holds writer.
+     */
+    private void maybeCompact() {
+        long garbage = logBytes-liveBytes;
+        if ( garbage<compactBytes || garbage<liveBytes ) return;
+        if (! compacting.compareAndSet( false, true ) ) return;
+        Thread.ofVirtual().name( "LogRowStore compact "+name ).start( () -> {
+            try { compact(); }
+            catch ( Throwable t ) { Log.log(t); }
+            finally { compacting.set(false); }
+        } );
+    }
+    /**
+     * Copies every live row into temporary segments as one RESET..COMMIT group and forces them to disk while
+     * writers carry on. Then, holding writer, it adds whatever changed meanwhile to the same group, renames the copies
+     * into the log after its last segment, points the index at them and deletes the old files. Until the swap, readers
+     * keep using the old segments. A crash part way through leaves the old files complete and the new group
+     * uncommitted or not in the log at all, so replay gives the same rows either way.
+     */
+    public void compact() {
+        synchronized (compactLock) {
+            Map<Long,Entry> snapshot;
+            Map<Long,Segment> from;
+            long bytesBefore;
+            writer.lock();
+            try {
+                if ( closed || depth>0 ) return;
+                snapshot = new HashMap<>(rows);
+                from = new HashMap<>(segments);
+                bytesBefore = logBytes;
+            } finally { writer.unlock(); }
+            Compaction c = new Compaction();
+            try {
+                c.add( new byte[]{ RESET } );
+                for ( Entry e : snapshot.values() ) c.copy( e, from.get( e.address>>>32 ) );
+                c.force(0);
+                writer.lock();
+                try {
+                    if ( closed ) return;
+                    int unforced = c.out.size()-1;
+                    for ( Entry e : rows.values() ) {
+                        if (! e.equals( snapshot.get(e.id) ) ) c.copy( e, segments.get( e.address>>>32 ) );
+                    }
+                    for ( Long id : snapshot.keySet() ) {
+                        if (! rows.containsKey(id) ) c.add( ByteBuffer.allocate(9).put(DELETE).putLong(id).array() );
+                    }
+                    c.add( new byte[]{ COMMIT } );
+                    c.force(unforced);
+                    swap(c);
+                } finally { writer.unlock(); }
+            } catch ( IOException e ) {
+                throw new UncheckedIOException(e);
+            } finally {
+                c.discard();
+            }
+            Log.log( "compacted "+name+" from "+bytesBefore+" to "+c.bytes+" bytes" );
+        }
+    }
+    /**
+     * Renames the copies into the log, after its last segment, and makes them the only segments. NOTE: the caller
+     * holds writer.
+     */
+    private void swap( Compaction c ) throws IOException {
+        List<Segment> copies = new ArrayList<>();
+        long seq = tail.seq;
+        for ( Segment t : c.out ) {
+            File f = segmentFile(++seq);
+            Files.move( t.file.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            c.files.set( c.files.indexOf(t.file), f );
+            Segment seg = new Segment( f, seq, 0 );
+            seg.end = t.end;
+            copies.add(seg);
+        }
+        List<Segment> old = new ArrayList<>( segments.values() );
+        indexLock.writeLock().lock();
+        try {
+            rows.replaceAll( (id,e) -> {
+                Entry m = c.moved.get(id);
+                long address = copies.get( (int)( m.address>>>32 ) ).seq<<32 | ( m.address & 0xFFFFFFFFL );
+                return new Entry( e.id, e.parentID, e.entryOrder, e.keyJson, e.lastChangeTime, address, e.size );
+            } );
+            for ( Segment seg : old ) segments.remove( seg.seq );
+            for ( Segment seg : copies ) segments.put( seg.seq, seg );
+        } finally { indexLock.writeLock().unlock(); }
+        tail = copies.get( copies.size()-1 );
+        logBytes = c.bytes;
+        c.files.clear(); // NOTE: they are the log now
+        for ( Segment seg : old ) {
+            try { seg.channel.close(); } catch ( IOException ignore ) {}
+            if (! seg.file.delete() ) Log.log( "could not delete "+seg.file );
+        }
+    }
+    /**
+     * What compact() has written so far: temporary segment files, and where each row's copy is, with the index of
+     * its segment in out standing in for the sequence number until the swap.
+     */
+    private final class Compaction {
+        final List<Segment> out = new ArrayList<>();
+        final List<File> files = new ArrayList<>(); // NOTE: deleted by discard() unless swapped in
+        final HashMap<Long,Entry> moved = new HashMap<>();
+        long bytes = 0;
+
+        long add( byte[] body ) throws IOException {
+            int need = HEADER+body.length;
+            Segment seg = out.isEmpty() ? null : out.get( out.size()-1 );
+            if ( seg==null || need > seg.buf.capacity()-seg.end ) {
+                File f = new File( dir, name+".compact."+out.size()+".tmp" );
+                files.add(f);
+                seg = new Segment( f, out.size(), Math.max( segmentBytes, need ) );
+                out.add(seg);
+            }
+            bytes += need;
+            return (long)( out.size()-1 )<<32 | write( seg, body );
+        }
+        void copy( Entry e, Segment from ) throws IOException {
+            byte[] body = new byte[ e.size-HEADER ];
+            from.buf.get( (int)e.address+HEADER, body );
+            long address = add(body);
+            moved.put( e.id, new Entry( e.id, e.parentID, e.entryOrder, e.keyJson, e.lastChangeTime, address, e.size ) );
+        }
+        void force( int fromIndex ) {
+            for ( Segment seg : out.subList( fromIndex, out.size() ) ) seg.buf.force();
+        }
+        void discard() {
+            for ( Segment seg : out ) {
+                try { seg.channel.close(); } catch ( IOException ignore ) {}
+            }
+            for ( File f : files ) f.delete();
+        }
+    }
+
+
+
+    @Override public void setDurability( Durability durability ) { groupCommit.setDurability(durability); }
+    @Override public void flush() { groupCommit.flush(); }
+    /**
+     * Forces every segment written since the last sync to disk; GroupCommit decides when.
+     */
+    private void sync() {
+        List<Segment> dirty = new ArrayList<>();
+        indexLock.readLock().lock();
+        try {
+            for ( Segment seg : segments.values() ) if ( seg.dirty ) dirty.add(seg);
+        } finally { indexLock.readLock().unlock(); }
+        for ( Segment seg : dirty ) {
+            seg.dirty = false;
+            seg.buf.force();
+        }
+    }
+
+
+
+    @Override
+    public void close() {
+        writer.lock();
+        try {
+            if ( closed ) return;
+            closed = true;
+            groupCommit.close();
+            for ( Segment seg : segments.values() ) {
+                try { seg.channel.close(); } catch ( IOException ignore ) {}
+            }
+        } finally { writer.unlock(); }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( TmpDir tmp = new TmpDir() ) {
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "t" ) ) {
+                store.insert( new Values( 1L, 0L, 0L, "\"a\"", "1", 10L ) );
+                store.insertAll( List.of(
+                    new Values( 2L, 0L, 100L, "\"b\"", "\"two\"", 10L ),
+                    new Values( 3L, 0L, 200L, "\"c\"", "MAP", 10L ),
+                    new Values( 4L, 3L, 0L, "\"d\"", "[\"é\"]", 10L )
+                ) );
+                LibTest.asrtEQ( "\"two\"", store.selectByKey( 0L, "\"b\"" ).valueJson() );
+                LibTest.asrtEQ( 3L, store.selectByOrder( 0L, 200L ).id() );
+                LibTest.asrt( store.update( 1L, new Values( null, null, null, null, "11", 20L ) ) );
+                LibTest.asrt( store.delete(2L) );
+                LibTest.asrt(! store.delete(2L) );
+                try {
+                    store.insert( new Values( 5L, 0L, 0L, "\"e\"", "5", 10L ) );
+                    LibTest.asrt( false, "duplicate entry order accepted" );
+                } catch ( IllegalStateException expected ) {}
+                try {
+                    store.transaction( () -> {
+                        store.insert( new Values( 6L, 0L, 300L, "\"f\"", "6", 10L ) );
+                        store.transaction( () -> store.delete(1L) );
+                        try {
+                            store.transaction( () -> {
+                                store.delete(3L);
+                                throw new IllegalStateException("inner abort");
+                            } );
+                        } catch ( IllegalStateException expected ) {}
+                        LibTest.asrt( store.selectById(3L)!=null, "savepoint rolled back" );
+                        throw new IllegalStateException("abort");
+                    } );
+                } catch ( IllegalStateException expected ) {}
+                LibTest.asrtEQ( null, store.selectById(6L), "rolled back" );
+                LibTest.asrtEQ( "11", store.selectById(1L).valueJson(), "rolled back" );
+                store.transaction( () -> {
+                    store.insert( new Values( 7L, 0L, 300L, "\"g\"", "7", 10L ) );
+                    try {
+                        store.transaction( () -> {
+                            store.setEntryOrders( new long[]{ 1L, 3L }, new long[]{ 200L, 0L } );
+                            throw new IllegalStateException("inner abort");
+                        } );
+                    } catch ( IllegalStateException expected ) {}
+                    store.setEntryOrders( new long[]{ 1L, 3L }, new long[]{ 200L, 0L } ); // NOTE: a swap
+                } );
+                { // a torn write: a group that never commits
+                    store.writer.lock();
+                    try { store.append( putBody( 8L, 0L, 400L, 10L, "\"h\"".getBytes(), "8".getBytes() ) ); }
+                    finally { store.writer.unlock(); }
+                }
+            }
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "t" ) ) {
+                LibTest.asrtEQ( "11", store.selectById(1L).valueJson(), "replayed" );
+                LibTest.asrtEQ( null, store.selectById(2L), "deleted" );
+                LibTest.asrtEQ( null, store.selectById(6L), "aborted" );
+                LibTest.asrtEQ( null, store.selectById(8L), "uncommitted" );
+                LibTest.asrtEQ( "[\"é\"]", store.selectById(4L).valueJson() );
+                LibTest.asrtEQ( "[0, 200, 300]", Arrays.toString( store.entryOrders(0L) ) );
+                LibTest.asrtEQ( "[3, 1, 7]", Arrays.toString( store.idsInRange( 0L, 0L, 300L ) ), "savepoint replayed" );
+                LibTest.asrtEQ( "[3, 0, 300]", Arrays.toString( store.stats(0L) ) );
+                LibTest.asrtEQ( 3L, store.moveChildren( 0L, -5L ) );
+                LibTest.asrtEQ( "[-5, 3]", Arrays.toString( store.parentIDsBelow(4L) ), "4 hangs under 3" );
+                LibTest.asrtEQ( 0L, store.stats(0L)[0] );
+                LibTest.asrtEQ( 4, store.ids().length );
+                for ( long id : store.ids() ) LibTest.asrt( store.delete(id) );
+                LibTest.asrtEQ( 0, store.ids().length );
+            }
+            long end;
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "t" ) ) {
+                LibTest.asrtEQ( 0, store.rows.size() );
+                store.insert( new Values( 9L, 0L, 0L, "\"i\"", "9", 10L ) );
+                end = store.tail.end;
+            }
+            try ( RandomAccessFile f = new RandomAccessFile( new File( tmp.dir, "t.00000001.log" ), "rw" ) ) {
+                f.seek(end);
+                f.write( new byte[]{ 0, 0, 0, 9, 1, 2, 3, 4, 1, 2, 3, 4, 5, 6, 7, 8, 9 } ); // NOTE: a bad CRC
+            }
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "t" ) ) {
+                LibTest.asrtEQ( "9", store.selectById(9L).valueJson(), "torn record ignored" );
+                LibTest.asrtEQ( end, (long)store.tail.end );
+                store.insert( new Values( 10L, 0L, 1L, "\"j\"", "10", 10L ) );
+            }
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "t" ) ) {
+                LibTest.asrtEQ( "10", store.selectById(10L).valueJson(), "written over the torn record" );
+            }
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean compact_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( TmpDir tmp = new TmpDir() ) {
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "c", 4096, 8192 ) ) {
+                store.setDurability( Durability.async(60_000) );
+                for ( long id=1; id<=20; id++ ) store.insert( new Values( id, 0L, id, "\"k"+id+"\"", "0", 0L ) );
+                for ( int i=1; i<=2000; i++ ) {
+                    store.update( 1+i%20, new Values( null, null, null, null, "\"v"+i+"\"", (long)i ) );
+                }
+                long deadline = System.currentTimeMillis()+5000;
+                while ( store.compacting.get() && System.currentTimeMillis()<deadline ) Thread.sleep(10);
+                store.compact();
+                LibTest.asrt( store.segments.size()<=2, "old segments deleted: "+store.segments.size() );
+                LibTest.asrt( tmp.dir.list().length<=2 );
+                LibTest.asrtEQ( "\"v2000\"", store.selectById(1L).valueJson() );
+                LibTest.asrtEQ( "\"v1999\"", store.selectByKey( 0L, "\"k20\"" ).valueJson() );
+                store.update( 5L, new Values( null, null, null, null, "\"after\"", 0L ) );
+            }
+            String dump;
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "c", 4096, 1L<<40 ) ) { // NOTE: compact() only when told
+                LibTest.asrtEQ( 20, store.ids().length );
+                LibTest.asrtEQ( "\"v2000\"", store.selectById(1L).valueJson() );
+                LibTest.asrtEQ( "\"after\"", store.selectById(5L).valueJson() );
+                store.setDurability( Durability.async(60_000) );
+                AtomicBoolean writing = new AtomicBoolean(true);
+                Thread compactor = Thread.ofVirtual().start( () -> { while ( writing.get() ) store.compact(); } );
+                for ( int i=1; i<=500; i++ ) { // NOTE: writes while it copies; the swap must carry them over
+                    store.update( 1+i%20, new Values( null, null, null, null, "\"w"+i+"\"", (long)i ) );
+                    if ( i%50!=0 ) continue;
+                    store.delete( 20L-i/50 );
+                    store.insert( new Values( 100L+i, 0L, 100L+i, "\"n"+i+"\"", "\"new\"", 0L ) );
+                }
+                writing.set(false);
+                compactor.join();
+                store.compact();
+                dump = dump(store);
+                LibTest.asrtEQ( 20, store.ids().length );
+                LibTest.asrtEQ( "\"w500\"", store.selectById(1L).valueJson() );
+                LibTest.asrtEQ( null, store.selectById(10L) );
+            }
+            try ( LogRowStore store = new LogRowStore( tmp.dir, "c", 4096, 1L<<40 ) ) {
+                LibTest.asrtEQ( dump, dump(store) );
+                LibTest.asrtEQ( 1, tmp.dir.list().length );
+            }
+        }
+        return true;
+    }
+
+
+
+    private static String dump( LogRowStore store ) {
+        StringBuilder sb = new StringBuilder();
+        for ( long id : store.ids() ) sb.append( store.selectById(id) ).append('\n');
+        return sb.toString();
+    }
+
+
+
+    @SuppressWarnings({"unused", "try"})
+    private static boolean persistentData_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( TmpDir tmp = new TmpDir() ) {
+            List<Object> expected = new ArrayList<>();
+            try ( PersistentData pd = new PersistentData( "log:"+tmp.dir.getPath(), "pd" ) ) {
+                PersistentMap root = pd.getRootMap();
+                root.put( "cfg", Map.of( "mode", "fast", "n", 3 ) );
+                root.put( "list", List.of( "a", "b" ) );
+                PersistentList list = (PersistentList) root.get("list");
+                expected.addAll( List.of( "a", "b" ) );
+                for ( int i=0; i<100; i++ ) { // NOTE: one spot, so entry orders get respread
+                    list.add( 1, i );
+                    expected.add( 1, i );
+                }
+                try {
+                    pd.transaction( () -> {
+                        list.push("lost");
+                        throw new IllegalStateException("abort");
+                    } );
+                } catch ( IllegalStateException expected2 ) {}
+                LibTest.asrtEQ( JsonEncoder.encode(expected), JsonEncoder.encode(list) );
+                root.put( "old", Map.of( "x", Map.of( "y", 1 ) ) );
+                long reclaimed = pd.gcReclaimedRows();
+                root.remove("old");
+                pd.deleteOrphans(0); // NOTE: whatever the background collector has not done yet
+                LibTest.asrtEQ( reclaimed+3, pd.gcReclaimedRows(), "old, x and y" );
+                pd.importJson( pd.row( -1000, "\"cfg\"" ).select().id, new StringReader( "{\"mode\":\"safe\"}" ) );
+            }
+            try ( PersistentData pd = new PersistentData( "log:"+tmp.dir.getPath(), "pd" ) ) {
+                PersistentMap root = pd.getRootMap();
+                LibTest.asrtEQ( JsonEncoder.encode(expected), JsonEncoder.encode( root.get("list") ) );
+                LibTest.asrtEQ( "safe", ((Map<?,?>)root.get("cfg")).get("mode") );
+                LibTest.asrtEQ( 2, root.size() );
+                long listID = pd.row( -1000, "\"list\"" ).select().id;
+                LibTest.asrt( pd.entryOrderCheck( listID, true ) );
+            }
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}
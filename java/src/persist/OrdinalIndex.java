@@ -0,0 +1,241 @@
+package persist;
+import java.util.*;
+import jLib.LibTest;
+
+
+
+/**
+ * The sorted entry_order values of one container, for answering "which ordinal is the i-th element" and
+ * "what rank has this ordinal" without assuming the ordinals are contiguous. Values are kept in chunks of at
+ * most CHUNK longs with a Fenwick tree over the chunk sizes, so get, rankOf, add, remove and set cost O(log n)
+ * plus a shift inside one small chunk, even for millions of elements.
+ * NOTE: not thread-safe; PersistentData synchronizes on its index map around every use.
+ */
+final class OrdinalIndex {
+
+
+
+    private static final int CHUNK = 512;
+    private long[][] chunks = new long[4][];
+    private int[] sizes = new int[4];
+    private int chunkCount = 0;
+    private int[] tree = new int[1]; // Fenwick tree over sizes, 1-based
+    private long size = 0;
+
+
+
+    static OrdinalIndex of( long[] sorted, int count ) {
+        OrdinalIndex ix = new OrdinalIndex();
+        int fill = CHUNK*3/4; // NOTE: leave room, so the first inserts don't split every chunk
+        int chunkTotal = ( count+fill-1 ) / fill;
+        ix.chunks = new long[ Math.max(4,chunkTotal) ][];
+        ix.sizes = new int[ ix.chunks.length ];
+        for ( int from=0; from<count; from+=fill ) {
+            int n = Math.min( fill, count-from );
+            long[] chunk = new long[CHUNK];
+            System.arraycopy( sorted, from, chunk, 0, n );
+            ix.chunks[ ix.chunkCount ] = chunk;
+            ix.sizes[ ix.chunkCount ] = n;
+            ix.chunkCount++;
+        }
+        ix.size = count;
+        ix.rebuildTree();
+        return ix;
+    }
+
+
+
+    long size() { return size; }
+    long first() { return chunks[0][0]; }
+    long last() { return chunks[ chunkCount-1 ][ sizes[chunkCount-1]-1 ]; }
+
+
+
+    long get( long rank ) {
+        if ( rank<0 || rank>=size ) throw new IndexOutOfBoundsException( rank+" of "+size );
+        long loc = locate(rank);
+        return chunks[ (int)(loc>>>32) ][ (int)loc ];
+    }
+
+
+
+    /**
+     * Rank of ordinal, or -(insertion rank)-1 if it is absent, like Arrays.binarySearch.
+     */
+    long rankOf( long ordinal ) {
+        if ( chunkCount==0 ) return -1;
+        int c = chunkFor(ordinal);
+        int pos = Arrays.binarySearch( chunks[c], 0, sizes[c], ordinal );
+        long before = prefix(c);
+        return pos>=0 ? before+pos : -( before + (-pos-1) ) - 1;
+    }
+
+
+
+    void add( long ordinal ) {
+        if ( chunkCount==0 ) {
+            chunks[0] = new long[CHUNK];
+            chunkCount = 1;
+            rebuildTree();
+        }
+        int c = chunkFor(ordinal);
+        if ( sizes[c]==CHUNK ) {
+            split(c);
+            if ( ordinal>chunks[c][ sizes[c]-1 ] ) c++;
+        }
+        int pos = Arrays.binarySearch( chunks[c], 0, sizes[c], ordinal );
+        if ( pos<0 ) pos = -pos-1;
+        System.arraycopy( chunks[c], pos, chunks[c], pos+1, sizes[c]-pos );
+        chunks[c][pos] = ordinal;
+        sizes[c]++;
+        size++;
+        treeAdd( c, 1 );
+    }
+
+
+
+    boolean remove( long ordinal ) {
+        if ( chunkCount==0 ) return false;
+        int c = chunkFor(ordinal);
+        int pos = Arrays.binarySearch( chunks[c], 0, sizes[c], ordinal );
+        if ( pos<0 ) return false;
+        System.arraycopy( chunks[c], pos+1, chunks[c], pos, sizes[c]-pos-1 );
+        sizes[c]--;
+        size--;
+        if ( sizes[c]==0 ) {
+            System.arraycopy( chunks, c+1, chunks, c, chunkCount-c-1 );
+            System.arraycopy( sizes, c+1, sizes, c, chunkCount-c-1 );
+            chunkCount--;
+            chunks[chunkCount] = null;
+            rebuildTree();
+        } else {
+            treeAdd( c, -1 );
+        }
+        return true;
+    }
+
+
+
+    /**
+     * Replaces the ordinal at rank; the caller guarantees it stays between its neighbours.
+     */
+    void set( long rank, long ordinal ) {
+        long loc = locate(rank);
+        chunks[ (int)(loc>>>32) ][ (int)loc ] = ordinal;
+    }
+
+
+
+    /**
+     * Chunk index in the high and offset in the low 32 bits.
+     */
+    private long locate( long rank ) {
+        int pos = 0;
+        long rem = rank;
+        for ( int step=Integer.highestOneBit( Math.max(1,chunkCount) ); step>0; step>>=1 ) {
+            if ( pos+step<=chunkCount && tree[pos+step]<=rem ) {
+                pos += step;
+                rem -= tree[pos];
+            }
+        }
+        return ( (long)pos<<32 ) | rem;
+    }
+
+
+
+    /**
+     * The first chunk whose last value is >= ordinal, or the last chunk.
+     */
+    private int chunkFor( long ordinal ) {
+        int lo=0, hi=chunkCount-1;
+        while ( lo<hi ) {
+            int mid = (lo+hi) >>> 1;
+            if ( chunks[mid][ sizes[mid]-1 ] < ordinal ) lo = mid+1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+
+
+    private long prefix( int chunk ) {
+        long sum = 0;
+        for ( int i=chunk; i>0; i-=i&-i ) sum += tree[i];
+        return sum;
+    }
+
+
+
+    private void treeAdd( int chunk, int delta ) {
+        for ( int i=chunk+1; i<=chunkCount; i+=i&-i ) tree[i] += delta;
+    }
+
+
+
+    private void split( int c ) {
+        if ( chunkCount==chunks.length ) {
+            chunks = Arrays.copyOf( chunks, chunkCount*2 );
+            sizes = Arrays.copyOf( sizes, chunkCount*2 );
+        }
+        System.arraycopy( chunks, c+1, chunks, c+2, chunkCount-c-1 );
+        System.arraycopy( sizes, c+1, sizes, c+2, chunkCount-c-1 );
+        int half = sizes[c]/2;
+        long[] upper = new long[CHUNK];
+        System.arraycopy( chunks[c], half, upper, 0, sizes[c]-half );
+        chunks[c+1] = upper;
+        sizes[c+1] = sizes[c]-half;
+        sizes[c] = half;
+        chunkCount++;
+        rebuildTree(); // NOTE: O(chunks), but only once per CHUNK/2 inserts into a chunk
+    }
+
+
+
+    private void rebuildTree() {
+        tree = new int[ chunkCount+1 ];
+        for ( int i=1; i<=chunkCount; i++ ) {
+            tree[i] += sizes[i-1];
+            int parent = i + (i&-i);
+            if ( parent<=chunkCount ) tree[parent] += tree[i];
+        }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) {
+        if (findLineNumber) throw new RuntimeException();
+        TreeSet<Long> expected = new TreeSet<>();
+        long[] initial = new long[3000];
+        for ( int i=0; i<initial.length; i++ ) {
+            initial[i] = i*100L;
+            expected.add( i*100L );
+        }
+        OrdinalIndex ix = OrdinalIndex.of( initial, initial.length );
+        Random rnd = new Random(42);
+        for ( int i=0; i<5000; i++ ) {
+            long v = rnd.nextInt(400_000);
+            if ( rnd.nextInt(3)==0 ) LibTest.asrtEQ( expected.remove(v), ix.remove(v) );
+            else if ( expected.add(v) ) ix.add(v);
+        }
+        LibTest.asrtEQ( (long)expected.size(), ix.size() );
+        long rank = 0;
+        for ( long v : expected ) {
+            if ( rank%97==0 ) {
+                LibTest.asrtEQ( v, ix.get(rank) );
+                LibTest.asrtEQ( rank, ix.rankOf(v) );
+            }
+            rank++;
+        }
+        LibTest.asrtEQ( expected.first(), ix.first() );
+        LibTest.asrtEQ( expected.last(), ix.last() );
+        LibTest.asrt( ix.rankOf(-5)==-1 );
+        ix.set( 0, expected.first()-1 );
+        LibTest.asrtEQ( expected.first()-1, ix.first() );
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
@@ -1,8 +1,9 @@
 package persist;
 import java.io.*;
-import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
 import jLib.*;
 import jLib.Lib;
 import jLib.LibString;
@@ -19,54 +20,110 @@ import jLib.LibString;
 public class PersistentData implements AutoCloseable {
     private static final long R00T_ID = -1000;
     private static final long R00T_PARENT_ID = -9999;
-    private final String tableName;
-    private final Connection conn;
+    public final RowStore store;
     public final ConcurrentLinkedDeque<Runnable> beforeClose = new ConcurrentLinkedDeque<>();
     public final ConcurrentLinkedDeque<Runnable> afterClose = new ConcurrentLinkedDeque<>();
     public static String defaultJdbcUrl = "jdbc:hsqldb:file:./datafiles/dbf/PersistentData";
-    
-    static {
-        try {
-            Class.forName("org.hsqldb.jdbc.JDBCDriver");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("Failed to load HSQLDB JDBC driver", e);
+    public static int defaultPoolSize = 8;
+    private static final int BULK_BATCH_SIZE = 500;
+    static final long ORDER_SPACING = 1L<<16;
+    private static final long MIN_ORDER_STEP = 64;
+    private static final int MAX_ORDINAL_INDEXES = 256;
+    private static final int MAX_CONTAINER_STATS = 10_000;
+    private static final int LOAD_STAMPS = 1024;
+    private static final int ROW_PAGE = 100;
+    public static int defaultCacheSize = 10_000;
+    public static Durability defaultDurability = Durability.SYNC;
+    public static int gcBatchRows = 500;
+    public static long gcPauseMillis = 10;
+    public static long writeWaitMillis = 10_000;
+    private volatile boolean closed = false;
+    private final RowCache rowCache;
+    private final SubtreeCollector collector;
+    private final ThreadLocal<Txn> currentTxn = new ThreadLocal<>();
+    private final LinkedHashMap<Long,OrdinalIndex> ordinalIndexes = new LinkedHashMap<>( 16, 0.75f, true ) {
+        @Override protected boolean removeEldestEntry( Map.Entry<Long,OrdinalIndex> eldest ) {
+            return size() > MAX_ORDINAL_INDEXES;
         }
-    }
+    };
+    private final LinkedHashMap<Long,ContainerStats> containerStats = new LinkedHashMap<>( 16, 0.75f, true ) {
+        @Override protected boolean removeEldestEntry( Map.Entry<Long,ContainerStats> eldest ) {
+            return size() > MAX_CONTAINER_STATS;
+        }
+    };
+    private final HashMap<Long,Owned> writers = new HashMap<>(); // NOTE: the one write under way per container
+    private final long[] loadStamps = new long[LOAD_STAMPS]; // NOTE: bumped as writes begin and end
 
 
 
     public PersistentData() {
         this( defaultJdbcUrl, "PersistentData" );
     }
-    public PersistentData( String jdbcUrl, String tableName ) {
-        this.tableName = tableName;
+    /**
+     * url is a JDBC URL, or "log:directory" for a LogRowStore; see RowStore.open(). Starts at defaultDurability.
+     */
+    public PersistentData( String url, String tableName ) {
+        this( RowStore.open( url, tableName ) );
+        store.setDurability(defaultDurability);
+    }
+    public PersistentData( RowStore store ) {
+        this.store = store;
+        this.rowCache = new RowCache( defaultCacheSize );
+        this.collector = new SubtreeCollector( store, this::collected, gcBatchRows, gcPauseMillis );
+        for ( long detachedID : store.parentIDsBelow(R00T_PARENT_ID) ) collector.add(detachedID); // NOTE: left by a crash
+    }
+
+
+
+    /**
+     * The calling thread's transaction: how deeply nested it is, which cache entries it made stale, and the
+     * containers whose ordinal state it has checked out.
+     */
+    private static final class Txn {
+        int depth = 0;
+        final List<Row> dirtyRows = new ArrayList<>(); // NOTE: null means the whole cache
+        final List<Long> detached = new ArrayList<>(); // NOTE: for the collector once committed
+        final Map<Long,Owned> owned = new HashMap<>();
+    }
+    private boolean inTransaction() { return currentTxn.get()!=null; }
+
+
+
+    /**
+     * How soon commits reach the disk. Under Durability.group() concurrent writers share syncs (log: stores only);
+     * under async() they do not wait at all, and flush() is the barrier for a caller that must know its writes are safe.
+     */
+    public void setDurability( Durability durability ) { store.setDurability(durability); }
+    public void flush() { store.flush(); }
+
+
+
+    /**
+     * Runs work as one transaction: everything it writes commits together (one commit instead of one per
+     * statement), or nothing does if it throws. A nested call becomes a savepoint, so when the outer work catches
+     * an inner failure only the inner part is undone.
+     */
+    public void transaction( Runnable work ) {
+        Txn txn = currentTxn.get();
+        if ( txn==null ) currentTxn.set( txn = new Txn() );
+        txn.depth++;
+        boolean committed = false;
         try {
-            if ( jdbcUrl.startsWith("jdbc:hsqldb:") ) {
-                if (jdbcUrl.startsWith("jdbc:hsqldb:file:")) {
-                    conn = DriverManager.getConnection(jdbcUrl + ";shutdown=true", "SA", "");
-                } else {
-                    conn = DriverManager.getConnection(jdbcUrl, "SA", "");
-                }
-                try ( Statement stmt = conn.createStatement() ) {
-                    stmt.execute( "SET DATABASE SQL SYNTAX ORA TRUE" );
-                    stmt.execute( "SET DATABASE TRANSACTION CONTROL MVCC" );
-                    stmt.execute( "SET FILES WRITE DELAY FALSE" );
-                }
-            } else if ( jdbcUrl.startsWith("jdbc:sqlite:") ) {
-                conn = DriverManager.getConnection(jdbcUrl);
-                try ( Statement stmt = conn.createStatement() ) {
-                    stmt.execute( LibString.nw( """
-                        pragma journal_mode = WAL;
-                        pragma synchronous = normal;
-                        pragma temp_store = memory;
-                        pragma mmap_size = 2000000000;
-                    """ ) );
-                }
-            } else {
-                conn = DriverManager.getConnection(jdbcUrl);
+            store.transaction(work);
+            committed = true;
+        } catch ( RuntimeException | Error e ) {
+            if ( txn.depth>1 ) { // NOTE: a savepoint undid part of it; reread on next use
+                for ( Owned own : txn.owned.values() ) own.forget();
             }
-        } catch (SQLException e) { throw new RuntimeException(e); }
-        createTable();
+            throw e;
+        } finally {
+            if ( --txn.depth==0 ) {
+                currentTxn.remove();
+                uncacheDirtyRows(txn);
+                for ( Owned own : txn.owned.values() ) endWrite( own, committed );
+                if ( committed ) for ( long detachedID : txn.detached ) collector.add(detachedID);
+            }
+        }
     }
 
 
@@ -104,6 +161,7 @@ public class PersistentData implements AutoCloseable {
         public final String keyJson;
         public final String valueJson;
         public final Long lastChangeTime;
+        private volatile Object[] decoded; // NOTE: memoized, so a cached row is decoded only once
         public Row( Long id, Long parentID, Long entryOrder, String keyJson, String valueJson, Long lastChangeTime ) {
             this.id = id;
             this.parentID = parentID;
@@ -112,6 +170,9 @@ public class PersistentData implements AutoCloseable {
             this.valueJson = valueJson;
             this.lastChangeTime = lastChangeTime;
         }
+        private Row( RowStore.Values v ) {
+            this( v.id(), v.parentID(), v.entryOrder(), v.keyJson(), v.valueJson(), v.lastChangeTime() );
+        }
         public Row( long id ) {
             this(id,null,null,null,null,null);
         }
@@ -122,21 +183,12 @@ public class PersistentData implements AutoCloseable {
             this(null,parentID,null,keyJson,null,null);
         }
         public Row insert() {
-            String sql = LibString.evalTemplate( LibString.unindent( """
-                INSERT INTO {{tableName}} (
-                    id, parent_id, entry_order, key_json, value_json, last_change_time
-                ) VALUES (?,?,?,?,?,?)
-            """ ), Map.of( "tableName", tableName ) );
-            try {
-                PreparedStatement stmt = conn.prepareStatement(sql);
-                stmt.setLong(1, id);
-                stmt.setLong(2, parentID);
-                stmt.setLong(3, entryOrder);
-                stmt.setString(4, keyJson);
-                stmt.setString(5, valueJson);
-                stmt.setLong(6, lastChangeTime);
-                return stmt.executeUpdate()==1 ? this : null;
-            } catch (SQLException e) { throw new RuntimeException(e); }
+            return writing( parentID, own -> {
+                if (! store.insert( values() ) ) return null;
+                own.added(entryOrder);
+                cacheWrite( null, this );
+                return this;
+            } );
         }
         public Row update( Map<String,Object> newValues ) {
             return update( new Row(
@@ -149,72 +201,44 @@ public class PersistentData implements AutoCloseable {
             ) );
         }
         public Row update( Row newValues ) {
-            List<String> setSql = new ArrayList<>();
-            List<Object> setValues = new ArrayList<>();
-            List<String> whereSql = new ArrayList<>();
-            List<Object> whereValues = new ArrayList<>();
             long changeTime = Lib.currentTimeMicros();
-            final Row row = this;
-            if (row.id!=null) {
-                whereSql.add("id=?");
-                whereValues.add(row.id);
-            } else {
+            Row row = this;
+            if (row.id==null) {
                 if (row.parentID==null) throw new IllegalArgumentException("id and parent_id cannot both be null");
                 if (row.entryOrder==null && row.keyJson==null) throw new IllegalArgumentException(
                     "id and parent_id cannot both be null"
                 );
-                whereSql.add("parent_id=?");
-                whereValues.add(row.parentID);
-                if (row.entryOrder!=null) {
-                    whereSql.add("entry_order=?");
-                    whereValues.add(row.entryOrder);
-                }
-                if (row.keyJson!=null) {
-                    whereSql.add("key_json=?");
-                    whereValues.add(row.keyJson);
-                }
+                row = select();
+                if ( row==null || ( keyJson!=null && !keyJson.equals(row.keyJson) ) ) return null;
             }
-            if (newValues.id!=null) {
-                setSql.add("id=?");
-                setValues.add(newValues.id);
-            }
-            if (newValues.parentID!=null) {
-                setSql.add("parent_id=?");
-                setValues.add(newValues.parentID);
-            }
-            if (newValues.entryOrder!=null) {
-                setSql.add("entry_order=?");
-                setValues.add(newValues.entryOrder);
-            }
-            if (newValues.keyJson!=null) {
-                setSql.add("key_json=?");
-                setValues.add(newValues.keyJson);
-            }
-            if (newValues.valueJson!=null) {
-                setSql.add("value_json=?");
-                setValues.add(newValues.valueJson);
+            if ( newValues.valueJson!=null && !SubtreeCollector.isContainer(newValues.valueJson) ) {
+                Row old = row.valueJson!=null ? row : row.select();
+                if ( old!=null && SubtreeCollector.isContainer(old.valueJson) ) { // NOTE: its children go too
+                    Row[] updated = new Row[1];
+                    transaction( () -> {
+                        updated[0] = old.write( newValues, changeTime );
+                        if ( updated[0]!=null ) detachChildren( old.id );
+                    } );
+                    return updated[0];
+                }
             }
-            {
-                setSql.add("last_change_time=?");
-                setValues.add(changeTime);
+            return row.write( newValues, changeTime );
+        }
+        private Row write( Row newValues, long changeTime ) {
+            Row row = this;
+            boolean moves = newValues.parentID!=null || newValues.entryOrder!=null;
+            if ( moves && row.parentID==null ) {
+                row = row.select();
+                if ( row==null ) return null;
             }
-            if (setSql.isEmpty()) return null;
-            String sql = (
-                "UPDATE "+tableName+" SET "+String.join(",",setSql)
-                +" WHERE "+String.join(" AND ",whereSql)
-            );
-            List<Object> allValues = new ArrayList<>(setValues);
-            allValues.addAll(whereValues);
-            try ( PreparedStatement stmt = conn.prepareStatement(sql) ) {
-                for ( int i=0; i<allValues.size(); i++ ) {
-                    Object value = allValues.get(i);
-                    if ( value instanceof String ) stmt.setString( i+1, (String)value );
-                    if ( value instanceof Long ) stmt.setLong( i+1, (Long)value );
-                }
-                boolean success = stmt.executeUpdate() == 1;
-                if (!success) return null;
+            boolean success = store.update( row.id, new RowStore.Values(
+                newValues.id, newValues.parentID, newValues.entryOrder, newValues.keyJson, newValues.valueJson, changeTime
+            ) );
+            if (!success) return null;
+            if ( moves ) { // NOTE: rare; reloaded on next use
+                unindexed( row.parentID );
+                if ( newValues.parentID!=null ) unindexed( newValues.parentID );
             }
-            catch (SQLException e) { throw new RuntimeException(e); }
             Row newRow = new Row(
                 newValues.id!=null ? newValues.id : row.id,
                 newValues.parentID!=null ? newValues.parentID : row.parentID,
@@ -223,62 +247,61 @@ public class PersistentData implements AutoCloseable {
                 newValues.valueJson!=null ? newValues.valueJson : row.valueJson,
                 changeTime
             );
+            cacheWrite( row, newRow );
             return newRow;
         }
         public Row select() {
-            PreparedStatement pstmt = null;
-            String sql;
-            try {
-                if (id!=null) {
-                    sql = LibString.evalTemplate( LibString.unindent( """
-                        SELECT * FROM {{tableName}} WHERE id=?
-                    """ ), Map.of( "tableName", tableName ) );
-                    pstmt = conn.prepareStatement(sql);
-                    pstmt.setLong(1, id);
-                } else if (parentID==null) {
-                    throw new IllegalArgumentException("id and parent_id cannot both be null");
-                } else if (entryOrder!=null) {
-                    sql = LibString.evalTemplate( LibString.unindent( """
-                        SELECT * FROM {{tableName}} WHERE parent_id=? AND entry_order=?
-                    """ ), Map.of( "tableName", tableName ) );
-                    pstmt = conn.prepareStatement(sql);
-                    pstmt.setLong(1, parentID);
-                    pstmt.setLong(2, entryOrder);
-                } else if (keyJson!=null) {
-                    sql = LibString.evalTemplate( LibString.unindent( """
-                        SELECT * FROM {{tableName}} WHERE parent_id=? AND key_json=?
-                    """ ), Map.of( "tableName", tableName ) );
-                    pstmt = conn.prepareStatement(sql);
-                    pstmt.setLong(1, parentID);
-                    pstmt.setString(2, keyJson);
-                } else {
-                    throw new IllegalArgumentException("need id or parentID+entryOrder or parentID+keyJson");
-                }
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (!rs.next()) return null;
-                    return new Row(
-                        rs.getLong("id"),
-                        rs.getLong("parent_id"),
-                        rs.getLong("entry_order"),
-                        rs.getString("key_json"),
-                        rs.getString("value_json"),
-                        rs.getLong("last_change_time")
-                    );
-                } finally { if (pstmt!=null) pstmt.close(); }
-            } catch (SQLException e) { throw new RuntimeException(e); }
+            boolean inTransaction = inTransaction();
+            if (! inTransaction ) { // NOTE: a transaction must see its own writes, which are never cached
+                Row cached = (
+                    id!=null ? rowCache.byId(id)
+                    : parentID!=null && entryOrder==null && keyJson!=null ? rowCache.byKey(parentID,keyJson)
+                    : null
+                );
+                if ( cached!=null ) return cached;
+            }
+            long readStamp = rowCache.stamp();
+            RowStore.Values found;
+            if (id!=null) {
+                found = store.selectById(id);
+            } else if (parentID==null) {
+                throw new IllegalArgumentException("id and parent_id cannot both be null");
+            } else if (entryOrder!=null) {
+                found = store.selectByOrder( parentID, entryOrder );
+            } else if (keyJson!=null) {
+                found = store.selectByKey( parentID, keyJson );
+            } else {
+                throw new IllegalArgumentException("need id or parentID+entryOrder or parentID+keyJson");
+            }
+            if ( found==null ) return null;
+            Row row = new Row(found);
+            if (! inTransaction ) rowCache.fill( row, readStamp );
+            return row;
         }
         public Row delete() {
             Row deletedRow = select();
             if (deletedRow==null) return null;
-            try {
-                String sql = LibString.evalTemplate( LibString.unindent( """
-                    DELETE FROM {{tableName}} WHERE id=?
-                """ ), Map.of( "tableName", tableName ) );
-                PreparedStatement stmt = conn.prepareStatement(sql);
-                stmt.setLong(1, deletedRow.id);
-                boolean success = stmt.executeUpdate() == 1;
-                return success ? deletedRow : null;
-            } catch (SQLException e) { throw new RuntimeException(e); }
+            return writing( deletedRow.parentID, own -> {
+                if ( SubtreeCollector.isContainer(deletedRow.valueJson) ) { // NOTE: O(1) whatever is below it
+                    long detachedID = newDetachedID();
+                    RowStore.Values detach = new RowStore.Values( null, detachedID, null, null, null, null );
+                    if (! store.update( deletedRow.id, detach ) ) return null;
+                    collectLater(detachedID);
+                } else {
+                    if (! store.delete(deletedRow.id) ) return null;
+                }
+                own.removed( deletedRow.entryOrder );
+                cacheWrite( deletedRow, null );
+                return deletedRow;
+            } );
+        }
+        private RowStore.Values values() {
+            return new RowStore.Values( id, parentID, entryOrder, keyJson, valueJson, lastChangeTime );
+        }
+        private Object decoded() {
+            Object[] d = decoded;
+            if ( d==null ) decoded = d = new Object[]{ JsonDecoder.decode(valueJson) };
+            return d[0];
         }
         public Map<String,Object> toMap() {
             return Lib.mapOf(
@@ -303,48 +326,6 @@ public class PersistentData implements AutoCloseable {
 
 
 
-    /**
-     * NOTE: if this represents a map or a list, then value_json will be "MAP" or "LIST",
-     * but not quoted, so it will be invalid json.
-    */
-    private void createTable() {
-        String textType = "TEXT";
-        try {
-            String dbProduct = conn.getMetaData().getDatabaseProductName();
-            if (dbProduct.toLowerCase().contains("hsql")) {
-                textType = "VARCHAR(32672)";
-            }
-        } catch (SQLException ignore) {}
-
-        String createTable = LibString.evalTemplate( LibString.unindent( """
-            CREATE TABLE IF NOT EXISTS {{tableName}} (
-                id BIGINT NOT NULL,
-                parent_id BIGINT NOT NULL,
-                entry_order BIGINT NOT NULL,
-                key_json {{textType}} NOT NULL,
-                value_json {{textType}} NOT NULL,
-                last_change_time BIGINT NOT NULL,
-                PRIMARY KEY (id)
-            )
-        """ ), Map.of( "tableName", this.tableName, "textType", textType ) );
-        String createIndexA = LibString.evalTemplate( LibString.unindent( """
-            CREATE INDEX IF NOT EXISTS {{tableName}}_key_idx
-            ON {{tableName}} (parent_id, key_json)
-        """ ), Map.of( "tableName", this.tableName ) );
-        String createIndexB = LibString.evalTemplate( LibString.unindent( """
-            CREATE INDEX IF NOT EXISTS {{tableName}}_order_idx  -- this would be UNIQUE except it would be
-            ON {{tableName}} (parent_id, entry_order)           -- violated temporarily during overlapping updates
-        """ ), Map.of( "tableName", this.tableName ) );
-        try ( Statement stmt = conn.createStatement() ) {
-            stmt.execute(createTable);
-            stmt.execute(createIndexA);
-            stmt.execute(createIndexB);
-        }
-        catch ( SQLException e ) { throw new RuntimeException(e); }
-    }
-
-
-
     public PersistentMap getRootMap() {
         long changeTime = Lib.currentTimeMicros();
         Row row = new Row(R00T_ID).select();
@@ -392,30 +373,331 @@ public class PersistentData implements AutoCloseable {
 
 
 
-    public long size( long parentID ) {
-        long[] minMaxEntryOrder = getMinMaxEntryOrder(parentID);
-        if ( minMaxEntryOrder==null ) return 0L;
-        return 1 + minMaxEntryOrder[1] - minMaxEntryOrder[0];
-    }
+    public long size( long parentID ) { return stats(parentID).count; }
 
 
 
     public Object get( long id ) {
-        Row row = row(id).select();
-        if (row==null) return null;
-        if ("MAP".equals(row.valueJson) ) return new PersistentMap( this , row.id );
-        if ("LIST".equals(row.valueJson) ) return new PersistentList( this, row.id );
-        return JsonDecoder.decode(row.valueJson);
+        return valueOf( row(id).select() );
     }
     public Object get( long parentID, long entryOrder ) {
-        Row row = row(parentID,entryOrder).select();
-        if (row==null) return null;
-        return get(row.id);
+        return valueOf( row(parentID,entryOrder).select() );
     }
     public Object get( long parentID, String keyJson ) {
-        Row row = row(parentID,keyJson).select();
+        return valueOf( row(parentID,keyJson).select() );
+    }
+    public Object valueOf( Row row ) {
         if (row==null) return null;
-        return get(row.id);
+        if ("MAP".equals(row.valueJson) ) return new PersistentMap( this , row.id );
+        if ("LIST".equals(row.valueJson) ) return new PersistentList( this, row.id );
+        return row.decoded();
+    }
+
+
+
+    /**
+     * Keeps rowCache in step with a write. Outside a transaction the written row goes straight in. Inside one, other
+     * threads must not see it before the commit, so the old entries are only dropped now and again afterwards.
+     */
+    private void cacheWrite( Row before, Row after ) {
+        Txn txn = currentTxn.get();
+        for ( Row r : new Row[]{ before, after } ) {
+            if ( r==null ) continue;
+            if ( r.id==null && r.keyJson==null ) {
+                rowCache.clear(); // NOTE: nothing to find the entry by
+                if ( txn!=null ) txn.dirtyRows.add(null);
+            } else {
+                rowCache.invalidate( r.id, r.parentID, r.keyJson );
+                if ( txn!=null ) txn.dirtyRows.add(r);
+            }
+        }
+        if ( after!=null && txn==null ) rowCache.put(after);
+    }
+    private void uncacheDirtyRows( Txn txn ) {
+        for ( Row r : txn.dirtyRows ) {
+            if ( r==null ) rowCache.clear();
+            else rowCache.invalidate( r.id, r.parentID, r.keyJson );
+        }
+        txn.dirtyRows.clear();
+    }
+    public long cacheHits() { return rowCache.hits(); }
+    public long cacheMisses() { return rowCache.misses(); }
+
+
+
+    /**
+     * Entry orders are sparse: new elements land ORDER_SPACING past the ends or halfway between their neighbours,
+     * so inserting and removing never renumbers the rest of a list. Position in the list is therefore a rank, which
+     * the per-container OrdinalIndex answers in O(log n); the most recently used MAX_ORDINAL_INDEXES containers keep
+     * one in memory, loaded with one ordered scan on first use and then maintained by every insert and delete.
+     * NOTE: the shared indexes hold committed state only; see Owned for how writers keep theirs apart.
+     */
+    public Long entryOrderAt( long parentID, long rank ) {
+        ContainerStats stats = stats(parentID);
+        if ( rank<0 || rank>=stats.count ) return null;
+        if ( rank==0 ) return stats.min; // NOTE: the ends of a list (push, pop, shift) need no OrdinalIndex
+        if ( rank==stats.count-1 ) return stats.max;
+        return withIndex( parentID, ix -> rank<ix.size() ? ix.get(rank) : null );
+    }
+    public long rankOf( long parentID, long entryOrder ) {
+        return withIndex( parentID, ix -> ix.rankOf(entryOrder) );
+    }
+    /**
+     * Runs query against parentID's index: this thread's transaction's own if it is writing there, otherwise the
+     * shared one, under the lock. A miss is loaded outside the lock, then cached unless a write got in the way.
+     */
+    private <T> T withIndex( long parentID, Function<OrdinalIndex,T> query ) {
+        Owned own = owned(parentID);
+        if ( own!=null ) return query.apply( own.index() );
+        long stamp;
+        synchronized (ordinalIndexes) {
+            OrdinalIndex ix = ordinalIndexes.get(parentID);
+            if ( ix!=null ) return query.apply(ix);
+            stamp = loadStamps[ stamp(parentID) ];
+        }
+        long[] orders = store.entryOrders(parentID);
+        OrdinalIndex loaded = OrdinalIndex.of( orders, orders.length );
+        boolean cacheable = !inTransaction();
+        synchronized (ordinalIndexes) {
+            if ( cacheable && cacheable( parentID, stamp ) ) {
+                OrdinalIndex ix = ordinalIndexes.putIfAbsent( parentID, loaded );
+                if ( ix!=null ) loaded = ix;
+            }
+            return query.apply(loaded);
+        }
+    }
+
+
+
+    /**
+     * The count and first and last entry order of one container's children, so size() and getMinMaxEntryOrder()
+     * are O(1) after one aggregate query. Kept for the MAX_CONTAINER_STATS most recently used containers, and
+     * checked out to writers along with the OrdinalIndex.
+     */
+    private static final class ContainerStats {
+        long count, min, max;
+        static ContainerStats of( long[] counted ) {
+            ContainerStats stats = new ContainerStats();
+            stats.count = counted[0];
+            stats.min = counted[1];
+            stats.max = counted[2];
+            return stats;
+        }
+        static ContainerStats of( OrdinalIndex ix ) {
+            ContainerStats stats = new ContainerStats();
+            stats.count = ix.size();
+            if ( stats.count>0 ) {
+                stats.min = ix.first();
+                stats.max = ix.last();
+            }
+            return stats;
+        }
+        ContainerStats copy() { return of( new long[]{ count, min, max } ); }
+    }
+    /**
+     * parentID's stats as this thread should see them: its transaction's own if it is writing there, otherwise a
+     * copy of the committed ones. A miss is loaded outside the lock.
+     */
+    private ContainerStats stats( long parentID ) {
+        Owned own = owned(parentID);
+        if ( own!=null ) return own.stats();
+        long stamp;
+        synchronized (ordinalIndexes) {
+            ContainerStats stats = containerStats.get(parentID);
+            if ( stats!=null ) return stats.copy();
+            OrdinalIndex ix = ordinalIndexes.get(parentID);
+            if ( ix!=null ) {
+                containerStats.put( parentID, stats = ContainerStats.of(ix) );
+                return stats.copy();
+            }
+            stamp = loadStamps[ stamp(parentID) ];
+        }
+        ContainerStats loaded = ContainerStats.of( store.stats(parentID) );
+        boolean cacheable = !inTransaction();
+        synchronized (ordinalIndexes) {
+            if ( cacheable && cacheable( parentID, stamp ) ) containerStats.putIfAbsent( parentID, loaded.copy() );
+        }
+        return loaded;
+    }
+
+
+
+    /**
+     * One container's stats and OrdinalIndex as the transaction writing it sees them. A container has one writer at
+     * a time, so entry orders computed from these never collide: the shared ones are taken out of the cache when the
+     * write begins (or loaded on first use, through the writer's own connection, so they include its uncommitted
+     * rows) and changed only here, and endWrite() puts them back once the store has committed. Meanwhile other
+     * writers wait in beginWrite(), and readers load the committed state, uncached.
+     */
+    private final class Owned {
+        final long parentID;
+        ContainerStats stats;
+        OrdinalIndex ix;
+        Owned( long parentID ) { this.parentID = parentID; }
+        ContainerStats stats() {
+            if ( stats==null ) stats = ix!=null ? ContainerStats.of(ix) : ContainerStats.of( store.stats(parentID) );
+            return stats;
+        }
+        OrdinalIndex index() {
+            if ( ix==null ) {
+                long[] orders = store.entryOrders(parentID);
+                ix = OrdinalIndex.of( orders, orders.length );
+                stats = ContainerStats.of(ix); // NOTE: so the two agree
+            }
+            return ix;
+        }
+        void added( long entryOrder ) {
+            if ( ix!=null ) ix.add(entryOrder);
+            if ( stats==null ) return;
+            stats.min = stats.count==0 ? entryOrder : Math.min( stats.min, entryOrder );
+            stats.max = stats.count==0 ? entryOrder : Math.max( stats.max, entryOrder );
+            stats.count++;
+        }
+        void removed( long entryOrder ) {
+            if ( ix!=null ) ix.remove(entryOrder);
+            if ( stats==null ) return;
+            stats.count--;
+            if ( stats.count==0 || ( entryOrder!=stats.min && entryOrder!=stats.max ) ) return;
+            if ( ix==null ) { // NOTE: the new end is unknown; reload it on next use
+                stats = null;
+                return;
+            }
+            stats.min = ix.first();
+            stats.max = ix.last();
+        }
+        void emptied() {
+            stats = new ContainerStats();
+            ix = null;
+        }
+        void forget() {
+            stats = null;
+            ix = null;
+        }
+    }
+    private Owned owned( long parentID ) {
+        Txn txn = currentTxn.get();
+        return txn==null ? null : txn.owned.get(parentID);
+    }
+    /**
+     * Runs write, which changes parentID's children through the store, with the container checked out to the
+     * calling thread's transaction until it ends; outside one, write gets a transaction of its own.
+     */
+    private <T> T writing( long parentID, Function<Owned,T> write ) {
+        Txn txn = currentTxn.get();
+        if ( txn==null ) {
+            List<T> result = new ArrayList<>(1);
+            transaction( () -> result.add( writing( parentID, write ) ) );
+            return result.get(0);
+        }
+        return write.apply( txn.owned.computeIfAbsent( parentID, this::beginWrite ) );
+    }
+    /**
+     * Waits up to writeWaitMillis for parentID's current writer to commit or roll back, then checks it out.
+     * NOTE: called inside the store's transaction, so a store that locks writers (LogRowStore) is always locked first.
+     */
+    private Owned beginWrite( long parentID ) {
+        synchronized (ordinalIndexes) {
+            long deadline = System.currentTimeMillis() + writeWaitMillis;
+            while ( writers.containsKey(parentID) ) {
+                long wait = deadline - System.currentTimeMillis();
+                if ( wait<=0 ) throw new IllegalStateException( "timed out waiting for another writer of "+parentID );
+                try { ordinalIndexes.wait(wait); }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            Owned own = new Owned(parentID);
+            writers.put( parentID, own );
+            loadStamps[ stamp(parentID) ]++;
+            own.stats = containerStats.remove(parentID);
+            own.ix = ordinalIndexes.remove(parentID);
+            return own;
+        }
+    }
+    private void endWrite( Owned own, boolean committed ) {
+        synchronized (ordinalIndexes) {
+            writers.remove( own.parentID );
+            loadStamps[ stamp(own.parentID) ]++;
+            ordinalIndexes.notifyAll();
+            if (! committed ) return; // NOTE: reloaded on next use
+            if ( own.stats!=null ) containerStats.put( own.parentID, own.stats );
+            if ( own.ix!=null ) ordinalIndexes.put( own.parentID, own.ix );
+        }
+    }
+    /**
+     * Whether a load of parentID that began at stamp may be cached: no write to it is under way, and none began or
+     * ended meanwhile, so the load saw exactly the committed state.
+     * NOTE: the caller holds the ordinalIndexes lock.
+     */
+    private boolean cacheable( long parentID, long stamp ) {
+        return loadStamps[ stamp(parentID) ]==stamp && !writers.containsKey(parentID);
+    }
+    private static int stamp( long parentID ) { return Long.hashCode(parentID) & (LOAD_STAMPS-1); }
+    /**
+     * After a change too irregular to track (a row moved between containers, a bulk insert), parentID's ordinal
+     * state is reloaded on next use.
+     */
+    private void unindexed( long parentID ) {
+        writing( parentID, own -> {
+            own.forget();
+            return null;
+        } );
+    }
+    /**
+     * NOTE: only for a container nobody writes to any more, e.g. one the collector deleted.
+     */
+    private void dropOrdinalIndex( long parentID ) {
+        synchronized (ordinalIndexes) {
+            ordinalIndexes.remove(parentID);
+            containerStats.remove(parentID);
+            loadStamps[ stamp(parentID) ]++;
+        }
+    }
+
+
+
+    /**
+     * An unused entry order that sorts at rank (0..size) of parentID. When its neighbours are adjacent numbers, a
+     * window of ranks around it is respread evenly, doubling until the spacing is at least MIN_ORDER_STEP; the window
+     * is small unless one spot has had thousands of inserts. Call inside a transaction, since it may move rows.
+     */
+    private long entryOrderForRank( long parentID, long rank ) {
+        return writing( parentID, own -> {
+            ContainerStats stats = own.stats();
+            if ( stats.count==0 ) return 0L;
+            if ( rank<=0 ) return stats.min - ORDER_SPACING;
+            if ( rank>=stats.count ) return stats.max + ORDER_SPACING;
+            OrdinalIndex ix = own.index();
+            long size = ix.size();
+            long lo = ix.get(rank-1), hi = ix.get(rank);
+            if ( hi-lo>1 ) return lo + (hi-lo)/2;
+            long start, end, left, step;
+            for ( long w=4; ; w*=2 ) {
+                start = Math.max( 0, rank-w );
+                end = Math.min( size, rank+w );
+                long slots = end-start+1; // NOTE: the window's elements plus the new one
+                if ( start==0 || end==size ) {
+                    step = ORDER_SPACING;
+                    left = end==size ? ( start==0 ? ix.first()-step : ix.get(start-1) ) : ix.get(end)-(slots+1)*step;
+                    break;
+                }
+                left = ix.get(start-1);
+                step = ( ix.get(end)-left ) / (slots+1);
+                if ( step>=MIN_ORDER_STEP ) break;
+            }
+            long[] orders = new long[ (int)(end-start) ];
+            for ( long r=start; r<end; r++ ) orders[ (int)(r-start) ] = left + ( r<rank ? r-start+1 : r-start+2 )*step;
+            long[] ids = store.idsInRange( parentID, ix.get(start), ix.get(end-1) );
+            if ( ids.length!=orders.length ) {
+                throw new IllegalStateException( "entry orders of "+parentID+" changed underneath" );
+            }
+            for ( long id : ids ) cacheWrite( new Row(id), null );
+            store.setEntryOrders( ids, orders );
+            for ( long r=start; r<end; r++ ) ix.set( r, orders[ (int)(r-start) ] ); // NOTE: once the rows have moved
+            own.stats = ContainerStats.of(ix);
+            return left + (rank-start+1)*step;
+        } );
     }
 
 
@@ -425,6 +707,10 @@ public class PersistentData implements AutoCloseable {
      */
     public Object put( long id, Object value ) {
         long changeTime = Lib.currentTimeMicros();
+        boolean container = value instanceof Map<?,?> || value instanceof List<?>;
+        if ( container && bulkInsertChildren( id, value, changeTime ) ) {
+            return value instanceof Map<?,?> ? getMap(id) : getList(id);
+        }
         if ( value instanceof Map<?,?> ) {
             for ( Object key : ((Map<?,?>)value).keySet() ) {
                 Object val = ((Map<?,?>)value).get(key);
@@ -434,11 +720,10 @@ public class PersistentData implements AutoCloseable {
             return getMap(id);
         }
         if ( value instanceof List<?> ) {
-            long[] minMaxEntryOrder = getMinMaxEntryOrder(id);
-            long entryOrder = minMaxEntryOrder==null ? 0L : minMaxEntryOrder[0];
+            long rank = 0;
             for ( Object val : ((List<?>)value) ) {
-                put( id, entryOrder, val );
-                entryOrder++;
+                Long entryOrder = entryOrderAt( id, rank++ );
+                put( id, entryOrder!=null ? entryOrder : Long.MAX_VALUE, val ); // NOTE: past the end appends
             }
             return getList(id);
         }
@@ -453,10 +738,12 @@ public class PersistentData implements AutoCloseable {
         );
         Row row = row(parentID,keyJson).select();
         if (row==null) {
-            long[] minMaxEntryOrder=getMinMaxEntryOrder(parentID);
             long newID = changeTime;
-            long entryOrder = minMaxEntryOrder==null ? 0 : minMaxEntryOrder[1]+1;
-            row = new Row(newID,parentID,entryOrder,keyJson,valueJson,changeTime).insert();
+            row = writing( parentID, own -> { // NOTE: no other writer can take the same last entry order meanwhile
+                ContainerStats stats = own.stats();
+                long entryOrder = stats.count==0 ? 0 : stats.max+ORDER_SPACING;
+                return new Row(newID,parentID,entryOrder,keyJson,valueJson,changeTime).insert();
+            } );
         } else {
             row.update(Lib.mapOf( "valueJson",valueJson, "lastChangeTime",changeTime ));
         }
@@ -466,24 +753,25 @@ public class PersistentData implements AutoCloseable {
     }
     public Object put( long parentID, long entryOrder, Object value ) {
         long changeTime = Lib.currentTimeMicros();
-        { // make sure entryOrder is contiguous
-            long[] minMaxEntryOrder=getMinMaxEntryOrder(parentID);
-            if (minMaxEntryOrder!=null) {
-                entryOrder = Math.max( minMaxEntryOrder[0]-1, entryOrder );
-                entryOrder = Math.min( minMaxEntryOrder[1]+1, entryOrder );
-            }
-        }
         String valueJson = (
             ( value instanceof Map<?,?> ) ? "MAP" : ( value instanceof List<?> ) ? "LIST" : JsonEncoder.encode(value)
         );
-        Row row = row(parentID,entryOrder).select();
-        if (row==null) {
+        Row row = writing( parentID, own -> { // NOTE: the ends are read and extended by one writer at a time
+            long order = entryOrder;
+            ContainerStats stats = own.stats();
+            if ( stats.count>0 ) { // past either end means at that end
+                if ( order<stats.min ) order = stats.min-ORDER_SPACING;
+                if ( order>stats.max ) order = stats.max+ORDER_SPACING;
+            }
+            Row existing = row(parentID,order).select();
+            if ( existing!=null ) {
+                existing.update(Lib.mapOf( "valueJson",valueJson, "lastChangeTime",changeTime ));
+                return existing;
+            }
             long newID = changeTime;
             String keyJson = LibString.dblQuot( Lib.uniqID() );
-            row = new Row(newID,parentID,entryOrder,keyJson,valueJson,changeTime).insert();
-        } else {
-            row.update(Lib.mapOf( "valueJson",valueJson, "lastChangeTime",changeTime ));
-        }
+            return new Row(newID,parentID,order,keyJson,valueJson,changeTime).insert();
+        } );
         if ( value instanceof Map<?,?> ) return put( row.id, value );
         if ( value instanceof List<?> ) return put( row.id, value );
         return value;
@@ -491,6 +779,187 @@ public class PersistentData implements AutoCloseable {
 
 
 
+    /**
+     * Fills an empty container with the whole tree below it in one pass and one transaction: ids and entry orders
+     * are assigned while walking, so nothing has to be read back, and the rows go to the store in batches.
+     * put() merges row by row instead when the container already has children.
+     * @return false, having written nothing, if it has children
+     */
+    private boolean bulkInsertChildren( long parentID, Object container, long changeTime ) {
+        return writing( parentID, own -> {
+            if ( own.stats().count>0 ) return false;
+            List<RowStore.Values> batch = new ArrayList<>();
+            addChildRows( batch, parentID, container, changeTime );
+            store.insertAll(batch);
+            own.forget();
+            return true;
+        } );
+    }
+    private void addChildRows( List<RowStore.Values> batch, long parentID, Object container, long changeTime ) {
+        Iterator<?> it = container instanceof Map<?,?> m ? m.entrySet().iterator() : ((List<?>)container).iterator();
+        long entryOrder = 0;
+        while ( it.hasNext() ) {
+            Object item = it.next();
+            String keyJson;
+            Object value;
+            if ( item instanceof Map.Entry<?,?> e && container instanceof Map<?,?> ) {
+                keyJson = JsonEncoder.encode( e.getKey() );
+                value = e.getValue();
+            } else {
+                keyJson = LibString.dblQuot( Lib.uniqID() );
+                value = item;
+            }
+            String valueJson = (
+                ( value instanceof Map<?,?> ) ? "MAP" : ( value instanceof List<?> ) ? "LIST" : JsonEncoder.encode(value)
+            );
+            long id = Lib.currentTimeMicros();
+            batch.add( new RowStore.Values( id, parentID, entryOrder, keyJson, valueJson, changeTime ) );
+            entryOrder += ORDER_SPACING;
+            if ( batch.size() >= BULK_BATCH_SIZE ) {
+                store.insertAll(batch);
+                batch.clear();
+            }
+            if ( value instanceof Map<?,?> || value instanceof List<?> ) {
+                addChildRows( batch, id, value, changeTime );
+            }
+        }
+    }
+
+
+
+    /**
+     * Writes the JSON for row id and everything below it straight to out. Each container is read in entry order a
+     * page at a time through the (parent_id, entry_order) index, and stored value_json is copied as is, so nothing
+     * is decoded, re-encoded or held in memory beyond one page per level of nesting.
+     */
+    public void exportJson( long id, Writer out ) throws IOException {
+        Row row = row(id).select();
+        if ( row==null ) out.write("null");
+        else exportJson( row, out );
+    }
+    private void exportJson( Row row, Writer out ) throws IOException {
+        if ( "MAP".equals(row.valueJson) ) exportChildren( row.id, true, out );
+        else if ( "LIST".equals(row.valueJson) ) exportChildren( row.id, false, out );
+        else out.write( row.valueJson );
+    }
+    void exportChildren( long parentID, boolean isMap, Writer out ) throws IOException {
+        out.write( isMap ? '{' : '[' );
+        ArrayDeque<Row> page = new ArrayDeque<>();
+        long after = Long.MIN_VALUE;
+        boolean first = true;
+        while (true) {
+            int count = fetchPage( parentID, after, page );
+            for ( Row child : page ) {
+                if (! first ) out.write(',');
+                first = false;
+                if ( isMap ) {
+                    out.write( child.keyJson );
+                    out.write(':');
+                }
+                exportJson( child, out );
+                after = child.entryOrder;
+            }
+            page.clear();
+            if ( count<ROW_PAGE ) break;
+        }
+        out.write( isMap ? '}' : ']' );
+    }
+
+
+
+    /**
+     * Replaces the contents of container id with the JSON object or array read from in, inserting rows in
+     * batches as the parser reaches them, so a document of any size needs memory only for its nesting depth.
+     * All or nothing: it runs as one transaction. Like clear(), it leaves the old nested rows to the collector.
+     */
+    public void importJson( long id, Reader in ) throws IOException {
+        JsonPullParser parser = new JsonPullParser(in);
+        JsonPullParser.Token first = parser.nextToken();
+        boolean isMap = first==JsonPullParser.Token.START_OBJECT;
+        if ( !isMap && first!=JsonPullParser.Token.START_ARRAY ) throw new IOException( "expected a JSON object or array" );
+        long changeTime = Lib.currentTimeMicros();
+        try {
+            transaction( () -> {
+                try {
+                    clearChildValues(id);
+                    row(id).update( Lib.mapOf( "valueJson",isMap ? "MAP" : "LIST", "lastChangeTime",changeTime ) );
+                    List<RowStore.Values> batch = new ArrayList<>();
+                    importChildren( batch, parser, id, changeTime );
+                    store.insertAll(batch);
+                    unindexed(id);
+                }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            } );
+        } catch ( UncheckedIOException e ) {
+            throw e.getCause();
+        }
+    }
+    /**
+     * One row per value as the parser reaches it; parents holds {id, next entry order} for each open container.
+     */
+    private void importChildren( List<RowStore.Values> batch, JsonPullParser parser, long parentID, long changeTime )
+    throws IOException {
+        ArrayDeque<long[]> parents = new ArrayDeque<>();
+        parents.push( new long[]{ parentID, 0 } );
+        String keyJson = null;
+        while (! parents.isEmpty() ) {
+            JsonPullParser.Token token = parser.nextToken();
+            switch (token) {
+                case END_OBJECT, END_ARRAY: parents.pop(); continue;
+                case NAME: keyJson = JsonEncoder.encode( parser.name() ); continue;
+                case END_DOCUMENT: throw new IOException( "unexpected end of JSON" );
+                default: break;
+            }
+            long[] parent = parents.peek();
+            String valueJson = (
+                token==JsonPullParser.Token.START_OBJECT ? "MAP"
+                : token==JsonPullParser.Token.START_ARRAY ? "LIST"
+                : JsonEncoder.encode( parser.value() )
+            );
+            long id = Lib.currentTimeMicros();
+            if ( keyJson==null ) keyJson = LibString.dblQuot( Lib.uniqID() );
+            batch.add( new RowStore.Values( id, parent[0], parent[1], keyJson, valueJson, changeTime ) );
+            parent[1] += ORDER_SPACING;
+            keyJson = null;
+            if ( batch.size() >= BULK_BATCH_SIZE ) {
+                store.insertAll(batch);
+                batch.clear();
+            }
+            if ( token!=JsonPullParser.Token.VALUE ) parents.push( new long[]{ id, 0 } );
+        }
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean stream_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("stream") ) {
+            List<Object> rows = new ArrayList<>();
+            for ( int i=0; i<250; i++ ) rows.add( Lib.mapOf( "i", i, "s", "q\"uote", "tags", List.of( 1, 2 ), "n", null ) );
+            Map<Object,Object> tree = Lib.mapOf( "rows", rows, "empty", Map.of(), "x", 1.5 );
+            String json = JsonEncoder.encode(tree);
+
+            pd.getRootMap().put( "old", "gone" );
+            pd.importJson( R00T_ID, new StringReader(json) );
+            LibTest.asrtEQ( JsonDecoder.decode(json), pd.getRootMap(), "imported" );
+            LibTest.asrt(! pd.getRootMap().containsKey("old"), "replaced" );
+
+            StringWriter out = new StringWriter();
+            pd.exportJson( R00T_ID, out );
+            LibTest.asrtEQ( json, out.toString(), "exported byte for byte, across several pages" );
+
+            try {
+                pd.importJson( R00T_ID, new StringReader( "{\"a\":[1,2" ) );
+                LibTest.asrt( false, "truncated input accepted" );
+            } catch ( IOException expected ) {}
+            LibTest.asrtEQ( 250, ((List<?>)pd.getRootMap().get("rows")).size(), "failed import rolled back" );
+        }
+        return true;
+    }
+
+
+
     /**
      * NOTE: returns valueJson of deleted row
      */
@@ -501,9 +970,7 @@ public class PersistentData implements AutoCloseable {
     }
     public String remove( long parentID, long entryOrder ) {
         Row row = row(parentID,entryOrder).delete();
-        if (row==null) return null;
-        removeGap(parentID,entryOrder,entryOrder);
-        return row.valueJson;
+        return row==null ? null : row.valueJson;
     }
     public String remove( long parentID, String keyJson ) {
         Row row = row(parentID,keyJson).select();
@@ -514,20 +981,23 @@ public class PersistentData implements AutoCloseable {
 
 
     /**
+     * Inserts value just before the element at entryOrder, or appends it when there is none.
      * NOTE: returns the NEW persistent version of value
      */
     public Object insert( long parentID, long entryOrder, Object value ) {
-        long[] minMaxEntryOrder=getMinMaxEntryOrder(parentID);
-        if (minMaxEntryOrder==null) return put(parentID,value);
-        if (
-            minMaxEntryOrder==null || entryOrder<minMaxEntryOrder[0] || entryOrder>minMaxEntryOrder[1]
-        ) { // not an insert
-            return put( parentID, entryOrder, value );
-        }
-        if ( entryOrder==minMaxEntryOrder[0] ) return put( parentID, entryOrder-1, value ); // insert at top
-        if ( entryOrder==minMaxEntryOrder[1] ) return put( parentID, entryOrder+1, value ); // insert at bottom
-        createGap(parentID,entryOrder,1L);
-        return put(parentID,entryOrder,value);
+        long rank = rankOf( parentID, entryOrder );
+        return insertAt( parentID, rank<0 ? -rank-1 : rank, value );
+    }
+    /**
+     * Inserts value so that it becomes the element at rank (0..size).
+     */
+    public Object insertAt( long parentID, long rank, Object value ) {
+        Object[] stored = new Object[1];
+        transaction( () -> {
+            long entryOrder = entryOrderForRank( parentID, rank );
+            stored[0] = put( parentID, entryOrder, value );
+        } );
+        return stored[0];
     }
 
 
@@ -576,50 +1046,139 @@ public class PersistentData implements AutoCloseable {
 
 
 
+    @SuppressWarnings("unused")
+    private static boolean bulk_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("bulk") ) {
+            List<Object> big = new ArrayList<>();
+            for ( int i=0; i<2000; i++ ) big.add( Lib.mapOf( "i", i, "tags", List.of( "a", "b" ) ) );
+            PersistentMap root = pd.getRootMap();
+            root.put( "big", big );
+            PersistentList stored = (PersistentList) root.get("big");
+            LibTest.asrtEQ( 2000, stored.size() );
+            LibTest.asrtEQ( JsonEncoder.encode( big.get(1234) ), JsonEncoder.encode( stored.get(1234) ) );
+            LibTest.asrt( pd.entryOrderCheck( pd.row( R00T_ID, "\"big\"" ).select().id, false ) );
+
+            root.put( "bad", Map.of() );
+            long badID = pd.row( R00T_ID, "\"bad\"" ).select().id;
+            try {
+                pd.put( badID, List.of( "ok", "x".repeat(40_000) ) ); // NOTE: too long for the column
+                LibTest.asrt( false, "oversized value accepted" );
+            } catch ( RuntimeException expected ) {}
+            LibTest.asrtEQ( null, pd.getMinMaxEntryOrder(badID), "rolled back as a whole" );
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean transaction_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("txn") ) {
+            PersistentMap root = pd.getRootMap();
+            pd.transaction( () -> {
+                root.put( "a", 1 );
+                root.put( "b", 2 );
+                Object[] seenElsewhere = new Object[1];
+                Thread t = Thread.ofVirtual().start( () -> seenElsewhere[0] = root.get("a") );
+                try { t.join(); } catch ( InterruptedException e ) { throw new RuntimeException(e); }
+                LibTest.asrtEQ( null, seenElsewhere[0], "uncommitted writes are private" );
+            } );
+            LibTest.asrtEQ( 2, root.get("b") );
+
+            try {
+                pd.transaction( () -> {
+                    root.put( "c", 3 );
+                    throw new IllegalStateException("abort");
+                } );
+            } catch ( IllegalStateException expected ) {}
+            LibTest.asrt(! root.containsKey("c"), "rolled back" );
+
+            pd.transaction( () -> {
+                root.put( "d", 4 );
+                try {
+                    pd.transaction( () -> {
+                        root.put( "e", 5 );
+                        throw new IllegalStateException("inner abort");
+                    } );
+                } catch ( IllegalStateException expected ) {}
+            } );
+            LibTest.asrtEQ( 4, root.get("d") );
+            LibTest.asrt(! root.containsKey("e"), "savepoint rolled back" );
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean cache_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("cache") ) {
+            PersistentMap root = pd.getRootMap();
+            root.put( "cfg", Map.of( "mode", "fast" ) );
+            PersistentMap cfg = (PersistentMap) root.get("cfg");
+            LibTest.asrtEQ( "fast", cfg.get("mode") );
+            long hits = pd.cacheHits();
+            for ( int i=0; i<10; i++ ) LibTest.asrtEQ( "fast", cfg.get("mode") );
+            LibTest.asrtEQ( hits+10, pd.cacheHits(), "repeat lookups never reach the database" );
+
+            cfg.put( "mode", "safe" );
+            LibTest.asrtEQ( "safe", cfg.get("mode"), "write-through" );
+            cfg.remove("mode");
+            LibTest.asrtEQ( null, cfg.get("mode") );
+
+            cfg.put( "mode", "a" );
+            pd.transaction( () -> {
+                cfg.put( "mode", "b" );
+                Object[] seenElsewhere = new Object[1];
+                Thread t = Thread.ofVirtual().start( () -> seenElsewhere[0] = cfg.get("mode") );
+                try { t.join(); } catch ( InterruptedException e ) { throw new RuntimeException(e); }
+                LibTest.asrtEQ( "a", seenElsewhere[0], "the cache does not leak uncommitted writes" );
+                LibTest.asrtEQ( "b", cfg.get("mode"), "but the writer sees its own" );
+            } );
+            LibTest.asrtEQ( "b", cfg.get("mode"), "stale entry dropped at commit" );
+            try {
+                pd.transaction( () -> {
+                    cfg.put( "mode", "c" );
+                    throw new IllegalStateException("abort");
+                } );
+            } catch ( IllegalStateException expected ) {}
+            LibTest.asrtEQ( "b", cfg.get("mode"), "rolled-back write not cached" );
+
+            cfg.clear();
+            LibTest.asrtEQ( null, cfg.get("mode") );
+        }
+        return true;
+    }
+
+
+
     public long[] getMinMaxEntryOrder( long parentID ) {
-        /* NOTE: can't use this because SQLITE returns 0,0 on an empty table!
-            String sql = LibString.evalTemplate( LibString.unindent( """
-                SELECT MIN(entry_order) AS min_entry_order, MAX(entry_order) AS max_entry_order
-                FROM {{tableName}} WHERE parent_id=?
-            """ ), Map.of( "tableName", this.tableName ) );
-        */
-        String sql = LibString.evalTemplate( LibString.unindent( """
-            SELECT entry_order FROM {{tableName}} WHERE parent_id=?
-            AND entry_order = (SELECT MIN(entry_order) FROM {{tableName}} WHERE parent_id=?)
-                UNION ALL
-            SELECT entry_order FROM {{tableName}} WHERE parent_id=?
-            AND entry_order = (SELECT MAX(entry_order) FROM {{tableName}} WHERE parent_id=?)
-        """ ), Map.of( "tableName", this.tableName ) );
-        try ( PreparedStatement stmt = conn.prepareStatement(sql) ) {
-            stmt.setLong(1, parentID);
-            stmt.setLong(2, parentID);
-            stmt.setLong(3, parentID);
-            stmt.setLong(4, parentID);
-            try ( ResultSet rs = stmt.executeQuery() ) {
-                if (! rs.next() ) return null;
-                long minEntryOrder = rs.getLong("entry_order");
-                if (! rs.next() ) return null;
-                long maxEntryOrder = rs.getLong("entry_order");
-                return new long[] { minEntryOrder, maxEntryOrder };
-            }
-        }
-        catch (SQLException e) { throw new RuntimeException(e); }
+        ContainerStats stats = stats(parentID);
+        return stats.count==0 ? null : new long[] { stats.min, stats.max };
     }
 
 
 
+    /**
+     * Walks the children in entry order, ROW_PAGE rows per query.
+     */
     public Iterator<Row> rowIterator( long parentID ) {
-        long[] minMaxEntryOrder = getMinMaxEntryOrder(parentID);
-        if (minMaxEntryOrder==null) return Collections.emptyIterator();
-        final long firstEntryOrder = minMaxEntryOrder[0];
         return new Iterator<Row>() {
-            private Row nextRow = new Row(parentID,firstEntryOrder).select();
+            private final ArrayDeque<Row> page = new ArrayDeque<>();
+            private long after = Long.MIN_VALUE;
+            private boolean exhausted = false;
             private Row prevRow = null;
-            @Override public boolean hasNext() { return nextRow!=null; }
+            @Override public boolean hasNext() {
+                if ( page.isEmpty() && !exhausted ) exhausted = fetchPage( parentID, after, page ) < ROW_PAGE;
+                return !page.isEmpty();
+            }
             @Override public Row next() {
-                if (nextRow==null) throw new NoSuchElementException();
-                prevRow = nextRow;
-                nextRow = new Row( parentID, nextRow.entryOrder+1 ).select();
+                if (! hasNext() ) throw new NoSuchElementException();
+                prevRow = page.poll();
+                after = prevRow.entryOrder;
                 return prevRow;
             }
             @Override public void remove() {
@@ -628,6 +1187,11 @@ public class PersistentData implements AutoCloseable {
             }
         };
     }
+    private int fetchPage( long parentID, long afterEntryOrder, Collection<Row> page ) {
+        List<RowStore.Values> rows = store.page( parentID, afterEntryOrder, ROW_PAGE );
+        for ( RowStore.Values v : rows ) page.add( new Row(v) );
+        return rows.size();
+    }
     public Iterable<Row> rowIterable( long parentID ) {
         return Lib.asIterable( rowIterator(parentID) );
     }
@@ -635,172 +1199,238 @@ public class PersistentData implements AutoCloseable {
 
 
     /**
-     * NOTE: not recursive; can leave orphan rows
+     * Empties container parentID at once; the rows below its children are deleted later by the collector.
+     * @return how many children it had
      */
     public long clearChildValues( long parentID ) {
-        String sql = LibString.evalTemplate( LibString.unindent( """
-            DELETE FROM {{tableName}} WHERE parent_id=?
-        """ ), Map.of( "tableName", this.tableName ) );
-        try ( PreparedStatement stmt = conn.prepareStatement(sql) ) {
-            stmt.setLong(1, parentID);
-            stmt.executeUpdate();
-            return stmt.getUpdateCount();
-        }
-        catch (SQLException e) { throw new RuntimeException(e); }
+        return detachChildren(parentID);
+    }
+
+
+
+    /**
+     * Subtrees that are deleted (by remove(), clear(), a scalar put over a container, importJson()) are detached:
+     * moved in one step under a fresh parent id below R00T_PARENT_ID that no row has, so they are gone for every
+     * reader, then deleted gcBatchRows at a time by a background SubtreeCollector. Nothing is ever swept for.
+     */
+    private long detachChildren( long parentID ) {
+        long detachedID = newDetachedID();
+        long rowCount = writing( parentID, own -> {
+            long moved = store.moveChildren( parentID, detachedID );
+            own.emptied();
+            return moved;
+        } );
+        cacheWrite( new Row(null,null,null,null,null,null), null ); // NOTE: the children aren't indexed by parent
+        if ( rowCount>0 ) collectLater(detachedID);
+        return rowCount;
+    }
+    private static long newDetachedID() { return -Lib.currentTimeMicros(); }
+    private void collectLater( long detachedID ) {
+        Txn txn = currentTxn.get();
+        if ( txn!=null ) txn.detached.add(detachedID);
+        else collector.add(detachedID);
     }
+    private void collected( RowStore.Values row ) {
+        cacheWrite( new Row(row), null );
+        if ( SubtreeCollector.isContainer( row.valueJson() ) ) dropOrdinalIndex( row.id() );
+    }
+    public int gcPendingSubtrees() { return collector.pendingSubtrees(); }
+    public long gcReclaimedRows() { return collector.reclaimedRows(); }
 
 
 
+    /**
+     * Deletes every detached subtree now, on this thread, instead of waiting for the collector.
+     * NOTE: tooYoungAgeToDieSeconds no longer matters; detached rows are unreachable from the moment they are detached.
+     * @return how many rows that deleted
+     */
     public long deleteOrphans( int tooYoungAgeToDieSeconds ) {
-        long tooYoungMicros = Lib.currentTimeMicros() - tooYoungAgeToDieSeconds * 1000L * 1000L;
-        String sql = LibString.evalTemplate( LibString.unindent( """
-            DELETE FROM {{tableName}} WHERE last_change_time < ?
-            AND ? NOT IN (id,parent_id)
-            AND parent_id NOT IN ( SELECT id FROM {{tableName}} )
-        """ ), Map.of( "tableName", this.tableName ) );
-        long totalRowCount = 0;
-        while (true) {
-            try ( PreparedStatement stmt = conn.prepareStatement(sql) ) {
-                stmt.setLong(1,tooYoungMicros);
-                stmt.setLong(2,R00T_ID);
-                stmt.executeUpdate();
-                long rowCount = stmt.getUpdateCount();
-                if (rowCount<=0) break;
-                totalRowCount += rowCount;
-            } catch (SQLException e) { throw new RuntimeException(e); }
+        return collector.drain();
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean gc_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("gc") ) {
+            PersistentMap root = pd.getRootMap();
+            List<Object> big = new ArrayList<>();
+            for ( int i=0; i<1200; i++ ) big.add( Map.of( "i", i, "tags", List.of( "a", "b" ) ) );
+            root.put( "big", big );
+            PersistentList list = (PersistentList) root.get("big");
+            long reclaimed = pd.gcReclaimedRows();
+            list.clear();
+            LibTest.asrt( list.isEmpty(), "gone at once" );
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ( pd.gcReclaimedRows() < reclaimed+6000 && System.currentTimeMillis()<deadline ) Thread.sleep(10);
+            LibTest.asrtEQ( reclaimed+6000, pd.gcReclaimedRows(), "grandchildren too, in the background" );
+            LibTest.asrtEQ( 0, pd.gcPendingSubtrees() );
+            LibTest.asrtEQ( 2, pd.store.ids().length, "root and the list" );
+            root.put( "big", "scalar now" );
+            pd.deleteOrphans(0);
+            LibTest.asrtEQ( 2, pd.store.ids().length );
+        }
+        try ( RowStore store = RowStore.open( "jdbc:hsqldb:mem:gc_"+System.currentTimeMillis(), "gc" ) ) {
+            store.insertAll( List.of( // NOTE: a subtree the last process detached but did not finish deleting
+                new RowStore.Values( 1L, -5_000_000L, 0L, "\"a\"", "LIST", 0L ),
+                new RowStore.Values( 2L, 1L, 0L, "\"b\"", "1", 0L )
+            ) );
+            PersistentData pd = new PersistentData(store);
+            pd.deleteOrphans(0);
+            LibTest.asrtEQ( 0, store.ids().length, "found again on opening" );
         }
-        return totalRowCount;
+        return true;
     }
 
 
 
-    /**
-     * NOTE: decides whether to move rows up or down based on which is smaller row count
-    **/
-    private long createGap( long parentID, long insertBeforeEntryOrder, long gapSize ) {
-        long[] minMaxEntryOrder = getMinMaxEntryOrder(parentID);
-        if (minMaxEntryOrder==null) return 0L;
-        long endRowCount = 1 + minMaxEntryOrder[1] - insertBeforeEntryOrder;
-        long topRowCount = insertBeforeEntryOrder - minMaxEntryOrder[0];
-        if (endRowCount<=0 || topRowCount<=0) return 0L; // NOTE: gap is before or after all rows
-        long distance = gapSize;
-        long movedCount;
-        if ( topRowCount < endRowCount ) { // move top rows up (i.e. negative distance)
-            long minEntryOrder = minMaxEntryOrder[0];
-            long maxEntryOrder = insertBeforeEntryOrder - 1;
-            distance = -1 * distance;
-            movedCount = moveRows(parentID,minEntryOrder,maxEntryOrder,distance);
-            LibTest.asrtEQ(movedCount,topRowCount);
-        } else { // move bottom rows down (i.e. positive distance)
-            long minEntryOrder = insertBeforeEntryOrder;
-            long maxEntryOrder = minMaxEntryOrder[1];
-            movedCount = moveRows(parentID,minEntryOrder,maxEntryOrder,distance);
-            LibTest.asrtEQ(movedCount,endRowCount);
-        }
-        return movedCount;
-    }
-
-
-
-    private long removeGap(
-        long parentID, long firstGapEntryOrder, long lastGapEntryOrder
-    ) {
-        long[] minMaxEntryOrder = getMinMaxEntryOrder(parentID);
-        if (minMaxEntryOrder==null) return 0L;
-        long topRowCount = firstGapEntryOrder - minMaxEntryOrder[0];
-        long endRowCount = minMaxEntryOrder[1] - lastGapEntryOrder;
-        if (endRowCount<=0 || topRowCount<=0) return 0L; // NOTE: gap is before or after all rows
-        long distance = 1 + lastGapEntryOrder - firstGapEntryOrder;
-        long movedCount;
-        if ( topRowCount < endRowCount ) { // move top rows down (i.e. positive distance)
-            long minEntryOrder = minMaxEntryOrder[0];
-            long maxEntryOrder = minEntryOrder + topRowCount - 1;
-            movedCount = moveRows(parentID,minEntryOrder,maxEntryOrder,distance);
-            LibTest.asrtEQ(movedCount,topRowCount);
-        } else { // move bottom rows up (i.e. negative distance)
-            distance = -1 * distance;
-            long minEntryOrder = lastGapEntryOrder+1;
-            long maxEntryOrder = minMaxEntryOrder[1];
-            movedCount = moveRows(parentID,minEntryOrder,maxEntryOrder,distance);
-            LibTest.asrtEQ(movedCount,endRowCount);
-        }
-        return movedCount;
-    }
-
-
-
-    private long moveRows( long parentID, long minEntryOrder, long maxEntryOrder, long distance ) {
-        String sql = LibString.evalTemplate( LibString.unindent( """
-            UPDATE {{tableName}}
-            SET entry_order = entry_order + ?
-            WHERE parent_id=? AND entry_order >= ? AND entry_order <= ?
-        """ ), Map.of( "tableName", this.tableName ) );
-        try ( PreparedStatement stmt = conn.prepareStatement(sql) ) {
-            stmt.setLong(1, distance);
-            stmt.setLong(2, parentID);
-            stmt.setLong(3, minEntryOrder);
-            stmt.setLong(4, maxEntryOrder);
-            long rowCount = stmt.executeUpdate();
-            return rowCount;
-        }
-        catch (SQLException e) { throw new RuntimeException(e); }
+    @SuppressWarnings("unused")
+    private static boolean stats_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("stats") ) {
+            PersistentList list = pd.getRootList();
+            for ( int i=0; i<50; i++ ) list.push(i);
+            list.unshift(-1);
+            LibTest.asrtEQ( 49, list.pop() );
+            LibTest.asrtEQ( -1, list.shift() );
+            LibTest.asrtEQ( 49, list.size() );
+            LibTest.asrtEQ( 48, list.get(48) );
+            LibTest.asrt(! pd.ordinalIndexes.containsKey(R00T_ID), "deque use needs only count, min and max" );
+
+            try {
+                pd.transaction( () -> {
+                    list.push(99);
+                    LibTest.asrtEQ( 50, list.size() );
+                    throw new IllegalStateException("abort");
+                } );
+            } catch ( IllegalStateException expected ) {}
+            LibTest.asrtEQ( 49, list.size(), "rolled back" );
+            LibTest.asrtEQ( 24, list.get(24) );
+            LibTest.asrt( pd.entryOrderCheck( R00T_ID, true ) );
+            list.clear();
+            LibTest.asrtEQ( 0, list.size() );
+            LibTest.asrtEQ( null, pd.getMinMaxEntryOrder(R00T_ID) );
+        }
+        return true;
     }
 
 
 
     @SuppressWarnings("unused")
-    private static boolean gap_TEST_( boolean findLineNumber ) throws Exception {
+    private static boolean concurrentStats_TEST_( boolean findLineNumber ) throws Exception {
         if (findLineNumber) throw new RuntimeException();
-        List< Map<String,Object> > actualData = null;
-        try ( PersistentData pd = PersistentData.temp() ) {
-            {
-                long id = Lib.currentTimeMicros();
-                pd.row( id, R00T_ID, 0L, "0", "0", id ).insert();
-                id = Lib.currentTimeMicros();
-                pd.row( id, R00T_ID, 1L, "1", "1", id ).insert();
-                id = Lib.currentTimeMicros();
-                pd.row( id, R00T_ID, 2L, "2", "2", id ).insert();
-                id = Lib.currentTimeMicros();
-                pd.row( id, R00T_ID, 3L, "3", "3", id ).insert();
-                id = Lib.currentTimeMicros();
-                pd.row( id, R00T_ID, 4L, "4", "4", id ).insert();
-            }
-            { // create a gap near the bottom
-                pd.createGap( R00T_ID, 3L, 2L );
-                long[] minMaxEntryOrder = pd.getMinMaxEntryOrder(R00T_ID);
-                LibTest.asrtEQ( minMaxEntryOrder[1], 6L );
-                actualData = pd.debugDump();
-                Object actual = Jsonable.get( actualData, List.of(3,"entryOrder") );
-                if (actual instanceof Jsonable) actual = ((Jsonable) actual).get();
-                LibTest.asrtEQ(actual,5);
-                actual = Jsonable.get( actualData, List.of(2,"entryOrder") );
-                if (actual instanceof Jsonable) actual = ((Jsonable) actual).get();
-                LibTest.asrtEQ(actual,2);
-            }
-            { // remove that gap
-                pd.removeGap( R00T_ID, 3L, 4L );
-                LibTest.asrt( pd.entryOrderCheck(R00T_ID,true) );
-            }
-            { // create a gap near the top
-                pd.createGap( R00T_ID, 2L, 2L );
-                actualData = pd.debugDump();
-                Object actual = Jsonable.get( actualData, List.of(0,"entryOrder") );
-                if (actual instanceof Jsonable) actual = ((Jsonable) actual).get();
-                LibTest.asrtEQ(actual,-2);
-                actual = Jsonable.get( actualData, List.of(1,"entryOrder") );
-                if (actual instanceof Jsonable) actual = ((Jsonable) actual).get();
-                LibTest.asrtEQ(actual,-1);
-                actual = Jsonable.get( actualData, List.of(2,"entryOrder") );
-                if (actual instanceof Jsonable) actual = ((Jsonable) actual).get();
-                LibTest.asrtEQ(actual,2);
-            }
-            { // remove that gap
-                pd.removeGap( R00T_ID, 0L, 1L );
-                LibTest.asrt( pd.entryOrderCheck(R00T_ID,true) );
-                long[] minMaxEntryOrder = pd.getMinMaxEntryOrder(R00T_ID);
-                LibTest.asrtEQ( minMaxEntryOrder[0], 0L );
-                LibTest.asrtEQ( minMaxEntryOrder[1], 4L );
+        try ( PersistentData pd = PersistentData.temp("concurrentStats") ) {
+            PersistentMap root = pd.getRootMap();
+            root.put( "list", List.of( 0, 1, 2 ) );
+            root.put( "other", List.of( 0 ) );
+            PersistentList list = (PersistentList) root.get("list");
+            PersistentList other = (PersistentList) root.get("other");
+            long listID = pd.row( R00T_ID, "\"list\"" ).select().id;
+            LibTest.asrtEQ( 3, list.size() );
+            CountDownLatch pushed = new CountDownLatch(1), release = new CountDownLatch(1);
+            Throwable[] failed = new Throwable[1];
+            Thread writer = new Thread( () -> {
+                try {
+                    pd.transaction( () -> {
+                        list.push(99);
+                        LibTest.asrtEQ( 4, list.size(), "a transaction sees its own push" );
+                        pushed.countDown();
+                        try { release.await(); } catch ( InterruptedException e ) { throw new RuntimeException(e); }
+                    } );
+                } catch ( Throwable t ) { failed[0] = t; }
+            } );
+            writer.start();
+            pushed.await();
+            LibTest.asrtEQ( 3, list.size(), "not another thread's uncommitted push" );
+            LibTest.asrtEQ( 1, list.get(1) );
+            try {
+                pd.transaction( () -> {
+                    other.push(1);
+                    throw new IllegalStateException("abort");
+                } );
+            } catch ( IllegalStateException expected ) {}
+            LibTest.asrtEQ( 3, list.size(), "an unrelated rollback changes nothing" );
+            LibTest.asrtEQ( 1, other.size() );
+            release.countDown();
+            writer.join();
+            LibTest.asrtEQ( null, failed[0] );
+            LibTest.asrtEQ( 4, list.size(), "the commit is seen" );
+            LibTest.asrtEQ( 99, list.get(3) );
+            LibTest.asrt( pd.entryOrderCheck( listID, true ) );
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean sameParent_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("sameParent") ) {
+            PersistentMap root = pd.getRootMap();
+            root.put( "list", List.of() );
+            PersistentList list = (PersistentList) root.get("list");
+            long listID = pd.row( R00T_ID, "\"list\"" ).select().id;
+            List<Thread> threads = new ArrayList<>();
+            for ( int t=0; t<8; t++ ) { // NOTE: every writer on the same two parents, each on its own connection
+                int n = t;
+                threads.add( Thread.ofPlatform().start( () -> {
+                    for ( int i=0; i<50; i++ ) {
+                        root.put( "t"+n+"."+i, i );
+                        list.push( n*100+i );
+                    }
+                } ) );
             }
+            for ( Thread t : threads ) t.join();
+            LibTest.asrtEQ( 401L, pd.size(R00T_ID) );
+            LibTest.asrtEQ( 400L, pd.size(listID) );
+            LibTest.asrt( pd.entryOrderCheck( R00T_ID, true ), "no duplicate entry orders" );
+            LibTest.asrt( pd.entryOrderCheck( listID, true ) );
+            Set<Object> pushed = new HashSet<>(list);
+            LibTest.asrtEQ( 400, pushed.size() );
+        }
+        return true;
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean sparse_TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("sparse") ) {
+            PersistentMap root = pd.getRootMap();
+            List<Object> expected = new ArrayList<>( List.of( "a", "b", "c", "d" ) );
+            root.put( "list", expected );
+            PersistentList list = (PersistentList) root.get("list");
+            long listID = pd.row( R00T_ID, "\"list\"" ).select().id;
+            Row d = pd.row( listID, pd.entryOrderAt(listID,3) ).select();
+            for ( int i=0; i<100; i++ ) { // NOTE: same spot every time, so the ordinals there run out and get respread
+                list.add( 2, i );
+                expected.add( 2, i );
+            }
+            LibTest.asrtEQ( JsonEncoder.encode(expected), JsonEncoder.encode(list) );
+            LibTest.asrt( pd.entryOrderCheck( listID, true ) );
+            LibTest.asrtEQ( d.entryOrder, pd.row(d.id).select().entryOrder, "rows outside the window never move" );
+
+            Random rnd = new Random(7);
+            for ( int i=0; i<300; i++ ) {
+                int at = rnd.nextInt( expected.size()+1 );
+                if ( rnd.nextBoolean() && !expected.isEmpty() ) {
+                    at = Math.min( at, expected.size()-1 );
+                    LibTest.asrtEQ( expected.remove(at), list.remove(at) );
+                } else {
+                    list.add( at, "x"+i );
+                    expected.add( at, "x"+i );
+                }
+            }
+            LibTest.asrtEQ( (long)expected.size(), pd.size(listID) );
+            for ( int i=0; i<expected.size(); i+=7 ) LibTest.asrtEQ( expected.get(i), list.get(i) );
+            LibTest.asrtEQ( JsonEncoder.encode(expected), JsonEncoder.encode(list) );
+            LibTest.asrt( pd.entryOrderCheck( listID, true ) );
+
+            pd.dropOrdinalIndex(listID); // reload from the table gives the same ranks
+            for ( int i=0; i<expected.size(); i+=11 ) LibTest.asrtEQ( expected.get(i), list.get(i) );
         }
         return true;
     }
@@ -812,16 +1442,11 @@ public class PersistentData implements AutoCloseable {
         while (! beforeClose.isEmpty()) {
             try{ beforeClose.removeFirst().run(); }catch(Throwable ignore){ Log.log(ignore); }
         }
-        try {
-            if (!conn.isClosed()) {
-                if (conn.getMetaData().getURL().startsWith("jdbc:hsqldb:file:")) {
-                    try (Statement stmt = conn.createStatement()) {
-                        stmt.execute("SHUTDOWN");
-                    }
-                }
-                conn.close();
-            }
-        }catch(Throwable ignore){ Log.log(ignore); }
+        if (! closed ) {
+            closed = true;
+            collector.close();
+            try{ store.close(); }catch(Throwable ignore){ Log.log(ignore); }
+        }
         while (! afterClose.isEmpty()) {
             try{ afterClose.removeFirst().run(); }catch(Throwable ignore){ Log.log(ignore); }
         }
@@ -830,16 +1455,8 @@ public class PersistentData implements AutoCloseable {
 
 
     public List< Map<String,Object> > debugDump() {
-        ArrayList<Long> ids = new ArrayList<>();
-        try (
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery( "SELECT id FROM "+tableName+" ORDER BY parent_id,entry_order" )
-        ) {
-            while ( rs.next() ) ids.add( rs.getLong("id") );
-        }
-        catch (SQLException e) { throw new RuntimeException(e); }
         ArrayList< Map<String,Object> > rows = new ArrayList<>();
-        for ( long id : ids ) {
+        for ( long id : store.ids() ) {
             Row row = row(id).select();
             rows.add( row.toMap() );
         }
@@ -848,28 +1465,29 @@ public class PersistentData implements AutoCloseable {
 
 
 
+    /**
+     * The row count must agree with the cached stats and the ordinal index, and (exhaustive) the rows must come back
+     * strictly in order.
+     */
     public boolean entryOrderCheck( long parentID, boolean exhaustive ) {
-        long[] minMaxEntryOrder = getMinMaxEntryOrder(parentID);
-        if (minMaxEntryOrder==null) return true;
-        long expectedRowCount = 1 + minMaxEntryOrder[1] - minMaxEntryOrder[0];
-        try ( PreparedStatement stmt = conn.prepareStatement(
-            "SELECT COUNT(*) AS count FROM "+tableName+" WHERE parent_id=?"
-        ) ) {
-            stmt.setLong(1, parentID);
-            try ( ResultSet rs = stmt.executeQuery() ) {
-                if (! rs.next() ) return false;
-                long rowCount = rs.getLong("count");
-                if (rowCount!=expectedRowCount) return false;
-            }
-        }
-        catch (SQLException e) { throw new RuntimeException(e); }
+        long rowCount = store.stats(parentID)[0];
+        if ( size(parentID)!=rowCount ) return false;
+        long[] minMax = getMinMaxEntryOrder(parentID);
+        boolean indexed = withIndex( parentID, ix -> ix.size()==rowCount && (
+            rowCount==0 || minMax[0]==ix.first() && minMax[1]==ix.last()
+        ) );
+        if (! indexed ) return false;
         if (!exhaustive) return true;
-        { // now we step through every row to guarantee entry order is consecutive
-            long expectedEntryOrder = minMaxEntryOrder[0];
+        { // now we step through every row to guarantee entry order is strictly increasing
+            long seen = 0;
+            Long prevEntryOrder = null;
             for ( Row row : rowIterable(parentID) ) {
-                if (row.entryOrder!=expectedEntryOrder) return false;
-                expectedEntryOrder++;
+                if ( prevEntryOrder!=null && row.entryOrder<=prevEntryOrder ) return false;
+                if (! row.entryOrder.equals( entryOrderAt( parentID, seen ) ) ) return false;
+                prevEntryOrder = row.entryOrder;
+                seen++;
             }
+            if ( seen!=rowCount ) return false;
         }
         return true;
     }
@@ -1,4 +1,5 @@
 package persist;
+import java.io.*;
 import java.util.*;
 
 import jLib.JsonEncoder;
@@ -19,7 +20,7 @@ public class PersistentList extends AbstractList<Object> {
 
     @Override
     public Object get(int index) {
-        Long entryOrder = entryOrder(index,null);
+        Long entryOrder = entryOrder(index);
         if (entryOrder==null) throw new IndexOutOfBoundsException();
         return pd.get(parentID,entryOrder);
     }
@@ -33,30 +34,35 @@ public class PersistentList extends AbstractList<Object> {
 
     @Override
     public Object set(int index, Object element) {
-        Long entryOrder = entryOrder(index,null);
+        Long entryOrder = entryOrder(index);
         if (entryOrder==null) throw new IndexOutOfBoundsException();
         Object oldValue = pd.get(parentID,entryOrder);
         pd.put( parentID, entryOrder, element );
         return oldValue;
     }
 
+    public PersistentData getPersistentData() { return pd; }
+
+    /**
+     * Streams this list as JSON without loading it; see PersistentData.exportJson.
+     */
+    public void exportJson( Writer out ) throws IOException { pd.exportChildren( parentID, false, out ); }
+
     @Override
     public void add( int index, Object element ) {
-        long[] minMaxEntryOrder = pd.getMinMaxEntryOrder(parentID);
-        long size = minMaxEntryOrder==null ? 0 : 1 + minMaxEntryOrder[1] - minMaxEntryOrder[0];
-        if (index==size) { // append
-            long entryOrder = minMaxEntryOrder==null ? 0 : minMaxEntryOrder[1]+1;
-            pd.put(parentID,entryOrder,element);
-        } else { // insert
-            Long entryOrder = entryOrder(index,minMaxEntryOrder);
-            if (entryOrder==null) throw new IndexOutOfBoundsException();
-            pd.insert(parentID,entryOrder,element);
-        }
+        pd.transaction( () -> addAt( index, element ) );
+    }
+
+    private void addAt( int index, Object element ) {
+        long size = pd.size(parentID);
+        long rank = index<0 && size>0 ? size - ( (-(long)index) % size ) : index; // NOTE: wrap around negative indexes
+        if ( rank<0 || rank>size ) throw new IndexOutOfBoundsException();
+        pd.insertAt( parentID, rank, element );
     }
 
     @Override
     public Object remove(int index) {
-        Long entryOrder = entryOrder(index,null);
+        Long entryOrder = entryOrder(index);
         if (entryOrder==null) throw new IndexOutOfBoundsException();
         Object oldValue = pd.get(parentID,entryOrder);
         pd.remove(parentID,entryOrder);
@@ -71,15 +77,17 @@ public class PersistentList extends AbstractList<Object> {
     public void unshift( Object element ) { add( 0, element ); }
     public Object shift() { return remove(0); }
 
-    private Long entryOrder( int index, long[] minMaxEntryOrder ) {
-        if (minMaxEntryOrder==null) minMaxEntryOrder = pd.getMinMaxEntryOrder(parentID);
-        if (minMaxEntryOrder==null) return null;
-        long size = 1 + minMaxEntryOrder[1] - minMaxEntryOrder[0];
+    /**
+     * Entry orders are sparse (see PersistentData.entryOrderAt), so an index is a rank, not an offset from the first.
+     */
+    private Long entryOrder( int index ) {
         long indexL = index;
-        if (indexL<0) indexL = ( size - ( (-index) % size ) ); // NOTE: wrap around negative indexes
-        if ( indexL<0 || indexL>=size ) return null;
-        long entryOrder = indexL + minMaxEntryOrder[0];
-        return entryOrder;
+        if (indexL<0) { // NOTE: wrap around negative indexes
+            long size = pd.size(parentID);
+            if (size==0) return null;
+            indexL = ( size - ( (-indexL) % size ) );
+        }
+        return pd.entryOrderAt( parentID, indexL );
     }
 
 
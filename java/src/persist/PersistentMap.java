@@ -1,4 +1,5 @@
 package persist;
+import java.io.*;
 import java.util.*;
 
 import jLib.JsonDecoder;
@@ -28,11 +29,21 @@ public class PersistentMap extends AbstractMap<Object,Object> {
         return pd.get(parentID,keyJson);
     }
 
+    public PersistentData getPersistentData() { return pd; }
+
+    /**
+     * Streams this map as JSON without loading it; see PersistentData.exportJson.
+     */
+    public void exportJson( Writer out ) throws IOException { pd.exportChildren( parentID, true, out ); }
+
     @Override
     public Object put(Object key, Object value) {
-        Object oldValue = remove(key);
-        pd.put( parentID, JsonEncoder.encode(key), value );
-        return oldValue;
+        Object[] oldValue = new Object[1];
+        pd.transaction( () -> {
+            oldValue[0] = remove(key);
+            pd.put( parentID, JsonEncoder.encode(key), value );
+        } );
+        return oldValue[0];
     }
 
     @Override
@@ -62,7 +73,7 @@ public class PersistentMap extends AbstractMap<Object,Object> {
                     @Override public Entry<Object,Object> next() {
                         PersistentData.Row row = it.next();
                         Object key = JsonDecoder.decode(row.keyJson);
-                        Object value = pd.get( parentID, row.keyJson );
+                        Object value = pd.valueOf(row);
                         return new SimpleEntry<>(key,value);
                     }
                     @Override public void remove() { it.remove(); }
@@ -0,0 +1,160 @@
+package persist;
+import java.util.*;
+import jLib.LibTest;
+
+
+
+/**
+ * PersistentData's bounded LRU of selected rows, found by id or by (parentID,keyJson). A Row decodes its value
+ * at most once, so a hit also skips JsonDecoder. Every change bumps a stamp; a row read from the database is only
+ * filled in if no change happened since the read began, so a slow reader can never put back a row that a writer
+ * has just replaced.
+ * NOTE: the lock is only ever taken last, never while waiting on the database.
+ */
+final class RowCache {
+
+
+
+    private record Key( long parentID, String keyJson ) {}
+    final int capacity;
+    private final HashMap<Key,Long> byKey = new HashMap<>();
+    private final LinkedHashMap<Long,PersistentData.Row> byId;
+    private long stamp = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+
+
+    RowCache( int capacity ) {
+        this.capacity = capacity;
+        this.byId = new LinkedHashMap<>( 16, 0.75f, true ) {
+            @Override protected boolean removeEldestEntry( Map.Entry<Long,PersistentData.Row> eldest ) {
+                if ( size()<=RowCache.this.capacity ) return false;
+                unmapKey( eldest.getValue() );
+                return true;
+            }
+        };
+    }
+
+
+
+    synchronized PersistentData.Row byId( long id ) {
+        PersistentData.Row row = byId.get(id);
+        if ( row!=null ) hits++;
+        else misses++;
+        return row;
+    }
+
+
+
+    synchronized PersistentData.Row byKey( long parentID, String keyJson ) {
+        Long id = byKey.get( new Key( parentID, keyJson ) );
+        PersistentData.Row row = id==null ? null : byId.get(id);
+        if ( row!=null ) hits++;
+        else misses++;
+        return row;
+    }
+
+
+
+    synchronized long stamp() { return stamp; }
+
+
+
+    /**
+     * Caches a row read from the database, unless anything changed after stamp() was taken before the read.
+     */
+    synchronized void fill( PersistentData.Row row, long readStamp ) {
+        if ( readStamp==stamp ) store(row);
+    }
+
+
+
+    /**
+     * Write-through: replaces whatever was cached for row's id and key.
+     */
+    synchronized void put( PersistentData.Row row ) {
+        stamp++;
+        invalidate( row.id, row.parentID, row.keyJson );
+        store(row);
+    }
+
+
+
+    /**
+     * Drops the entry for id and the one for (parentID,keyJson); any of them may be null.
+     */
+    synchronized void invalidate( Long id, Long parentID, String keyJson ) {
+        stamp++;
+        if ( parentID!=null && keyJson!=null ) {
+            Long mapped = byKey.remove( new Key( parentID, keyJson ) );
+            if ( mapped!=null ) unmapKey( byId.remove(mapped) );
+        }
+        if ( id!=null ) unmapKey( byId.remove(id) );
+    }
+
+
+
+    synchronized void clear() {
+        stamp++;
+        byId.clear();
+        byKey.clear();
+    }
+
+
+
+    synchronized long hits() { return hits; }
+    synchronized long misses() { return misses; }
+    synchronized int size() { return byId.size(); }
+
+
+
+    private void store( PersistentData.Row row ) {
+        if ( capacity<=0 || row.id==null || row.parentID==null || row.entryOrder==null || row.keyJson==null ) return;
+        if ( row.valueJson==null ) return; // NOTE: a partial row, e.g. from update() by id
+        byId.put( row.id, row );
+        byKey.put( new Key( row.parentID, row.keyJson ), row.id );
+    }
+
+
+
+    private void unmapKey( PersistentData.Row row ) {
+        if ( row==null ) return;
+        Key key = new Key( row.parentID, row.keyJson );
+        if ( row.id.equals( byKey.get(key) ) ) byKey.remove(key);
+    }
+
+
+
+    @SuppressWarnings({"unused", "try"})
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( PersistentData pd = PersistentData.temp("rowcache") ) {
+            RowCache cache = new RowCache(2);
+            PersistentData.Row a = pd.row( 1L, 0L, 0L, "\"a\"", "1", 0L );
+            PersistentData.Row b = pd.row( 2L, 0L, 1L, "\"b\"", "2", 0L );
+            PersistentData.Row c = pd.row( 3L, 0L, 2L, "\"c\"", "3", 0L );
+            cache.put(a);
+            cache.put(b);
+            LibTest.asrt( cache.byKey( 0L, "\"a\"" )==a );
+            cache.put(c); // NOTE: b is now the least recently used
+            LibTest.asrt( cache.byId(2L)==null, "evicted" );
+            LibTest.asrt( cache.byKey( 0L, "\"b\"" )==null, "evicted with its key" );
+            LibTest.asrtEQ( 2, cache.size() );
+
+            long readStamp = cache.stamp();
+            cache.invalidate( null, 0L, "\"a\"" );
+            cache.fill( a, readStamp );
+            LibTest.asrt( cache.byId(1L)==null, "stale fill rejected" );
+            cache.fill( a, cache.stamp() );
+            LibTest.asrt( cache.byId(1L)==a );
+            LibTest.asrtEQ( 2L, cache.hits() );
+            LibTest.asrtEQ( 3L, cache.misses() );
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) throws Exception { LibTest.testClass(); }
+}
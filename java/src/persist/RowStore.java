@@ -0,0 +1,97 @@
+package persist;
+import java.io.File;
+import java.util.*;
+
+
+
+/**
+ * Where PersistentData keeps its rows: (id, parent_id, entry_order, key_json, value_json, last_change_time), with id
+ * unique and (parent_id, key_json) and (parent_id, entry_order) as the two ways to find a child. PersistentData owns
+ * everything above that (caching, ranks, respacing, JSON), so a store only answers these few questions.
+ * - JdbcRowStore: a table in HSQLDB, SQLite or any JDBC database.
+ * - LogRowStore: memory-mapped append-only segment files with an in-memory index; no database needed.
+ * Every method is safe to call from any thread. Failures are unchecked exceptions, as they always were for the SQL.
+ */
+public interface RowStore extends AutoCloseable {
+
+
+
+    /**
+     * One row, or, as the argument to update(), the fields to change (null means unchanged).
+     * NOTE: rows a store returns always have every field.
+     */
+    record Values( Long id, Long parentID, Long entryOrder, String keyJson, String valueJson, Long lastChangeTime ) {}
+
+
+
+    /**
+     * Pins whatever the calling thread needs (a pooled connection) across several calls, so a caller that takes one
+     * of its own locks in between can never wait on a resource held by someone waiting on that lock.
+     */
+    interface Session extends AutoCloseable {
+        @Override void close();
+    }
+    Session session();
+
+
+
+    /**
+     * Runs work so that everything it writes through this store lands together or not at all. Nested calls on the
+     * same thread undo only their own part when they throw.
+     */
+    void transaction( Runnable work );
+
+
+
+    /** @return false if nothing was inserted */
+    boolean insert( Values row );
+    /** Inserts many rows, all or nothing. */
+    void insertAll( List<Values> rows );
+    Values selectById( long id );
+    Values selectByKey( long parentID, String keyJson );
+    Values selectByOrder( long parentID, long entryOrder );
+    /** @return false if there is no row id */
+    boolean update( long id, Values changes );
+    /** @return false if there is no row id */
+    boolean delete( long id );
+    /** Gives every child of fromParentID to toParentID, keys and entry orders unchanged; @return how many. */
+    long moveChildren( long fromParentID, long toParentID );
+
+
+
+    /** Up to limit children of parentID with entry_order > afterEntryOrder, in entry order. */
+    List<Values> page( long parentID, long afterEntryOrder, int limit );
+    /** Every entry order under parentID, ascending. */
+    long[] entryOrders( long parentID );
+    /** count, min and max entry order of parentID's children; min and max mean nothing when count is 0 */
+    long[] stats( long parentID );
+    /** ids of the children of parentID with fromEntryOrder <= entry_order <= toEntryOrder, in entry order. */
+    long[] idsInRange( long parentID, long fromEntryOrder, long toEntryOrder );
+    /** Moves each ids[i] to entryOrders[i]; the new orders may cross the old ones. */
+    void setEntryOrders( long[] ids, long[] entryOrders );
+    /** Every id, ordered by parent and entry order. */
+    long[] ids();
+    /** Every parent id below maxParentID that has children. */
+    long[] parentIDsBelow( long maxParentID );
+
+
+
+    /** When commits reach the disk; see Durability. */
+    void setDurability( Durability durability );
+    /** Returns once every commit made so far is on disk. */
+    void flush();
+
+
+
+    @Override void close();
+
+
+
+    /**
+     * "log:path" opens a LogRowStore with files named after tableName under path; anything else is a JDBC URL.
+     */
+    static RowStore open( String url, String tableName ) {
+        if ( url.startsWith("log:") ) return new LogRowStore( new File( url.substring(4) ), tableName );
+        return new JdbcRowStore( url, tableName );
+    }
+}
@@ -0,0 +1,203 @@
+package persist;
+import java.util.*;
+import java.util.function.Consumer;
+import jLib.*;
+
+
+
+/**
+ * Deletes detached subtrees a bounded batch at a time. A subtree is detached by moving it under a parent id that no
+ * row has (PersistentData uses negative ids below its root), which takes it out of sight at once; this then walks
+ * it depth first from a background thread, deleting at most batchRows leaves per step and pausing pauseMillis
+ * between steps, so a huge delete never holds the store for long.
+ * A container row is deleted only once it is empty, so every undeleted row stays reachable from its detached
+ * parent: after a crash, store.parentIDsBelow() finds the unfinished subtrees again.
+ */
+final class SubtreeCollector implements AutoCloseable {
+    private final RowStore store;
+    private final Consumer<RowStore.Values> deleted;
+    private final int batchRows;
+    private final long pauseMillis;
+    private final ArrayDeque<Long> pending = new ArrayDeque<>();
+    private final ArrayDeque<Long> path = new ArrayDeque<>(); // NOTE: the detached parent at the bottom
+    private final Object stepLock = new Object();
+    private long reclaimedRows = 0;
+    private Thread worker;
+    private boolean closed = false;
+
+
+
+    /**
+     * deleted hears about each row after it is gone, outside any store transaction.
+     */
+    SubtreeCollector( RowStore store, Consumer<RowStore.Values> deleted, int batchRows, long pauseMillis ) {
+        this.store = store;
+        this.deleted = deleted;
+        this.batchRows = Math.max( 1, batchRows );
+        this.pauseMillis = pauseMillis;
+    }
+
+
+
+    /**
+     * Queues the subtree under detachedID; call only once the move that detached it has committed.
+     */
+    synchronized void add( long detachedID ) {
+        if ( closed ) return;
+        pending.add(detachedID);
+        if ( worker==null ) worker = Thread.ofVirtual().name("SubtreeCollector").start( this::work );
+        notifyAll();
+    }
+
+
+
+    /**
+     * Deletes about batchRows rows (each page read that finds nothing counts as one), however the trees are shaped.
+     * @return false if there was nothing left to do
+     */
+    boolean step() {
+        synchronized (stepLock) {
+            int budget = batchRows;
+            boolean worked = false;
+            while ( budget>0 ) {
+                int used = advance(budget);
+                if ( used<0 ) break;
+                worked = true;
+                budget -= Math.max( 1, used );
+            }
+            return worked;
+        }
+    }
+    /**
+     * One page of leaves, or one emptied container. NOTE: holds stepLock.
+     * @return how many rows it deleted, or -1 if there was nothing to do
+     */
+    private int advance( int limit ) {
+        long parentID;
+        synchronized (this) { // NOTE: only step() changes path, but pendingSubtrees() reads it
+            if ( path.isEmpty() ) {
+                Long next = pending.poll();
+                if ( next==null ) return -1;
+                path.push(next);
+            }
+            parentID = path.peek();
+        }
+        List<RowStore.Values> page = store.page( parentID, Long.MIN_VALUE, limit );
+        if ( page.isEmpty() ) {
+            synchronized (this) {
+                path.pop();
+                if ( path.isEmpty() ) return 0; // NOTE: the detached parent has no row of its own
+            }
+            RowStore.Values container = store.selectById(parentID);
+            if ( container==null || !store.delete(parentID) ) return 0;
+            reclaimed( List.of(container) );
+            return 1;
+        }
+        List<RowStore.Values> leaves = new ArrayList<>();
+        Long container = null;
+        for ( RowStore.Values v : page ) {
+            if (! isContainer( v.valueJson() ) ) leaves.add(v);
+            else if ( container==null ) container = v.id();
+        }
+        if (! leaves.isEmpty() ) {
+            store.transaction( () -> { for ( RowStore.Values v : leaves ) store.delete( v.id() ); } );
+            reclaimed(leaves);
+        }
+        if ( container!=null ) synchronized (this) { path.push(container); }
+        return leaves.size();
+    }
+    private void reclaimed( List<RowStore.Values> rows ) {
+        synchronized (this) { reclaimedRows += rows.size(); }
+        for ( RowStore.Values v : rows ) deleted.accept(v);
+    }
+    static boolean isContainer( String valueJson ) {
+        return "MAP".equals(valueJson) || "LIST".equals(valueJson);
+    }
+
+
+
+    /**
+     * Finishes every queued subtree on the calling thread.
+     * @return how many rows that deleted
+     */
+    long drain() {
+        long before = reclaimedRows();
+        while ( step() ) {}
+        return reclaimedRows() - before;
+    }
+
+
+
+    synchronized int pendingSubtrees() { return pending.size() + ( path.isEmpty() ? 0 : 1 ); }
+    synchronized long reclaimedRows() { return reclaimedRows; }
+
+
+
+    private void work() {
+        while (true) {
+            synchronized (this) {
+                if ( closed ) break;
+            }
+            long pause;
+            try { pause = step() ? Math.max( 1, pauseMillis ) : 0; }
+            catch ( Throwable t ) {
+                Log.log(t);
+                pause = 1000; // NOTE: back off; the subtree stays in path and is retried
+            }
+            synchronized (this) {
+                if ( closed ) break;
+                if ( pause==0 && !pending.isEmpty() ) continue;
+                try { wait(pause); }
+                catch ( InterruptedException e ) { break; }
+            }
+        }
+        synchronized (this) { worker = null; }
+    }
+
+
+
+    /**
+     * Stops the background thread once its current step is done; whatever is left is found again on reopening.
+     */
+    @Override public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        synchronized (stepLock) {}
+    }
+
+
+
+    @SuppressWarnings("unused")
+    private static boolean _TEST_( boolean findLineNumber ) throws Exception {
+        if (findLineNumber) throw new RuntimeException();
+        try ( TmpDir tmp = new TmpDir(); LogRowStore store = new LogRowStore( tmp.dir, "gc" ) ) {
+            List<RowStore.Values> rows = new ArrayList<>();
+            rows.add( new RowStore.Values( 1L, -50L, 0L, "\"a\"", "MAP", 0L ) );
+            for ( long i=0; i<25; i++ ) rows.add( new RowStore.Values( 100+i, 1L, i, "\"k"+i+"\"", "0", 0L ) );
+            rows.add( new RowStore.Values( 2L, 1L, 99L, "\"b\"", "LIST", 0L ) );
+            rows.add( new RowStore.Values( 3L, 2L, 0L, "\"c\"", "LIST", 0L ) ); // NOTE: an empty container
+            rows.add( new RowStore.Values( 4L, -50L, 1L, "\"d\"", "1", 0L ) );
+            rows.add( new RowStore.Values( 5L, 0L, 0L, "\"kept\"", "1", 0L ) );
+            store.insertAll(rows);
+            List<Long> seen = new ArrayList<>();
+            SubtreeCollector gc = new SubtreeCollector( store, v -> seen.add( v.id() ), 10, 0 );
+            synchronized (gc) { gc.pending.add(-50L); } // NOTE: no worker thread, so each step is counted here
+            int steps = 0;
+            while ( gc.step() ) steps++;
+            LibTest.asrtEQ( 29L, gc.reclaimedRows() );
+            LibTest.asrtEQ( 29, seen.size() );
+            LibTest.asrt( seen.indexOf(1L) > seen.indexOf(2L) && seen.indexOf(2L) > seen.indexOf(3L), "children first" );
+            LibTest.asrt( steps>=3 && steps<=4, "bounded batches: "+steps );
+            LibTest.asrtEQ( "[5]", Arrays.toString( store.ids() ) );
+            LibTest.asrtEQ( 0, gc.pendingSubtrees() );
+            gc.close();
+        }
+        return true;
+    }
+
+
+
+    public static void main( String[] args ) { LibTest.testClass(); }
+}